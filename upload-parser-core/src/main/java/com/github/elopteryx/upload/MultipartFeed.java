@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An incremental multipart parser, which accepts the bytes of a multipart
+ * stream from any source and passes the parsed parts to a {@link PushHandler}.
+ * Instances can be created with a {@link PushParser}.
+ *
+ * <p>The feed is not thread-safe, the calls must not overlap. If a call throws an
+ * exception then the feed cannot be used anymore.</p>
+ */
+public interface MultipartFeed {
+
+    /**
+     * Parses the remaining bytes of the given buffer. The buffer is fully
+     * consumed, the bytes after the closing boundary are ignored.
+     * @param buffer The next bytes of the multipart stream
+     * @throws IOException If the stream is malformed or the handler failed
+     */
+    void feed(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Signals that the multipart stream has ended.
+     * @throws IOException If the stream ended before the closing boundary
+     */
+    void finish() throws IOException;
+
+    /**
+     * Returns whether the closing boundary has been read.
+     * @return True if the multipart stream is complete
+     */
+    boolean isComplete();
+}
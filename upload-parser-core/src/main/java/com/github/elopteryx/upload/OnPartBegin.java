@@ -32,7 +32,9 @@ public interface OnPartBegin {
      * with a buffer containing the read bytes. Note that the buffer is only passed
      * for validation, it should not be written out. The buffered and the upcoming
      * bytes will be written out to the output object returned by this method. If the callback
-     * is not set then the uploaded bytes are discarded.
+     * is not set then the uploaded bytes are discarded. The buffer is read-only, so it
+     * does not have an accessible backing array. Its memory is reused by the parser,
+     * so it must not be kept after this method returns.
      * @param context The upload context
      * @param buffer The byte buffer containing the first bytes of the part
      * @return A non-null output object (a channel or stream) to write out the part
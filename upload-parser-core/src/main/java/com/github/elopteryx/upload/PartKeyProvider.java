@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload;
+
+import java.io.IOException;
+import javax.crypto.SecretKey;
+
+/**
+ * A functional interface. An implementation of it can be supplied as the user object of the
+ * parser, to provide the keys for the {@link PartStage#encrypt(UploadContext)} stage. This way
+ * the key can be chosen for each request, for example based on the tenant of the user,
+ * without passing it through the callbacks.
+ */
+@FunctionalInterface
+public interface PartKeyProvider {
+
+    /**
+     * The function to implement. It is called at the start of each encrypted part, the key
+     * must be suitable for AES, so it must be 128, 192 or 256 bits long.
+     * @param context The upload context
+     * @return The key used to encrypt the current part
+     * @throws IOException If the key could not be retrieved
+     */
+    SecretKey getKey(UploadContext context) throws IOException;
+
+}
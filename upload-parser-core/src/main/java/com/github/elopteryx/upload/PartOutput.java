@@ -19,6 +19,12 @@ package com.github.elopteryx.upload;
 import java.io.OutputStream;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
 
 /**
  * A value holder class, allowing the caller to provide
@@ -26,11 +32,21 @@ import java.nio.file.Path;
  */
 public class PartOutput {
 
+    /**
+     * The maximum time the parser waits for an async output by default.
+     */
+    private static final Duration DEFAULT_ASYNC_TIMEOUT = Duration.ofMinutes(1);
+
     /**
      * The value object.
      */
     private final Object value;
 
+    /**
+     * The stages the bytes pass through before reaching the value object.
+     */
+    private final List<PartStage> stages;
+
     /**
      * Protected constructor, no need for public access.
      * The parser will use the given object here, which is why using
@@ -39,7 +55,17 @@ public class PartOutput {
      * @param value The value object.
      */
     protected PartOutput(final Object value) {
+        this(value, Collections.emptyList());
+    }
+
+    /**
+     * Protected constructor, no need for public access.
+     * @param value The value object.
+     * @param stages The stages of the output, in order
+     */
+    protected PartOutput(final Object value, final List<PartStage> stages) {
         this.value = value;
+        this.stages = stages;
     }
 
     /**
@@ -64,6 +90,29 @@ public class PartOutput {
         return clazz.cast(value);
     }
 
+    /**
+     * Returns a new output object with the same value, which passes the bytes
+     * through the given stages first, after the stages of this object.
+     * The stages are called in the given order.
+     * @param stages The stages to add
+     * @return A new output object
+     */
+    public PartOutput through(final PartStage... stages) {
+        final var combined = new ArrayList<>(this.stages);
+        for (final var stage : stages) {
+            combined.add(Objects.requireNonNull(stage));
+        }
+        return new PartOutput(value, Collections.unmodifiableList(combined));
+    }
+
+    /**
+     * Returns the stages the bytes pass through before reaching the value object.
+     * @return The stages, in order, possibly empty
+     */
+    public List<PartStage> getStages() {
+        return stages;
+    }
+
     /**
      * Creates a new instance from the given channel object. The parser will
      * use the channel to write out the bytes and will attempt to close it.
@@ -97,4 +146,212 @@ public class PartOutput {
     public static PartOutput from(final Path path) {
         return new PartOutput(path);
     }
+
+    /**
+     * Creates a new instance from the given sink object. The parser will
+     * open the sink before writing the part, then commit it after the part
+     * has ended, or abort it if the parsing failed in the meantime.
+     * @param sink A sink which can be used for writing
+     * @return A new PartOutput instance
+     */
+    public static PartOutput from(final PartSink sink) {
+        return new PartOutput(sink);
+    }
+
+    /**
+     * Creates a new instance which writes the part to every given output, in the
+     * given order. The same bytes are passed to each of them, without copying. If
+     * one of the outputs fails then the parsing fails and the others are aborted,
+     * apart from the ones already committed at the end of the part, see {@link TeeMode#FAIL_ALL}.
+     * @param outputs The outputs to write to
+     * @return A new PartOutput instance
+     * @throws IllegalArgumentException If there are no outputs
+     */
+    public static PartOutput tee(final PartOutput... outputs) {
+        return tee(TeeMode.FAIL_ALL, outputs);
+    }
+
+    /**
+     * Creates a new instance which writes the part to every given output, in the
+     * given order. The same bytes are passed to each of them, without copying. The
+     * mode determines what happens if one of the outputs fails.
+     * @param mode The failure handling of the outputs
+     * @param outputs The outputs to write to
+     * @return A new PartOutput instance
+     * @throws IllegalArgumentException If there are no outputs
+     */
+    public static PartOutput tee(final TeeMode mode, final PartOutput... outputs) {
+        if (outputs.length == 0) {
+            throw new IllegalArgumentException("Invalid parameter value: " + outputs.length);
+        }
+        final var list = new ArrayList<PartOutput>(outputs.length);
+        for (final var output : outputs) {
+            list.add(Objects.requireNonNull(output));
+        }
+        return new PartOutput(new Tee(Objects.requireNonNull(mode), Collections.unmodifiableList(list)));
+    }
+
+    /**
+     * Returns a new output object, which writes to this one on a thread of the given executor.
+     * The bytes of the part are copied into a queue, so the parser can continue while they
+     * are written out. If the queue is full then the parser waits for the output. The end
+     * of the part waits until every queued byte has been written and the output closed.
+     * This is mostly useful for the slower outputs of a {@link #tee(PartOutput...)}.
+     * The parser waits at most one minute for the output, see {@link #async(Executor, int, Duration)}.
+     * @param executor The executor running the writes
+     * @param queueSize The maximum number of the queued writes
+     * @return A new output object
+     * @throws IllegalArgumentException If the queue size is less than 1
+     */
+    public PartOutput async(final Executor executor, final int queueSize) {
+        return async(executor, queueSize, DEFAULT_ASYNC_TIMEOUT);
+    }
+
+    /**
+     * Returns a new output object, which writes to this one on a thread of the given executor.
+     * The parser waits at most the given time for a free place in the queue, and for the
+     * output to finish at the end of the part. If the output does not keep up, or the
+     * executor rejects the writes, the part fails and the output is aborted.
+     * @param executor The executor running the writes
+     * @param queueSize The maximum number of the queued writes
+     * @param timeout The maximum time the parser waits for the output
+     * @return A new output object
+     * @throws IllegalArgumentException If the queue size is less than 1 or the timeout is not positive
+     * @see #async(Executor, int)
+     */
+    public PartOutput async(final Executor executor, final int queueSize, final Duration timeout) {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Invalid parameter value: " + queueSize);
+        }
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Invalid parameter value: " + timeout);
+        }
+        return new PartOutput(new Async(this, Objects.requireNonNull(executor), queueSize, timeout));
+    }
+
+    /**
+     * The failure handling of the outputs of a tee.
+     */
+    public enum TeeMode {
+
+        /**
+         * The failure of any output fails the parsing, and the others are aborted.
+         *
+         * <p>This is not atomic at the end of the part. The outputs are closed, which commits
+         * a {@link PartSink}, one after the other in the order of the tee. If an output fails
+         * to close, only the outputs after it are aborted, the ones before it are already
+         * committed. Outputs which must not be published without the others should be
+         * committed by the caller, for example in the part end callback.</p>
+         */
+        FAIL_ALL,
+
+        /**
+         * A failed output is aborted and dropped, the others continue. The parsing
+         * only fails if every output failed. The errors of the dropped outputs are
+         * available from {@link PartStream#getOutputFailures()}.
+         */
+        BEST_EFFORT
+    }
+
+    /**
+     * The value object of the outputs created by the {@link #tee(TeeMode, PartOutput...)} method.
+     */
+    public static final class Tee {
+
+        /**
+         * The failure handling of the outputs.
+         */
+        private final TeeMode mode;
+
+        /**
+         * The outputs, in order.
+         */
+        private final List<PartOutput> outputs;
+
+        private Tee(final TeeMode mode, final List<PartOutput> outputs) {
+            this.mode = mode;
+            this.outputs = outputs;
+        }
+
+        /**
+         * Returns the failure handling of the outputs.
+         * @return The mode
+         */
+        public TeeMode getMode() {
+            return mode;
+        }
+
+        /**
+         * Returns the outputs of the tee.
+         * @return The outputs, in order
+         */
+        public List<PartOutput> getOutputs() {
+            return outputs;
+        }
+    }
+
+    /**
+     * The value object of the outputs created by the {@link #async(Executor, int, Duration)} method.
+     */
+    public static final class Async {
+
+        /**
+         * The output written on the executor.
+         */
+        private final PartOutput output;
+
+        /**
+         * The executor running the writes.
+         */
+        private final Executor executor;
+
+        /**
+         * The maximum number of the queued writes.
+         */
+        private final int queueSize;
+
+        /**
+         * The maximum time the parser waits for the output.
+         */
+        private final Duration timeout;
+
+        private Async(final PartOutput output, final Executor executor, final int queueSize, final Duration timeout) {
+            this.output = output;
+            this.executor = executor;
+            this.queueSize = queueSize;
+            this.timeout = timeout;
+        }
+
+        /**
+         * Returns the output written on the executor.
+         * @return The output
+         */
+        public PartOutput getOutput() {
+            return output;
+        }
+
+        /**
+         * Returns the executor running the writes.
+         * @return The executor
+         */
+        public Executor getExecutor() {
+            return executor;
+        }
+
+        /**
+         * Returns the maximum number of the queued writes.
+         * @return The queue size
+         */
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        /**
+         * Returns the maximum time the parser waits for the output.
+         * @return The timeout
+         */
+        public Duration getTimeout() {
+            return timeout;
+        }
+    }
 }
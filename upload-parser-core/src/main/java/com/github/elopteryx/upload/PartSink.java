@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A transactional destination for the data of a part. It can be passed to the parser
+ * with the {@link PartOutput#from(PartSink)} method. The parser opens the sink before
+ * writing the first bytes of the part, passes the data to it, then commits it when the
+ * part has been fully and successfully processed. If the parsing fails before that, the
+ * sink is aborted instead, so it can discard the data written so far.
+ *
+ * <p>Exactly one of the {@link #commit()} and {@link #abort()} methods is called
+ * for an opened sink, both of them only once.</p>
+ *
+ * @see com.github.elopteryx.upload.util.AtomicFileSink
+ */
+public interface PartSink {
+
+    /**
+     * Called before the first bytes of the part are written.
+     * @param part The part which will be written into the sink
+     * @throws IOException If an error occurred with the I/O
+     */
+    void open(PartStream part) throws IOException;
+
+    /**
+     * Writes the given bytes. The implementation must consume all the remaining
+     * bytes of the buffer, and must not keep a reference to it, as the parser
+     * reuses the buffer once this method has returned.
+     * @param buffer The buffer containing the next bytes of the part
+     * @throws IOException If an error occurred with the I/O
+     */
+    void write(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Called after the last bytes of the part have been written, before
+     * the part end callback. The data should be made permanent here.
+     * @throws IOException If an error occurred with the I/O
+     */
+    void commit() throws IOException;
+
+    /**
+     * Called if the parsing failed after the sink was opened. The data written
+     * so far should be discarded. Errors thrown here are added to the original
+     * error as suppressed exceptions.
+     * @throws IOException If an error occurred with the I/O
+     */
+    void abort() throws IOException;
+}
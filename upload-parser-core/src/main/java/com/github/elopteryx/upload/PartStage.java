@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload;
+
+import com.github.elopteryx.upload.internal.DeflatingStage;
+import com.github.elopteryx.upload.internal.EncryptingStage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import javax.crypto.SecretKey;
+
+/**
+ * A processing step of a part, placed between the parser and the output of the part
+ * with the {@link PartOutput#through(PartStage...)} method. The stages of an output
+ * are called in order, each one receives the bytes of the part and passes them on to
+ * the next stage, the last one passes them to the output.
+ *
+ * <p>A stage which only observes the bytes, for example for hashing, counting or
+ * scanning, should read them without changing the position of the buffer, then pass
+ * the same buffer to the next stage. This way the bytes are not copied, the stages
+ * and the output all read the same buffer. A transforming stage consumes the buffer
+ * and writes its own output to the next stage instead.</p>
+ *
+ * <p>The parser calls the stages of a part sequentially, so the same instance can be
+ * reused for the parts of a request, as long as the {@link #begin(PartStream)} method
+ * resets its state.</p>
+ */
+public interface PartStage {
+
+    /**
+     * Called before the first bytes of the part are processed.
+     * @param part The part which will be processed
+     * @throws IOException If an error occurred with the I/O
+     */
+    default void begin(final PartStream part) throws IOException {
+        // Nothing to do by default
+    }
+
+    /**
+     * Processes the next bytes of the part. The implementation must consume all the
+     * remaining bytes of the buffer, either by passing it to the next stage or by reading
+     * it, and must not keep a reference to it after returning.
+     * @param buffer The buffer containing the next bytes of the part
+     * @param next The next stage, or the output of the part
+     * @throws IOException If an error occurred with the I/O
+     */
+    void process(ByteBuffer buffer, WritableByteChannel next) throws IOException;
+
+    /**
+     * Called after the last bytes of the part have been processed, before the output
+     * is closed. A transforming stage can write its remaining bytes to the next stage here.
+     * @param next The next stage, or the output of the part
+     * @throws IOException If an error occurred with the I/O
+     */
+    default void finish(final WritableByteChannel next) throws IOException {
+        // Nothing to do by default
+    }
+
+    /**
+     * Called instead of {@link #finish(WritableByteChannel)} if the parsing failed
+     * after the part was started. The stage should release its resources here.
+     */
+    default void abort() {
+        // Nothing to do by default
+    }
+
+    /**
+     * Returns a stage which compresses the bytes of the part into the gzip format,
+     * with the default compression level. The deflater is pooled and only held
+     * while the part is processed. The stage should not be shared between the parts.
+     * @return The stage
+     */
+    static PartStage gzip() {
+        return gzip(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Returns a stage which compresses the bytes of the part into the gzip format.
+     * @param level The compression level, from 0 to 9, or -1 for the default
+     * @return The stage
+     * @throws IllegalArgumentException If the level is invalid
+     * @see #gzip()
+     */
+    static PartStage gzip(final int level) {
+        return new DeflatingStage(true, level);
+    }
+
+    /**
+     * Returns a stage which compresses the bytes of the part into the zlib format, which
+     * is used by the deflate content encoding, with the default compression level.
+     * The deflater is pooled and only held while the part is processed. The stage
+     * should not be shared between the parts.
+     * @return The stage
+     */
+    static PartStage deflate() {
+        return deflate(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Returns a stage which compresses the bytes of the part into the zlib format.
+     * @param level The compression level, from 0 to 9, or -1 for the default
+     * @return The stage
+     * @throws IllegalArgumentException If the level is invalid
+     * @see #deflate()
+     */
+    static PartStage deflate(final int level) {
+        return new DeflatingStage(false, level);
+    }
+
+    /**
+     * Returns a stage which encrypts the bytes of the part with AES-GCM, in authenticated
+     * chunks of 64 KiB. The result can be decrypted with random access by the
+     * {@link com.github.elopteryx.upload.util.DecryptingChannel}. The cipher is pooled and
+     * only held while the part is processed. The stage should not be shared between the parts.
+     * @param key The key, 128, 192 or 256 bits long
+     * @return The stage
+     */
+    static PartStage encrypt(final SecretKey key) {
+        return encrypt(key, EncryptingStage.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns a stage which encrypts the bytes of the part with AES-GCM, in authenticated
+     * chunks of the given size. Smaller chunks make the random access cheaper, at the cost
+     * of a tag of 16 bytes for each chunk.
+     * @param key The key, 128, 192 or 256 bits long
+     * @param chunkSize The size of the chunks, at most 16 MiB
+     * @return The stage
+     * @throws IllegalArgumentException If the chunk size is invalid
+     * @see #encrypt(SecretKey)
+     */
+    static PartStage encrypt(final SecretKey key, final int chunkSize) {
+        return new EncryptingStage(key, chunkSize);
+    }
+
+    /**
+     * Returns a stage which encrypts the bytes of the part with the key returned by
+     * the {@link PartKeyProvider}, which must be the user object of the parser.
+     * @param context The upload context
+     * @return The stage
+     * @throws IOException If the key could not be retrieved
+     * @throws IllegalStateException If the user object is not a key provider
+     * @see #encrypt(SecretKey)
+     */
+    static PartStage encrypt(final UploadContext context) throws IOException {
+        final var userObject = context.getUserObject(Object.class);
+        if (!(userObject instanceof PartKeyProvider)) {
+            throw new IllegalStateException("The user object must be a key provider!");
+        }
+        return encrypt(((PartKeyProvider) userObject).getKey(context));
+    }
+
+    /**
+     * Returns a stage which passes the bytes of the part to the given consumer, then
+     * to the next stage unchanged. The consumer receives a read-only view of the bytes,
+     * sharing the content of the original buffer.
+     * @param observer The consumer of the bytes
+     * @return The stage
+     */
+    static PartStage observer(final Consumer<ByteBuffer> observer) {
+        Objects.requireNonNull(observer);
+        return (buffer, next) -> {
+            observer.accept(buffer.asReadOnlyBuffer());
+            while (buffer.hasRemaining()) {
+                next.write(buffer);
+            }
+        };
+    }
+}
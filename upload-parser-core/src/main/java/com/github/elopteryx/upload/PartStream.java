@@ -16,7 +16,10 @@
 
 package com.github.elopteryx.upload;
 
+import java.time.Duration;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * This interface represents a part item, which is being
@@ -85,6 +88,87 @@ public interface PartStream {
      */
     boolean isFinished();
 
+    /**
+     * Returns the number of bytes written to the output of this part. It differs from
+     * the known size if the output has stages which transform the bytes, for example
+     * the compressing stages of {@link PartStage#gzip()}, in which case the known size
+     * is the original size and this is the stored, compressed size. Without stages it
+     * is the same as the known size. The stored size is available in the part end callback.
+     * The default implementation returns the known size.
+     *
+     * @return The number of bytes written to the output
+     */
+    default long getStoredSize() {
+        return getKnownSize();
+    }
+
+    /**
+     * Returns the expected size of this part, from the hints available when the part began.
+     * In order of precedence these are the Content-Length header of the part, the value of
+     * the size field set by {@link UploadParser#sizeHintField(String)}, if it was sent before
+     * the part, and for the first file part the remaining length of the request. The hint is
+     * limited by the maximum part size and the remaining length of the request, so it is not
+     * necessarily the real size. If neither of these limits is known, the hint is only what
+     * the client claims. A custom sink can use it to preallocate the storage of the part.
+     * The default implementation returns -1.
+     *
+     * @return The expected size of the part, or -1 if it is not known
+     */
+    default long getSizeHint() {
+        return -1;
+    }
+
+    /**
+     * Returns the time spent in each stage of the output of this part, see
+     * {@link PartOutput#through(PartStage...)}. The time of a stage does not include
+     * the time of the following stages and the output. The durations are
+     * available in the part end callback. The default implementation returns an empty list.
+     *
+     * @return The durations, in the order of the stages, empty if the output had no stages
+     */
+    default List<Duration> getStageDurations() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the digest of this part, computed with the given algorithm while the
+     * part was parsed. The digests are computed for the algorithms configured with
+     * {@link UploadParser#digests(String...)}, and for the ones needed to verify the
+     * Content-MD5 and Content-Digest headers of the part. The digests are available
+     * in the part end callback. The default implementation returns null.
+     *
+     * @param algorithm The name of the algorithm, for example SHA-256, case insensitive
+     * @return A copy of the digest, or null if it was not computed
+     */
+    default byte[] getDigest(final String algorithm) {
+        return null;
+    }
+
+    /**
+     * Returns the errors of the outputs which failed and were dropped while the part
+     * was written to a tee in the best-effort mode, see {@link PartOutput.TeeMode}.
+     * The errors are available in the part end callback. The default implementation
+     * returns an empty list.
+     *
+     * @return The errors, empty if every output succeeded
+     */
+    default List<Throwable> getOutputFailures() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the nesting depth of this part. The parts of the form are on
+     * the top level, their depth is zero. If a form field holds a nested
+     * multipart/mixed part, for example several files selected for the same field,
+     * then the files are streamed as separate parts, with a depth of one.
+     * The container part itself is not streamed. The default implementation returns zero.
+     *
+     * @return The nesting depth of the part
+     */
+    default int getDepth() {
+        return 0;
+    }
+
     /**
      * Returns the value of the specified mime header as a String. If
      * the Part did not include a header of the specified name, this
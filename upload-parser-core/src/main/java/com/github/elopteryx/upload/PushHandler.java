@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The handler receiving the events of a {@link MultipartFeed}. The events
+ * are delivered on the thread calling {@link MultipartFeed#feed(ByteBuffer)},
+ * in the order the parts appear in the multipart stream.
+ */
+public interface PushHandler {
+
+    /**
+     * Called when the headers of a part have been read, before its data.
+     * @param part The part, with its headers already available
+     * @throws IOException If an error occurred while handling the event
+     */
+    default void onPartBegin(final PartStream part) throws IOException {
+        // No-op by default
+    }
+
+    /**
+     * Called with the next slice of the part data. The buffer is only valid
+     * during the call, its content must be consumed or copied before returning,
+     * because the parser reuses it.
+     * @param part The part the data belongs to
+     * @param data The buffer holding the decoded part data
+     * @throws IOException If an error occurred while handling the event
+     */
+    void onData(PartStream part, ByteBuffer data) throws IOException;
+
+    /**
+     * Called after the last data slice of a part.
+     * @param part The finished part
+     * @throws IOException If an error occurred while handling the event
+     */
+    default void onPartEnd(final PartStream part) throws IOException {
+        // No-op by default
+    }
+
+    /**
+     * Called once, when the closing boundary of the multipart stream has been read.
+     * @throws IOException If an error occurred while handling the event
+     */
+    default void onComplete() throws IOException {
+        // No-op by default
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.util.Objects.requireNonNull;
+
+import com.github.elopteryx.upload.errors.PartSizeException;
+import com.github.elopteryx.upload.errors.RequestSizeException;
+import com.github.elopteryx.upload.internal.Headers;
+import com.github.elopteryx.upload.internal.PushUploadParser;
+
+import java.nio.charset.Charset;
+
+/**
+ * Builder class for the servlet independent parser. The parser can be used with
+ * any I/O source, the caller reads the multipart stream and passes the bytes to the
+ * {@link MultipartFeed} returned by {@link PushParser#begin(String)}, as they arrive.
+ *
+ * <p>Like the {@link UploadParser}, this class only holds the configuration, so it can
+ * be kept in one place and reused for each multipart stream.</p>
+ */
+public final class PushParser {
+
+    /**
+     * The default size allocated for the buffers.
+     */
+    private static final int DEFAULT_USED_MEMORY = 4096;
+
+    /**
+     * The handler receiving the parsed parts.
+     */
+    private PushHandler handler;
+
+    /**
+     * The charset of the part headers.
+     */
+    private Charset charset = ISO_8859_1;
+
+    /**
+     * The number of bytes to be allocated for the buffers.
+     */
+    private int maxBytesUsed = DEFAULT_USED_MEMORY;
+
+    /**
+     * The maximum size permitted for the parts. By default it is unlimited.
+     */
+    private long maxPartSize = -1;
+
+    /**
+     * The maximum size permitted for the complete stream. By default it is unlimited.
+     */
+    private long maxRequestSize = -1;
+
+    /**
+     * Whether the buffers should be allocated outside of the heap.
+     */
+    private boolean directBuffers;
+
+    /**
+     * Whether the compressed parts should be decompressed.
+     */
+    private boolean decompressParts;
+
+    private PushParser() {
+        // No need to allow public access
+    }
+
+    /**
+     * Sets the handler, which receives the parsed parts.
+     * @param handler The handler
+     * @return The parser will return itself
+     */
+    public PushParser handler(final PushHandler handler) {
+        this.handler = requireNonNull(handler);
+        return this;
+    }
+
+    /**
+     * Sets the charset used to decode the boundary and the part headers.
+     * The default is ISO-8859-1.
+     * @param charset The charset
+     * @return The parser will return itself
+     */
+    public PushParser charset(final Charset charset) {
+        this.charset = requireNonNull(charset);
+        return this;
+    }
+
+    /**
+     * Sets the amount of bytes to allocate for the decoding buffers. A minimum
+     * of 1024 is recommended.
+     * @param maxBytesUsed The amount to use
+     * @return The parser will return itself
+     * @throws IllegalArgumentException If the parameter is too low
+     */
+    public PushParser maxBytesUsed(final int maxBytesUsed) {
+        if (maxBytesUsed < 2) {
+            throw new IllegalArgumentException("The parameter value is too low, the parsing cannot work!");
+        }
+        this.maxBytesUsed = maxBytesUsed;
+        return this;
+    }
+
+    /**
+     * Sets the maximum allowed size for each part. Exceeding this
+     * will result in a {@link PartSizeException} exception.
+     * @param maxPartSize The amount to use
+     * @return The parser will return itself
+     * @throws IllegalArgumentException If the parameter is negative
+     */
+    public PushParser maxPartSize(final long maxPartSize) {
+        if (maxPartSize < 0) {
+            throw new IllegalArgumentException("Invalid parameter value: " + maxPartSize);
+        }
+        this.maxPartSize = maxPartSize;
+        return this;
+    }
+
+    /**
+     * Sets the maximum allowed size for the multipart stream. Exceeding this
+     * will result in a {@link RequestSizeException} exception.
+     * @param maxRequestSize The amount to use
+     * @return The parser will return itself
+     * @throws IllegalArgumentException If the parameter is negative
+     */
+    public PushParser maxRequestSize(final long maxRequestSize) {
+        if (maxRequestSize < 0) {
+            throw new IllegalArgumentException("Invalid parameter value: " + maxRequestSize);
+        }
+        this.maxRequestSize = maxRequestSize;
+        return this;
+    }
+
+    /**
+     * Sets whether the parser should allocate its buffers outside of the heap.
+     * @param directBuffers Whether to use direct buffers
+     * @return The parser will return itself
+     */
+    public PushParser directBuffers(final boolean directBuffers) {
+        this.directBuffers = directBuffers;
+        return this;
+    }
+
+    /**
+     * Sets whether the parts with a gzip or deflate content encoding should be decompressed
+     * on the fly. The handler only sees the decompressed data, while the
+     * headers of the part still show the original content encoding. The size of such a part
+     * is the size of the decompressed data, so the {@link PushParser#maxPartSize(long)}
+     * limit also protects against the parts which decompress into a much larger size.
+     * By default the parts are passed on as they are.
+     * @param decompressParts Whether to decompress the parts
+     * @return The parser will return itself
+     */
+    public PushParser decompressParts(final boolean decompressParts) {
+        this.decompressParts = decompressParts;
+        return this;
+    }
+
+    /**
+     * Starts parsing a new multipart stream.
+     * @param boundary The boundary of the stream, without the leading dashes
+     * @return A new feed, accepting the bytes of the stream
+     * @throws IllegalStateException If the handler was not set
+     * @throws IllegalArgumentException If the boundary is empty
+     */
+    public MultipartFeed begin(final String boundary) {
+        if (handler == null) {
+            throw new IllegalStateException("The handler must be set before parsing!");
+        }
+        if (boundary == null || boundary.isEmpty()) {
+            throw new IllegalArgumentException("The boundary cannot be empty!");
+        }
+        return new PushUploadParser(handler, boundary.getBytes(charset), charset, maxBytesUsed, maxPartSize, maxRequestSize,
+                directBuffers, decompressParts);
+    }
+
+    /**
+     * Utility method which extracts the boundary from the value of a
+     * multipart Content-Type header.
+     * @param contentType The value of the Content-Type header
+     * @return The boundary, or null if the header does not have one
+     */
+    public static String boundaryOf(final String contentType) {
+        return contentType == null ? null : Headers.extractBoundaryFromHeader(contentType);
+    }
+
+    /**
+     * Returns a new parser, allowing the caller to set configuration.
+     * @return A parser object
+     */
+    public static PushParser newParser() {
+        return new PushParser();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload;
+
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A part returned by the iterator of {@link UploadParser#iterate(javax.servlet.http.HttpServletRequest)}.
+ * The data of the part is not stored anywhere, reading from its channel or stream
+ * parses the request stream on demand. This means that the data can only be read
+ * once, and only until the iterator moves to the next part. Moving to the next part
+ * skips the unread data of the current one.
+ */
+public interface StreamingPart extends PartStream {
+
+    /**
+     * Returns the channel which reads the decoded data of this part. It
+     * returns -1 once the end of the part has been reached. The same
+     * instance is returned on each call.
+     * @return The channel of the part
+     */
+    ReadableByteChannel getChannel();
+
+    /**
+     * Returns a stream reading the decoded data of this part. It
+     * is backed by the channel of the part, they should not be
+     * used together.
+     * @return The stream of the part
+     */
+    InputStream getInputStream();
+}
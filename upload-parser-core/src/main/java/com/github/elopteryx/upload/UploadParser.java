@@ -21,8 +21,10 @@ import com.github.elopteryx.upload.errors.RequestSizeException;
 import com.github.elopteryx.upload.internal.AbstractUploadParser;
 import com.github.elopteryx.upload.internal.AsyncUploadParser;
 import com.github.elopteryx.upload.internal.BlockingUploadParser;
+import com.github.elopteryx.upload.internal.IteratingUploadParser;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.Locale;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -33,7 +35,8 @@ import javax.servlet.http.HttpServletRequest;
  *
  * <p>The class is actually a builder class, it does not do the actual parsing. Instead,
  * when the user calls the {@link UploadParser#doBlockingParse(HttpServletRequest)} doBlockingParse}
- * or the {@link UploadParser#setupAsyncParse(HttpServletRequest)} setupAsyncParse} it creates
+ * or the {@link UploadParser#setupAsyncParse(HttpServletRequest)} setupAsyncParse} or the
+ * {@link UploadParser#iterate(HttpServletRequest)} iterate} it creates
  * the actual parser object, determined by the configuration. This means that common
  * configuration can be kept in one place and the parser can be passed around and modified
  * freely. The servlet request object is not necessary before the actual parsing starts. In fact
@@ -96,6 +99,31 @@ public final class UploadParser {
      */
     private long maxRequestSize = -1;
 
+    /**
+     * Whether the buffers should be allocated outside of the heap.
+     */
+    private boolean directBuffers;
+
+    /**
+     * Whether the compressed parts should be decompressed.
+     */
+    private boolean decompressParts;
+
+    /**
+     * The size of the buffer combining the writes. By default the writes are not combined.
+     */
+    private int writeBufferSize;
+
+    /**
+     * The digest algorithms computed for every part.
+     */
+    private String[] digestAlgorithms = new String[0];
+
+    /**
+     * The name of the form field containing the size of the next file part.
+     */
+    private String sizeHintField;
+
     private UploadParser() {
         // No need to allow public access
     }
@@ -187,7 +215,10 @@ public final class UploadParser {
 
     /**
      * Sets the amount of bytes to buffer in the memory, before
-     * calling the part end callback.
+     * calling the part begin callback. The memory is not allocated up front,
+     * the bytes are stored in pooled segments as they arrive, so a large
+     * threshold only costs memory for the parts which actually send that
+     * many bytes, and only until the part begin callback returns.
      * @param sizeThreshold The amount to use
      * @return The parser will return itself
      * @throws IllegalArgumentException If the parameter is negative
@@ -230,6 +261,95 @@ public final class UploadParser {
         return this;
     }
 
+    /**
+     * Sets whether the parser should use direct buffers. Direct buffers
+     * are allocated outside of the heap, which allows the channels, for example
+     * a {@link java.nio.channels.FileChannel}, to write them out without copying
+     * the bytes into a temporary direct buffer first. Note that in this case
+     * the buffer passed to the {@link OnPartBegin} callback is also direct,
+     * so it does not have an accessible backing array.
+     * @param directBuffers Whether to use direct buffers
+     * @return The parser will return itself
+     */
+    public UploadParser directBuffers(final boolean directBuffers) {
+        this.directBuffers = directBuffers;
+        return this;
+    }
+
+    /**
+     * Sets whether the parts with a gzip or deflate content encoding should be decompressed
+     * on the fly. The callbacks and the outputs only see the decompressed data, while the
+     * headers of the part still show the original content encoding. The size of such a part
+     * is the size of the decompressed data, so the {@link UploadParser#maxPartSize(long)}
+     * limit also protects against the parts which decompress into a much larger size.
+     * By default the parts are passed on as they are.
+     * @param decompressParts Whether to decompress the parts
+     * @return The parser will return itself
+     */
+    public UploadParser decompressParts(final boolean decompressParts) {
+        this.decompressParts = decompressParts;
+        return this;
+    }
+
+    /**
+     * Sets the size of the buffer which combines the writes to the part outputs.
+     * The parser passes the data on as it arrives, which can mean many small writes,
+     * for example when the request is read in small chunks. With a buffer the data
+     * is written out when it is full, or when the part ends, and a larger write is
+     * combined with the buffered bytes into a single gathering write if the output
+     * is a {@link java.nio.channels.GatheringByteChannel}, like a file channel.
+     * The buffer is allocated once for the parser. By default it is 0, which
+     * means that the writes are not combined.
+     * @param writeBufferSize The size of the buffer
+     * @return The parser will return itself
+     * @throws IllegalArgumentException If the parameter is negative
+     */
+    public UploadParser writeBufferSize(final int writeBufferSize) {
+        if (writeBufferSize < 0) {
+            throw new IllegalArgumentException("Invalid parameter value: " + writeBufferSize);
+        }
+        this.writeBufferSize = writeBufferSize;
+        return this;
+    }
+
+    /**
+     * Sets the digest algorithms which are computed for every part, while its bytes are
+     * parsed. Every algorithm of {@link java.security.MessageDigest} can be used, for example
+     * SHA-256, and the CRC32C checksum. The results are available from
+     * {@link PartStream#getDigest(String)} in the part end callback. The digest instances
+     * are pooled and reused between the parts.
+     *
+     * <p>The Content-MD5 and Content-Digest (with sha-256 or sha-512) headers of the parts
+     * are verified regardless of this setting, a mismatch fails the part with a
+     * {@link com.github.elopteryx.upload.errors.PartDigestException} before the part end
+     * callback. The headers of the parts decompressed by the parser are not verified.</p>
+     * @param algorithms The names of the algorithms
+     * @return The parser will return itself
+     * @throws IllegalArgumentException If an algorithm is not supported
+     */
+    public UploadParser digests(final String... algorithms) {
+        for (final var algorithm : algorithms) {
+            if (!AbstractUploadParser.isDigestSupported(algorithm)) {
+                throw new IllegalArgumentException("Invalid parameter value: " + algorithm);
+            }
+        }
+        this.digestAlgorithms = algorithms.clone();
+        return this;
+    }
+
+    /**
+     * Sets the name of the form field in which the client can send the size of the next
+     * file part, for the clients which cannot set the Content-Length header of the parts.
+     * The field must precede the file part, and its value must be a decimal number.
+     * @param sizeHintField The name of the field
+     * @return The parser will return itself
+     * @see PartStream#getSizeHint()
+     */
+    public UploadParser sizeHintField(final String sizeHintField) {
+        this.sizeHintField = sizeHintField;
+        return this;
+    }
+
     /**
      * Performs the necessary operations to setup the async parsing. The parser will
      * register itself to the request stream and the method will quickly return.
@@ -266,6 +386,31 @@ public final class UploadParser {
         return parser.doBlockingParse();
     }
 
+    /**
+     * Returns an iterator of the parts in the request. This is the pull based alternative
+     * of the {@link UploadParser#doBlockingParse(HttpServletRequest)} doBlockingParse} method,
+     * the request stream is only read when the caller asks for the next part or reads the data
+     * of the current one, directly through the channel or the stream of the part. There is no
+     * output to write into, so the callbacks and the size threshold are not used, but the
+     * size limits are still checked, during the reads.
+     *
+     * <p>The iterator methods wrap the I/O errors into an {@link java.io.UncheckedIOException}.
+     * Calling {@link Iterator#hasNext()} or {@link Iterator#next()} skips the unread data of the
+     * current part, and closes its channel if it had any.</p>
+     * @param request The request object
+     * @return The iterator of the parts
+     * @throws IOException If an error occurred with the request stream
+     * @throws IllegalArgumentException If the request is not a multipart request
+     */
+    public Iterator<StreamingPart> iterate(final HttpServletRequest request) throws IOException {
+        if (!isMultipart(request)) {
+            throw new IllegalArgumentException("Not a multipart request!");
+        }
+        final var parser = new IteratingUploadParser(request);
+        build(parser);
+        return parser.setupIteration();
+    }
+
     /**
      * Passes the configuration parameters to the actual
      * parser implementation.
@@ -281,6 +426,11 @@ public final class UploadParser {
         parser.setSizeThreshold(sizeThreshold);
         parser.setMaxPartSize(maxPartSize);
         parser.setMaxRequestSize(maxRequestSize);
+        parser.setDirectBuffers(directBuffers);
+        parser.setPartDecompression(decompressParts);
+        parser.setWriteBufferSize(writeBufferSize);
+        parser.setDigestAlgorithms(digestAlgorithms);
+        parser.setSizeHintField(sizeHintField);
     }
 
     /**
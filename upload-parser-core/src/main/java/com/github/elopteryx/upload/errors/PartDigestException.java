@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.errors;
+
+/**
+ * Exception thrown when the digest of a part does not match the
+ * value sent in its Content-MD5 or Content-Digest header.
+ */
+public class PartDigestException extends MultipartException {
+
+    /**
+     * The algorithm of the mismatching digest.
+     */
+    private final String algorithm;
+
+    /**
+     * Public constructor.
+     * @param message The message of the exception
+     * @param algorithm The algorithm of the mismatching digest
+     */
+    public PartDigestException(final String message, final String algorithm) {
+        super(message);
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Returns the algorithm of the mismatching digest, for example MD5 or SHA-256.
+     * @return The algorithm
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+}
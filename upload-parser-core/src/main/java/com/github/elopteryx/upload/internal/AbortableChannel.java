@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A channel of a part which can be aborted, when the parsing fails
+ * before the part is complete. Closing the channel ends the part
+ * successfully, aborting discards it. After either of them the
+ * other one does nothing.
+ */
+interface AbortableChannel extends WritableByteChannel {
+
+    /**
+     * Discards the part written into the channel.
+     * @throws IOException If an error occurred with the I/O
+     */
+    void abort() throws IOException;
+}
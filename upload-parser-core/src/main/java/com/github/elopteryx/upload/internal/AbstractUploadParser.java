@@ -17,9 +17,6 @@
 package com.github.elopteryx.upload.internal;
 
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
-import static java.nio.file.StandardOpenOption.APPEND;
-import static java.nio.file.StandardOpenOption.CREATE;
-import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Objects.requireNonNull;
 
 import com.github.elopteryx.upload.OnError;
@@ -27,19 +24,22 @@ import com.github.elopteryx.upload.OnPartBegin;
 import com.github.elopteryx.upload.OnPartEnd;
 import com.github.elopteryx.upload.OnRequestComplete;
 import com.github.elopteryx.upload.PartOutput;
+import com.github.elopteryx.upload.PartSink;
+import com.github.elopteryx.upload.errors.PartDigestException;
 import com.github.elopteryx.upload.errors.PartSizeException;
 import com.github.elopteryx.upload.errors.RequestSizeException;
 import com.github.elopteryx.upload.util.NullChannel;
 import com.github.elopteryx.upload.util.OutputStreamBackedChannel;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.EnumSet;
+import java.util.ArrayList;
+import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 
 /**
@@ -80,6 +80,46 @@ public abstract class AbstractUploadParser implements MultipartParser.PartHandle
      * The number of bytes that should be buffered before calling the part begin callback.
      */
     protected int sizeThreshold;
+    /**
+     * Whether the buffers should be allocated outside of the heap.
+     */
+    private boolean directBuffers;
+    /**
+     * Whether the parts with a gzip or deflate content encoding are decompressed.
+     */
+    private boolean partDecompression;
+    /**
+     * The size of the buffer combining the writes to the part outputs, 0 if the writes are not combined.
+     */
+    private int writeBufferSize;
+    /**
+     * The buffer combining the writes, shared between the parts and allocated on first use.
+     */
+    private ByteBuffer writeBuffer;
+    /**
+     * The digest algorithms computed for every part.
+     */
+    private String[] digestAlgorithms = new String[0];
+    /**
+     * The digests of the current part, null if none are computed.
+     */
+    private PartDigests partDigests;
+    /**
+     * The name of the form field containing the size of the next file part, null if there is none.
+     */
+    private String sizeHintField;
+    /**
+     * The value of the size field, collected while it is parsed, null if the current part is not the size field.
+     */
+    private StringBuilder sizeFieldValue;
+    /**
+     * The size sent in the size field, -1 if there is none. It is used by the next file part.
+     */
+    private long fieldSizeHint = -1;
+    /**
+     * Whether a file part has already begun.
+     */
+    private boolean filePartBegun;
     /**
      * The maximum size permitted for the parts. By default it is unlimited.
      */
@@ -93,17 +133,30 @@ public abstract class AbstractUploadParser implements MultipartParser.PartHandle
      */
     protected static final String MULTIPART_FORM_DATA = "multipart/form-data";
     /**
-     * The buffer that stores the first bytes of the current part.
+     * The buffer that stores the first bytes of the current part, created on first use.
      */
-    protected ByteBuffer checkBuffer;
+    private SegmentedBuffer checkBuffer;
     /**
      * The channel to where the current part is written.
      */
     private WritableByteChannel writableChannel;
+    /**
+     * The output used for the parts when there is no part begin callback. It is
+     * shared between the parts and never closed, as it does not hold any resources.
+     */
+    private PartOutput discardingOutput;
+    /**
+     * The errors of the outputs dropped by a best-effort tee of the current part, null if there is no tee.
+     */
+    private List<Throwable> outputFailures;
     /**
      * The known size of the request.
      */
     protected long requestSize;
+    /**
+     * The length of the request, from its Content-Length header, -1 if it is not known.
+     */
+    protected long contentLength = -1;
     /**
      * The context instance.
      */
@@ -117,6 +170,18 @@ public abstract class AbstractUploadParser implements MultipartParser.PartHandle
      * servlet input stream or from a different source.
      */
     protected ByteBuffer dataBuffer;
+    /**
+     * The array used to fill a direct data buffer from the input stream.
+     */
+    private byte[] readArray;
+    /**
+     * Decompresses the request body before the parsing, null if the body is not compressed.
+     */
+    private InflatingPartHandler requestInflater;
+    /**
+     * The number of decompressed bytes passed to the parser.
+     */
+    private long decompressedSize;
 
     /**
      * Sets up the necessary objects to start the parsing. Depending upon
@@ -135,7 +200,8 @@ public abstract class AbstractUploadParser implements MultipartParser.PartHandle
             }
         }
 
-        checkBuffer = ByteBuffer.allocate(sizeThreshold);
+        contentLength = request.getContentLengthLong();
+        dataBuffer = allocateBuffer(maxBytesUsed);
         context = new UploadContextImpl(request, userObject);
 
         final var mimeType = request.getHeader(Headers.CONTENT_TYPE);
@@ -148,7 +214,121 @@ public abstract class AbstractUploadParser implements MultipartParser.PartHandle
             }
             final var encodingHeader = request.getCharacterEncoding();
             final var charset = encodingHeader == null ? ISO_8859_1 : Charset.forName(encodingHeader);
-            parseState = MultipartParser.beginParse(this, boundary.getBytes(charset), maxBytesUsed, charset);
+            parseState = MultipartParser.beginParse(this, boundary.getBytes(charset), maxBytesUsed, charset, directBuffers);
+            parseState.setPartDecompression(partDecompression);
+            setupRequestDecompression(request.getHeader(Headers.CONTENT_ENCODING));
+        }
+    }
+
+    /**
+     * Prepares the decompression of the request body, if it has a gzip or
+     * deflate content encoding. The body is decompressed as it arrives, between
+     * the reads and the parser, so this works with the async parsing as well.
+     * @param contentEncoding The value of the Content-Encoding header, can be null
+     * @throws IllegalArgumentException If the encoding is not supported
+     */
+    protected void setupRequestDecompression(final String contentEncoding) {
+        requestInflater = null;
+        decompressedSize = 0;
+        if (contentEncoding == null || contentEncoding.isEmpty() || "identity".equalsIgnoreCase(contentEncoding)) {
+            return;
+        }
+        if (!InflatingPartHandler.isSupported(contentEncoding)) {
+            throw new IllegalArgumentException("Unsupported content encoding: " + contentEncoding);
+        }
+        requestInflater = new InflatingPartHandler(allocateBuffer(maxBytesUsed));
+        requestInflater.begin(new DecompressedBody(), contentEncoding);
+    }
+
+    /**
+     * Allocates a buffer with the given capacity, either on the heap or
+     * outside of it, depending on the configuration.
+     * @param capacity The capacity of the buffer
+     * @return A new buffer
+     */
+    protected ByteBuffer allocateBuffer(final int capacity) {
+        return directBuffers ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Reads the next bytes from the given stream into the data buffer and prepares
+     * the buffer for the parsing. The streams can only read into arrays, so a direct
+     * data buffer is filled through a reused array.
+     * @param stream The stream to read from
+     * @return The number of bytes read, or -1 if the stream has ended
+     * @throws IOException If an error occurred with the I/O
+     */
+    protected int readDataBuffer(final InputStream stream) throws IOException {
+        final int count;
+        if (dataBuffer.hasArray()) {
+            count = stream.read(dataBuffer.array(), dataBuffer.arrayOffset(), dataBuffer.capacity());
+            dataBuffer.clear();
+        } else {
+            if (readArray == null) {
+                readArray = new byte[dataBuffer.capacity()];
+            }
+            count = stream.read(readArray);
+            dataBuffer.clear();
+            if (count > 0) {
+                dataBuffer.put(readArray, 0, count);
+                dataBuffer.flip();
+            }
+        }
+        // Nothing may be left from the previous read, even if nothing was read now
+        dataBuffer.limit(Math.max(count, 0));
+        return count;
+    }
+
+    /**
+     * Passes the bytes read into the data buffer to the parser, decompressing
+     * them first if the request body is compressed.
+     * @param count The number of bytes read
+     * @throws IOException If the data is invalid or an error occurred with the I/O
+     */
+    void parseDataBuffer(final int count) throws IOException {
+        checkRequestSize(count);
+        if (requestInflater == null) {
+            parseState.parse(dataBuffer);
+        } else {
+            requestInflater.data(dataBuffer);
+        }
+    }
+
+    /**
+     * Returns whether the parsing of the last bytes read was paused by the part
+     * handler, in which case it has to be resumed before the next bytes are read.
+     * @return Whether the parsing is paused
+     */
+    boolean isParsingPaused() {
+        if (requestInflater != null && requestInflater.isPaused()) {
+            return true;
+        }
+        return !parseState.isComplete() && (dataBuffer.hasRemaining() || parseState.isPaused());
+    }
+
+    /**
+     * Continues the paused parsing of the last bytes read.
+     * @throws IOException If the data is invalid or an error occurred with the I/O
+     */
+    void resumeParsing() throws IOException {
+        if (requestInflater != null && requestInflater.isPaused()) {
+            requestInflater.resume();
+        } else {
+            // The decompressed data may have been consumed, but still be held by the parser
+            parseState.parse(dataBuffer);
+        }
+    }
+
+    /**
+     * Called when the request stream has ended. Checks whether the
+     * compressed request body was complete.
+     * @throws IOException If the compressed body ended unexpectedly
+     */
+    void finishRequestBody() throws IOException {
+        if (requestInflater != null) {
+            final var inflater = requestInflater;
+            requestInflater = null;
+            inflater.endPart();
         }
     }
 
@@ -184,22 +364,195 @@ public abstract class AbstractUploadParser implements MultipartParser.PartHandle
         }
     }
 
+    /**
+     * Receives the decompressed request body and passes it to the parser. The
+     * size of the decompressed body is also limited by the maximum request size.
+     */
+    private final class DecompressedBody implements MultipartParser.PartHandler {
+
+        @Override
+        public void beginPart(final Headers headers) {
+            // The request body is not a part
+        }
+
+        @Override
+        public void data(final ByteBuffer buffer) throws IOException {
+            decompressedSize += buffer.remaining();
+            if (maxRequestSize > -1 && decompressedSize > maxRequestSize) {
+                throw new RequestSizeException("The decompressed size of the request ("
+                        + decompressedSize
+                        + ") is greater than the allowed size ("
+                        + maxRequestSize
+                        + ")!", decompressedSize, maxRequestSize);
+            }
+            parseState.parse(buffer);
+            if (parseState.isComplete()) {
+                // Anything after the closing boundary is the epilogue, which is ignored
+                buffer.position(buffer.limit());
+            } else {
+                // The rest is passed again when the parser is resumed
+                decompressedSize -= buffer.remaining();
+            }
+        }
+
+        @Override
+        public boolean isPaused() {
+            return parseState.isPaused();
+        }
+
+        @Override
+        public void resume() throws IOException {
+            parseState.resume();
+        }
+
+        @Override
+        public void endPart() {
+            // The end of the body is checked by the caller
+        }
+    }
+
     @Override
     public void beginPart(final Headers headers) {
-        final var disposition = headers.getHeader(Headers.CONTENT_DISPOSITION);
-        if (disposition != null && disposition.startsWith("form-data")) {
-            final var fieldName = Headers.extractQuotedValueFromHeader(disposition, "name");
-            final var fileName = Headers.extractQuotedValueFromHeader(disposition, "filename");
-            context.reset(new PartStreamImpl(fileName, fieldName, headers));
+        final var part = PartStreamImpl.fromHeaders(headers);
+        if (part != null) {
+            context.reset(part);
+            beginDigests(headers);
+            beginSizeHint(part, headers);
+        }
+    }
+
+    /**
+     * Sets the size hint of the new part. The Content-Length header of the part takes
+     * precedence, then for the file parts the size field sent before them, then for
+     * the first file part the remaining length of the request. The hint is limited
+     * by the maximum part size and the remaining length of the request, if they are known.
+     * @param part The new part
+     * @param headers The headers of the part
+     */
+    void beginSizeHint(final PartStreamImpl part, final Headers headers) {
+        sizeFieldValue = !part.isFile() && sizeHintField != null && sizeHintField.equals(part.getName()) ? new StringBuilder() : null;
+        var hint = parseSize(headers.getHeader(Headers.CONTENT_LENGTH));
+        // The compressed length of the request says nothing about the size of the parts
+        final var remaining = contentLength < 0 || requestInflater != null ? -1
+                : Math.max(0, contentLength - requestSize + dataBuffer.remaining());
+        if (part.isFile()) {
+            if (hint < 0) {
+                hint = fieldSizeHint;
+            }
+            if (hint < 0 && !filePartBegun) {
+                hint = remaining;
+            }
+            fieldSizeHint = -1;
+            filePartBegun = true;
+        }
+        if (remaining > -1 && hint > remaining) {
+            hint = remaining;
+        }
+        if (maxPartSize > -1 && hint > maxPartSize) {
+            hint = maxPartSize;
+        }
+        part.setSizeHint(hint);
+    }
+
+    /**
+     * Collects the value of the size field, if the current part is the size field.
+     * The position of the buffer is not changed.
+     * @param buffer The next bytes of the part
+     */
+    void updateSizeField(final ByteBuffer buffer) {
+        if (sizeFieldValue != null) {
+            // A size has at most 19 digits, anything longer is not a valid size anyway
+            for (var i = buffer.position(); i < buffer.limit() && sizeFieldValue.length() <= 20; i++) {
+                sizeFieldValue.append((char) (buffer.get(i) & 0xFF));
+            }
+        }
+    }
+
+    /**
+     * Stores the value of the size field for the next file part, if the
+     * current part is the size field.
+     */
+    void endSizeField() {
+        if (sizeFieldValue != null) {
+            fieldSizeHint = parseSize(sizeFieldValue.toString().trim());
+            sizeFieldValue = null;
+        }
+    }
+
+    /**
+     * Parses the given size.
+     * @param value The value, can be null
+     * @return The size, or -1 if the value is not a valid size
+     */
+    private static long parseSize(final String value) {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(-1, Long.parseLong(value));
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Starts the digests of the new part, the configured ones and the ones needed
+     * to verify the digest headers of the part. The headers are not verified for
+     * the decompressed parts, as they are computed from the compressed bytes.
+     * @param headers The headers of the part
+     */
+    void beginDigests(final Headers headers) {
+        final var verify = !partDecompression || !InflatingPartHandler.isSupported(headers.getHeader(Headers.CONTENT_ENCODING));
+        partDigests = PartDigests.begin(digestAlgorithms, headers, verify);
+    }
+
+    /**
+     * Updates the digests of the current part, without changing the position of the buffer.
+     * @param buffer The next bytes of the part
+     */
+    void updateDigests(final ByteBuffer buffer) {
+        if (partDigests != null) {
+            partDigests.update(buffer);
+        }
+    }
+
+    /**
+     * Completes the digests of the current part and verifies its digest headers.
+     * @throws PartDigestException If a digest does not match its header
+     */
+    void finishDigests() throws PartDigestException {
+        if (partDigests != null) {
+            final var digests = partDigests;
+            partDigests = null;
+            digests.finish(context.getCurrentPart());
+        }
+    }
+
+    /**
+     * Releases the digests of the current part without completing them.
+     */
+    void releaseDigests() {
+        if (partDigests != null) {
+            partDigests.release();
+            partDigests = null;
         }
     }
 
     @Override
     public void data(final ByteBuffer buffer) throws IOException {
         checkPartSize(buffer.remaining());
-        copyBuffer(buffer);
-        if (context.isBuffering() && context.getPartBytesRead() >= sizeThreshold) {
-            validate(false);
+        updateDigests(buffer);
+        updateSizeField(buffer);
+        if (context.isBuffering()) {
+            if (sizeThreshold > 0) {
+                if (checkBuffer == null) {
+                    checkBuffer = new SegmentedBuffer(sizeThreshold, directBuffers);
+                }
+                checkBuffer.put(buffer);
+            }
+            if (context.getPartBytesRead() >= sizeThreshold) {
+                validate(false);
+            }
         }
         if (!context.isBuffering()) {
             while (buffer.hasRemaining()) {
@@ -208,41 +561,118 @@ public abstract class AbstractUploadParser implements MultipartParser.PartHandle
         }
     }
 
-    private void copyBuffer(final ByteBuffer buffer) {
-        final var transferCount = Math.min(checkBuffer.remaining(), buffer.remaining());
-        if (transferCount > 0) {
-            checkBuffer.put(buffer.array(), buffer.arrayOffset() + buffer.position(), transferCount);
-            buffer.position(buffer.position() + transferCount);
-        }
-    }
-
     private void validate(final boolean partFinished) throws IOException {
         context.finishBuffering();
         if (partFinished) {
             context.getCurrentPart().markAsFinished();
         }
         PartOutput output = null;
-        checkBuffer.flip();
+        // The channel of the previous part must not be aborted if the new one cannot be opened
+        writableChannel = null;
         if (partBeginCallback != null) {
-            output = requireNonNull(partBeginCallback.onPartBegin(context, checkBuffer));
-            if (output.safeToCast(WritableByteChannel.class)) {
-                writableChannel = output.unwrap(WritableByteChannel.class);
-            } else if (output.safeToCast(OutputStream.class)) {
-                writableChannel = new OutputStreamBackedChannel(output.unwrap(OutputStream.class));
-            } else if (output.safeToCast(Path.class)) {
-                writableChannel = Files.newByteChannel(output.unwrap(Path.class), EnumSet.of(APPEND, CREATE, WRITE));
-            } else {
-                throw new IllegalArgumentException("Invalid output object!");
+            final var buffered = checkBuffer == null ? ByteBuffer.allocate(0).asReadOnlyBuffer() : checkBuffer.view();
+            try {
+                output = requireNonNull(partBeginCallback.onPartBegin(context, buffered));
+            } finally {
+                if (checkBuffer != null) {
+                    checkBuffer.releaseView();
+                }
             }
+            writableChannel = openOutput(output, writeBufferSize > 0);
         }
         if (output == null) {
-            writableChannel = new NullChannel();
-            output = PartOutput.from(writableChannel);
+            if (discardingOutput == null) {
+                discardingOutput = PartOutput.from(new NullChannel());
+            }
+            output = discardingOutput;
+            writableChannel = output.unwrap(WritableByteChannel.class);
         }
         context.setOutput(output);
-        checkBuffer.flip();
-        while (checkBuffer.hasRemaining()) {
-            writableChannel.write(checkBuffer);
+        if (checkBuffer != null) {
+            checkBuffer.writeTo(writableChannel);
+        }
+    }
+
+    /**
+     * Opens the channel writing to the given output. The outputs of a tee are opened
+     * recursively. The stages of the output are placed before the channel.
+     * @param output The output object
+     * @param combineWrites Whether the writes to the output should be combined
+     * @return The channel
+     * @throws IOException If an error occurred with the I/O
+     */
+    private WritableByteChannel openOutput(final PartOutput output, final boolean combineWrites) throws IOException {
+        WritableByteChannel channel;
+        if (output.safeToCast(PartSink.class)) {
+            final var sink = output.unwrap(PartSink.class);
+            sink.open(context.getCurrentPart());
+            channel = new SinkChannel(sink);
+        } else if (output.safeToCast(WritableByteChannel.class)) {
+            channel = output.unwrap(WritableByteChannel.class);
+        } else if (output.safeToCast(OutputStream.class)) {
+            channel = new OutputStreamBackedChannel(output.unwrap(OutputStream.class));
+        } else if (output.safeToCast(Path.class)) {
+            channel = FileOutputChannel.open(output.unwrap(Path.class));
+        } else if (output.safeToCast(PartOutput.Tee.class)) {
+            final var tee = output.unwrap(PartOutput.Tee.class);
+            final var channels = new ArrayList<WritableByteChannel>(tee.getOutputs().size());
+            try {
+                for (final var branch : tee.getOutputs()) {
+                    channels.add(openOutput(branch, false));
+                }
+            } catch (final IOException | RuntimeException e) {
+                for (final var opened : channels) {
+                    discard(opened, e);
+                }
+                throw e;
+            }
+            if (outputFailures == null) {
+                outputFailures = new ArrayList<>();
+            }
+            channel = new TeeChannel(channels, tee.getMode() == PartOutput.TeeMode.BEST_EFFORT, outputFailures);
+        } else if (output.safeToCast(PartOutput.Async.class)) {
+            final var async = output.unwrap(PartOutput.Async.class);
+            channel = new AsyncChannel(openOutput(async.getOutput(), false), async.getExecutor(), async.getQueueSize(), async.getTimeout());
+        } else {
+            throw new IllegalArgumentException("Invalid output object!");
+        }
+        if (combineWrites) {
+            if (writeBuffer == null) {
+                writeBuffer = allocateBuffer(writeBufferSize);
+            }
+            channel = new CoalescingChannel(channel, writeBuffer);
+        }
+        if (!output.getStages().isEmpty()) {
+            final var pipeline = new PipelineChannel(output.getStages(), channel);
+            try {
+                pipeline.begin(context.getCurrentPart());
+            } catch (final IOException | RuntimeException e) {
+                discard(pipeline, e);
+                if (!(channel instanceof AbortableChannel)) {
+                    discard(channel, e);
+                }
+                throw e;
+            }
+            channel = pipeline;
+        }
+        return channel;
+    }
+
+    /**
+     * Discards a channel which was opened for the current part, when opening the rest
+     * of the output failed. The channel is aborted if it supports it, closed otherwise.
+     * @param channel The channel
+     * @param cause The error of the opening, the errors of the discarding are added to it
+     */
+    private static void discard(final WritableByteChannel channel, final Throwable cause) {
+        try {
+            if (channel instanceof AbortableChannel) {
+                ((AbortableChannel) channel).abort();
+            } else {
+                channel.close();
+            }
+        } catch (final IOException | RuntimeException e) {
+            cause.addSuppressed(e);
         }
     }
 
@@ -252,14 +682,56 @@ public abstract class AbstractUploadParser implements MultipartParser.PartHandle
             validate(true);
         }
         context.getCurrentPart().markAsFinished();
-        checkBuffer.clear();
         context.updatePartBytesRead();
-        writableChannel.close();
+        finishDigests();
+        endSizeField();
+        if (context.getCurrentOutput() != discardingOutput) {
+            writableChannel.close();
+            if (writableChannel instanceof PipelineChannel) {
+                final var pipeline = (PipelineChannel) writableChannel;
+                context.getCurrentPart().setStageDurations(pipeline.getStageDurations());
+                context.getCurrentPart().setStoredSize(pipeline.getOutputSize());
+            }
+            if (outputFailures != null) {
+                context.getCurrentPart().setOutputFailures(outputFailures);
+                outputFailures = null;
+            }
+        }
         if (partEndCallback != null) {
             partEndCallback.onPartEnd(context);
         }
     }
 
+    /**
+     * Aborts the output of the current part, if it was not closed yet and it supports
+     * aborting, like the outputs created from a {@link PartSink}, and releases its
+     * digests, buffered data and inflaters. The files opened by the parser are closed,
+     * the channels and streams passed by the caller are left to it. Called when the
+     * parsing failed.
+     * @param cause The error which stopped the parsing, the errors of the abort are added to it
+     */
+    protected void abortPart(final Throwable cause) {
+        releaseDigests();
+        outputFailures = null;
+        if (checkBuffer != null) {
+            checkBuffer.release();
+        }
+        if (parseState != null) {
+            parseState.release();
+        }
+        if (requestInflater != null) {
+            requestInflater.release();
+            requestInflater = null;
+        }
+        if (writableChannel instanceof AbortableChannel) {
+            try {
+                ((AbortableChannel) writableChannel).abort();
+            } catch (final IOException | RuntimeException e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
     public void setPartBeginCallback(final OnPartBegin partBeginCallback) {
         this.partBeginCallback = partBeginCallback;
     }
@@ -288,7 +760,35 @@ public abstract class AbstractUploadParser implements MultipartParser.PartHandle
     public void setMaxBytesUsed(final int maxBytesUsed) {
         // There are two byte buffers so each one gets half of the amount
         this.maxBytesUsed = maxBytesUsed / 2;
-        this.dataBuffer = ByteBuffer.allocate(maxBytesUsed / 2);
+    }
+
+    public void setDirectBuffers(final boolean directBuffers) {
+        this.directBuffers = directBuffers;
+    }
+
+    public void setPartDecompression(final boolean partDecompression) {
+        this.partDecompression = partDecompression;
+    }
+
+    /**
+     * Returns whether the given digest algorithm can be computed for the parts.
+     * @param algorithm The name of the algorithm
+     * @return Whether it is supported
+     */
+    public static boolean isDigestSupported(final String algorithm) {
+        return PartDigests.isSupported(algorithm);
+    }
+
+    public void setDigestAlgorithms(final String[] digestAlgorithms) {
+        this.digestAlgorithms = digestAlgorithms;
+    }
+
+    public void setSizeHintField(final String sizeHintField) {
+        this.sizeHintField = sizeHintField;
+    }
+
+    public void setWriteBufferSize(final int writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
     }
 
     public void setSizeThreshold(final int sizeThreshold) {
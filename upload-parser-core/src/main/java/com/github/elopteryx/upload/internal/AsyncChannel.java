@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes the bytes of a part to a channel on the threads of an executor. The
+ * bytes are copied into buffers, which are queued for the executor and reused
+ * after they were written. Writing blocks if the queue is full. At most one
+ * task drains the queue at a time, so the channel is written sequentially.
+ *
+ * <p>An error of the channel is thrown by the next write or by closing. Closing
+ * and aborting wait for the queued buffers, then close or abort the channel on
+ * the executor. Aborting drops the queued buffers first. Every wait is limited
+ * by the timeout, if it expires the channel is aborted as soon as the executor
+ * gets to it. If the executor rejects the task, the channel is aborted on the
+ * calling thread, as nothing else is using it then.</p>
+ */
+final class AsyncChannel implements AbortableChannel {
+
+    /**
+     * The marker of the end of the queue.
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /**
+     * The channel written on the executor.
+     */
+    private final WritableByteChannel channel;
+    /**
+     * The executor running the writes.
+     */
+    private final Executor executor;
+    /**
+     * The maximum time to wait for the executor, in nanoseconds.
+     */
+    private final long timeoutNanos;
+    /**
+     * The buffers waiting to be written.
+     */
+    private final BlockingQueue<ByteBuffer> queue;
+    /**
+     * The written buffers, which can be reused.
+     */
+    private final BlockingQueue<ByteBuffer> free;
+    /**
+     * Whether a task is draining the queue.
+     */
+    private final AtomicBoolean draining = new AtomicBoolean();
+    /**
+     * Released when the channel has been closed or aborted on the executor.
+     */
+    private final CountDownLatch done = new CountDownLatch(1);
+    /**
+     * Whether the channel should be aborted at the end of the queue, instead of closed.
+     */
+    private volatile boolean aborted;
+    /**
+     * The first error of the channel.
+     */
+    private volatile Throwable failure;
+    /**
+     * Flag to determine whether the channel is closed or not.
+     */
+    private boolean open = true;
+
+    /**
+     * Package private constructor.
+     * @param channel The channel written on the executor
+     * @param executor The executor running the writes
+     * @param queueSize The maximum number of the queued buffers
+     * @param timeout The maximum time to wait for the executor
+     */
+    AsyncChannel(final WritableByteChannel channel, final Executor executor, final int queueSize, final Duration timeout) {
+        this.channel = channel;
+        this.executor = executor;
+        this.timeoutNanos = timeout.toNanos();
+        this.queue = new ArrayBlockingQueue<>(queueSize + 1);
+        this.free = new ArrayBlockingQueue<>(queueSize + 1);
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        checkFailure();
+        final var length = src.remaining();
+        var copy = free.poll();
+        if (copy == null || copy.capacity() < length) {
+            copy = ByteBuffer.allocate(Math.max(length, copy == null ? 0 : copy.capacity()));
+        }
+        copy.clear();
+        copy.put(src).flip();
+        enqueue(copy);
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            finish();
+            checkFailure();
+        }
+    }
+
+    @Override
+    public void abort() throws IOException {
+        if (open) {
+            open = false;
+            aborted = true;
+            // The drain skips the buffers of an aborted channel anyway
+            queue.clear();
+            finish();
+        }
+    }
+
+    private void finish() throws IOException {
+        if (done.getCount() > 0) {
+            enqueue(END);
+        }
+        try {
+            if (!done.await(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                aborted = true;
+                throw new IOException("The output did not finish in time!");
+            }
+        } catch (final InterruptedException e) {
+            aborted = true;
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the output!");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        final var error = failure;
+        if (error != null) {
+            throw new IOException("The output failed!", error);
+        }
+    }
+
+    private void enqueue(final ByteBuffer buffer) throws IOException {
+        try {
+            if (!queue.offer(buffer, timeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new IOException("The output did not accept the bytes in time!");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the output!");
+        }
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (final RejectedExecutionException e) {
+                // Nothing drains the queue, so the channel is ended on this thread
+                if (failure == null) {
+                    failure = e;
+                }
+                queue.clear();
+                end();
+                draining.set(false);
+                throw new IOException("The output failed!", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the queued buffers until the queue is empty. The flag is checked again
+     * after clearing it, as a buffer may have been queued in the meantime.
+     */
+    private void drain() {
+        while (true) {
+            final var buffer = queue.poll();
+            if (buffer == null) {
+                draining.set(false);
+                if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+            } else if (buffer == END) {
+                end();
+            } else {
+                if (failure == null && !aborted) {
+                    try {
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    } catch (final IOException | RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                free.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Closes the channel, or aborts it if the part failed.
+     */
+    private void end() {
+        if (done.getCount() == 0) {
+            return;
+        }
+        try {
+            if (failure == null && !aborted) {
+                channel.close();
+            } else if (channel instanceof AbortableChannel) {
+                ((AbortableChannel) channel).abort();
+            }
+        } catch (final IOException | RuntimeException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        } finally {
+            done.countDown();
+        }
+    }
+}
@@ -96,17 +96,15 @@ public class AsyncUploadParser extends AbstractUploadParser implements ReadListe
     private boolean parseCurrentItem() throws IOException {
         var count = -1;
         if (!servletInputStream.isFinished()) {
-            count = servletInputStream.read(dataBuffer.array());
+            count = readDataBuffer(servletInputStream);
         }
         if (count == -1) {
+            finishRequestBody();
             if (!parseState.isComplete()) {
                 throw new MultipartException("Stream ended unexpectedly!");
             }
-        } else {
-            checkRequestSize(count);
-            dataBuffer.position(0);
-            dataBuffer.limit(count);
-            parseState.parse(dataBuffer);
+        } else if (count > 0) {
+            parseDataBuffer(count);
         }
         return !parseState.isComplete();
     }
@@ -140,6 +138,7 @@ public class AsyncUploadParser extends AbstractUploadParser implements ReadListe
      */
     @Override
     public void onError(final Throwable throwable) {
+        abortPart(throwable);
         try {
             if (errorCallback != null) {
                 errorCallback.onError(context, throwable);
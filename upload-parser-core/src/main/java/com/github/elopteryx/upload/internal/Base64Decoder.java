@@ -22,6 +22,7 @@ import static java.nio.charset.StandardCharsets.US_ASCII;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Copied from Undertow. Stripped out the unnecessary parts, like the
@@ -36,12 +37,20 @@ class Base64Decoder {
 
     private static final byte[] ENCODING_TABLE;
     private static final byte[] DECODING_TABLE = new byte[80];
+    /**
+     * The values of the characters for the group decoding, -1 for everything else, including
+     * whitespace and padding. Combining the four values of a group yields a negative number
+     * if any of them was invalid, so a group can be checked with a single comparison.
+     */
+    static final int[] QUAD_TABLE = new int[256];
 
     static {
         ENCODING_TABLE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(US_ASCII);
+        Arrays.fill(QUAD_TABLE, -1);
         for (var i = 0; i < ENCODING_TABLE.length; i++) {
             final var offSet = (ENCODING_TABLE[i] & 0xFF) - 43;
             DECODING_TABLE[offSet] = (byte)(i + 1);  // zero = illegal
+            QUAD_TABLE[ENCODING_TABLE[i] & 0xFF] = i;
         }
     }
 
@@ -91,6 +100,14 @@ class Base64Decoder {
         return byteInt;
     }
 
+    /**
+     * Clears the saved state, so the decoder can be used for a new input.
+     */
+    void reset() {
+        state = 0;
+        last = 0;
+    }
+
     /**
      * Decodes one Base64 byte buffer into another. This method will return and save state
      * if the target does not have the required capacity. Subsequent calls with a new target will
@@ -99,6 +116,10 @@ class Base64Decoder {
      *
      * <p>The decoder will skip white space, but will error if it detects corruption.</p>
      *
+     * <p>Whenever the decoder is at the start of a group it decodes the following complete
+     * groups at once, the state machine is only used for the whitespace, the padding and
+     * the groups split between the calls.</p>
+     *
      * @param source the byte buffer to read encoded data from
      * @param target the byte buffer to write decoded data to
      * @throws java.io.IOException if the encoded data is corrupted
@@ -115,6 +136,12 @@ class Base64Decoder {
         var targetRemaining = target.remaining();
         var byteInt = 0;
         while (remaining-- > 0 && targetRemaining > 0) {
+            if (state == 0 && remaining >= 3 && targetRemaining >= 3 && decodeGroups(source, target) > 0) {
+                // Continue as if this was a new call, the loop condition consumes one again
+                remaining = source.remaining();
+                targetRemaining = target.remaining();
+                continue;
+            }
             byteInt = nextByte(source, state, last, false);
             if (byteInt == MARK) {
                 last = MARK;
@@ -184,6 +211,47 @@ class Base64Decoder {
         this.state = state;
     }
 
+    /**
+     * Decodes the complete groups of four characters from the source, three bytes at a time,
+     * until the first group which contains anything else than the alphabet, or until one of
+     * the buffers does not have room for another group. The arrays of the heap buffers are
+     * processed by the {@link Kernels}.
+     * @param source the byte buffer to read encoded data from
+     * @param target the byte buffer to write decoded data to
+     * @return the number of decoded groups
+     */
+    private static int decodeGroups(final ByteBuffer source, final ByteBuffer target) {
+        final var groups = Math.min(source.remaining() >> 2, target.remaining() / 3);
+        final var sourcePosition = source.position();
+        final var targetPosition = target.position();
+        var count = 0;
+        if (source.hasArray() && target.hasArray()) {
+            count = Kernels.decodeBase64Groups(source.array(), source.arrayOffset() + sourcePosition,
+                    target.array(), target.arrayOffset() + targetPosition, groups);
+        } else {
+            var srcIndex = sourcePosition;
+            var dstIndex = targetPosition;
+            while (count < groups) {
+                final var bits = QUAD_TABLE[source.get(srcIndex) & 0xFF] << 18
+                        | QUAD_TABLE[source.get(srcIndex + 1) & 0xFF] << 12
+                        | QUAD_TABLE[source.get(srcIndex + 2) & 0xFF] << 6
+                        | QUAD_TABLE[source.get(srcIndex + 3) & 0xFF];
+                if (bits < 0) {
+                    break;
+                }
+                target.put(dstIndex, (byte) (bits >> 16));
+                target.put(dstIndex + 1, (byte) (bits >> 8));
+                target.put(dstIndex + 2, (byte) bits);
+                srcIndex += 4;
+                dstIndex += 3;
+                count++;
+            }
+        }
+        source.position(sourcePosition + (count << 2));
+        target.position(targetPosition + count * 3);
+        return count;
+    }
+
     private static void drain(final ByteBuffer source, int byteInt, final int state, int last) {
         while (byteInt != DONE && source.remaining() > 0) {
             try {
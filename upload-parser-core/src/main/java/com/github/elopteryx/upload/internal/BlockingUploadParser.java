@@ -68,6 +68,7 @@ public class BlockingUploadParser extends AbstractUploadParser {
                 requestCallback.onRequestComplete(context);
             }
         } catch (final Exception e) {
+            abortPart(e);
             if (errorCallback != null) {
                 errorCallback.onError(context, e);
             }
@@ -83,18 +84,16 @@ public class BlockingUploadParser extends AbstractUploadParser {
      */
     protected void blockingRead() throws IOException {
         while (true) {
-            final var count = inputStream.read(dataBuffer.array());
+            final var count = readDataBuffer(inputStream);
             if (count == -1) {
+                finishRequestBody();
                 if (parseState.isComplete()) {
                     break;
                 } else {
                     throw new MultipartException("Stream ended unexpectedly!");
                 }
             } else if (count > 0) {
-                checkRequestSize(count);
-                dataBuffer.position(0);
-                dataBuffer.limit(count);
-                parseState.parse(dataBuffer);
+                parseDataBuffer(count);
             }
         }
     }
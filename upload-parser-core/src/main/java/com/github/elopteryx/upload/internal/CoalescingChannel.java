@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A channel which combines the small writes of the parser into fewer, larger
+ * writes on the channel of the part. The slices are copied into a buffer and
+ * written out when it is full. A slice which is at least as large as the buffer
+ * is written together with the buffered bytes, in a single gathering write if the
+ * channel supports it, for example a {@link java.nio.channels.FileChannel}. Closing
+ * the channel writes out the remaining bytes and closes the underlying channel,
+ * aborting it drops them and aborts the underlying channel, if it can be aborted.
+ *
+ * <p>The buffer is owned by the parser and reused for the following parts.</p>
+ */
+final class CoalescingChannel implements AbortableChannel {
+
+    /**
+     * The channel of the part.
+     */
+    private final WritableByteChannel channel;
+    /**
+     * The same channel, if it supports gathering writes, null otherwise.
+     */
+    private final GatheringByteChannel gatheringChannel;
+    /**
+     * The buffer holding the bytes not written yet, always in write mode.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The sources of the gathering writes, reused between the calls.
+     */
+    private final ByteBuffer[] sources = new ByteBuffer[2];
+    /**
+     * Flag to determine whether the channel is closed or not.
+     */
+    private boolean open = true;
+
+    /**
+     * Public constructor.
+     * @param channel The channel of the part
+     * @param buffer The buffer to collect the writes in, it is cleared first
+     */
+    CoalescingChannel(final WritableByteChannel channel, final ByteBuffer buffer) {
+        this.channel = channel;
+        this.gatheringChannel = channel instanceof GatheringByteChannel ? (GatheringByteChannel) channel : null;
+        this.buffer = buffer.clear();
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        final var length = src.remaining();
+        if (length < buffer.capacity()) {
+            if (length > buffer.remaining()) {
+                final var limit = src.limit();
+                src.limit(src.position() + buffer.remaining());
+                buffer.put(src);
+                src.limit(limit);
+                flush();
+            }
+            buffer.put(src);
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            return length;
+        }
+        buffer.flip();
+        if (gatheringChannel != null && buffer.hasRemaining()) {
+            sources[0] = buffer;
+            sources[1] = src;
+            try {
+                while (src.hasRemaining()) {
+                    gatheringChannel.write(sources);
+                }
+            } finally {
+                sources[1] = null;
+            }
+        } else {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+        buffer.clear();
+        return length;
+    }
+
+    /**
+     * Writes out the buffered bytes.
+     * @throws IOException If an error occurred with the I/O
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open && channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    @Override
+    public void abort() throws IOException {
+        if (open) {
+            open = false;
+            buffer.clear();
+            if (channel instanceof AbortableChannel) {
+                ((AbortableChannel) channel).abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import com.github.elopteryx.upload.PartStage;
+import com.github.elopteryx.upload.PartStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A stage compressing the bytes of a part into the gzip or the zlib (deflate) format.
+ * The input is read by the {@link Deflater} directly from the buffer of the parser,
+ * the compressed bytes are collected in an output buffer, which is passed to the next
+ * stage when it is full. The deflater is taken from a pool for the duration of the part.
+ */
+public final class DeflatingStage implements PartStage {
+
+    /**
+     * The maximum number of idle deflaters kept in each pool.
+     */
+    private static final int MAX_IDLE_DEFLATERS = 16;
+    /**
+     * The size of the output buffer.
+     */
+    private static final int OUTPUT_SIZE = 8192;
+    /**
+     * The pools of the deflaters, keyed by the compression level and the format.
+     */
+    private static final Map<Integer, ResourcePool<Deflater>> DEFLATERS = new ConcurrentHashMap<>();
+
+    /**
+     * The gzip header, without a modification time, file name or comment.
+     */
+    private static final byte[] GZIP_HEADER = {0x1F, (byte) 0x8B, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xFF};
+
+    /**
+     * The empty input, set before finishing the deflater.
+     */
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Whether the output is gzip, or zlib otherwise.
+     */
+    private final boolean gzip;
+    /**
+     * The compression level.
+     */
+    private final int level;
+    /**
+     * The pool of the deflaters with the level and the format.
+     */
+    private final ResourcePool<Deflater> pool;
+    /**
+     * The checksum of the uncompressed bytes, for the gzip trailer.
+     */
+    private final CRC32 crc = new CRC32();
+    /**
+     * The buffer collecting the compressed bytes, allocated on first use.
+     */
+    private ByteBuffer output;
+    /**
+     * The deflater of the current part, null between the parts.
+     */
+    private Deflater deflater;
+
+    /**
+     * Public constructor.
+     * @param gzip Whether the output is gzip, or zlib otherwise
+     * @param level The compression level, from 0 to 9, or -1 for the default
+     * @throws IllegalArgumentException If the level is invalid
+     */
+    public DeflatingStage(final boolean gzip, final int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid parameter value: " + level);
+        }
+        this.gzip = gzip;
+        this.level = level;
+        this.pool = DEFLATERS.computeIfAbsent(level * 2 + (gzip ? 1 : 0),
+                key -> new ResourcePool<>(() -> new Deflater(level, gzip), Deflater::end, MAX_IDLE_DEFLATERS));
+    }
+
+    @Override
+    public void begin(final PartStream part) {
+        release();
+        deflater = pool.acquire();
+        crc.reset();
+        if (output == null) {
+            output = ByteBuffer.allocate(OUTPUT_SIZE);
+        }
+        output.clear();
+        if (gzip) {
+            output.put(GZIP_HEADER);
+        }
+    }
+
+    @Override
+    public void process(final ByteBuffer buffer, final WritableByteChannel next) throws IOException {
+        if (gzip) {
+            final var position = buffer.position();
+            crc.update(buffer);
+            buffer.position(position);
+        }
+        deflater.setInput(buffer);
+        while (!deflater.needsInput()) {
+            deflate(next);
+        }
+    }
+
+    @Override
+    public void finish(final WritableByteChannel next) throws IOException {
+        // The deflater still references the last buffer, which the parser has reused since
+        deflater.setInput(EMPTY);
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate(next);
+        }
+        if (gzip) {
+            if (output.remaining() < 8) {
+                flush(next);
+            }
+            putIntLe(crc.getValue());
+            putIntLe(deflater.getBytesRead());
+        }
+        flush(next);
+        release();
+    }
+
+    @Override
+    public void abort() {
+        release();
+    }
+
+    /**
+     * Returns the compression level of the stage.
+     * @return The level
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    private void deflate(final WritableByteChannel next) throws IOException {
+        deflater.deflate(output);
+        if (!output.hasRemaining()) {
+            flush(next);
+        }
+    }
+
+    private void flush(final WritableByteChannel next) throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            next.write(output);
+        }
+        output.clear();
+    }
+
+    private void putIntLe(final long value) {
+        output.put((byte) value).put((byte) (value >>> 8)).put((byte) (value >>> 16)).put((byte) (value >>> 24));
+    }
+
+    /**
+     * Resets the deflater and returns it into the pool, if the stage has one.
+     */
+    private void release() {
+        if (deflater != null) {
+            deflater.reset();
+            pool.release(deflater);
+            deflater = null;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import static com.github.elopteryx.upload.util.DecryptingChannel.HEADER_LENGTH;
+import static com.github.elopteryx.upload.util.DecryptingChannel.MAGIC;
+import static com.github.elopteryx.upload.util.DecryptingChannel.NONCE_LENGTH;
+import static com.github.elopteryx.upload.util.DecryptingChannel.TAG_LENGTH;
+import static com.github.elopteryx.upload.util.DecryptingChannel.TRANSFORMATION;
+import static com.github.elopteryx.upload.util.DecryptingChannel.VERSION;
+
+import com.github.elopteryx.upload.PartStage;
+import com.github.elopteryx.upload.PartStream;
+import com.github.elopteryx.upload.util.DecryptingChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Objects;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * A stage encrypting the bytes of a part with AES-GCM, in chunks of a fixed size, each
+ * with its own tag. The format is described by the {@link DecryptingChannel}, which can
+ * decrypt the result with random access. The cipher reads the bytes directly from the
+ * buffer of the parser, the encrypted bytes are collected in an output buffer, which
+ * is passed to the next stage when it is full. The cipher is taken from a pool for
+ * the duration of the part.
+ *
+ * <p>The end of the file is marked with an empty, authenticated final chunk, so the
+ * stage does not need to know whether a data chunk is the last one when it starts
+ * encrypting it, and the plaintext does not have to be buffered.</p>
+ */
+public final class EncryptingStage implements PartStage {
+
+    /**
+     * The default size of the chunks.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    /**
+     * The maximum size of the chunks, the largest one the decrypting channel accepts.
+     */
+    public static final int MAX_CHUNK_SIZE = DecryptingChannel.MAX_CHUNK_SIZE;
+    /**
+     * The maximum number of idle ciphers kept in the pool.
+     */
+    private static final int MAX_IDLE_CIPHERS = 16;
+    /**
+     * The size of the output buffer.
+     */
+    private static final int OUTPUT_SIZE = 16384;
+    /**
+     * The room kept in the output buffer for the bytes buffered by the cipher and the tag.
+     */
+    private static final int OVERHEAD = 2 * TAG_LENGTH;
+    /**
+     * The pool of the ciphers, they are initialized for each chunk.
+     */
+    private static final ResourcePool<Cipher> CIPHERS = new ResourcePool<>(EncryptingStage::newCipher, cipher -> { }, MAX_IDLE_CIPHERS);
+    /**
+     * The source of the base nonces.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+    /**
+     * The empty input, passed when the final chunk is encrypted.
+     */
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * The key of the parts.
+     */
+    private final SecretKey key;
+    /**
+     * The size of the chunks.
+     */
+    private final int chunkSize;
+    /**
+     * The header of the current part, followed by the flag of the final chunk.
+     */
+    private final byte[] aad = new byte[HEADER_LENGTH + 1];
+    /**
+     * The base nonce of the current part.
+     */
+    private final byte[] baseNonce = new byte[NONCE_LENGTH];
+    /**
+     * The buffer collecting the encrypted bytes, allocated on first use.
+     */
+    private ByteBuffer output;
+    /**
+     * The cipher of the current part, null between the parts.
+     */
+    private Cipher cipher;
+    /**
+     * The index of the current chunk.
+     */
+    private long chunkIndex;
+    /**
+     * The number of bytes encrypted in the current chunk, -1 if the chunk is not started.
+     */
+    private int chunkFill;
+
+    /**
+     * Public constructor.
+     * @param key The key of the parts
+     * @param chunkSize The size of the chunks
+     * @throws IllegalArgumentException If the chunk size is invalid
+     */
+    public EncryptingStage(final SecretKey key, final int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid parameter value: " + chunkSize);
+        }
+        this.key = Objects.requireNonNull(key);
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void begin(final PartStream part) {
+        release();
+        cipher = CIPHERS.acquire();
+        RANDOM.nextBytes(baseNonce);
+        final var header = ByteBuffer.wrap(aad, 0, HEADER_LENGTH);
+        header.putInt(MAGIC).put((byte) VERSION).putInt(chunkSize).put(baseNonce);
+        if (output == null) {
+            output = ByteBuffer.allocate(OUTPUT_SIZE);
+        }
+        output.clear();
+        output.put(aad, 0, HEADER_LENGTH);
+        chunkIndex = 0;
+        chunkFill = -1;
+    }
+
+    @Override
+    public void process(final ByteBuffer buffer, final WritableByteChannel next) throws IOException {
+        try {
+            while (buffer.hasRemaining()) {
+                if (chunkFill < 0) {
+                    startChunk(false);
+                }
+                final var count = Math.min(Math.min(buffer.remaining(), chunkSize - chunkFill), OUTPUT_SIZE - OVERHEAD);
+                if (output.remaining() < count + OVERHEAD) {
+                    flush(next);
+                }
+                final var limit = buffer.limit();
+                buffer.limit(buffer.position() + count);
+                cipher.update(buffer, output);
+                buffer.limit(limit);
+                chunkFill += count;
+                if (chunkFill == chunkSize) {
+                    finishChunk(next);
+                }
+            }
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void finish(final WritableByteChannel next) throws IOException {
+        try {
+            if (chunkFill >= 0) {
+                finishChunk(next);
+            }
+            startChunk(true);
+            finishChunk(next);
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        flush(next);
+        release();
+    }
+
+    @Override
+    public void abort() {
+        release();
+    }
+
+    /**
+     * Returns the size of the chunks of the stage.
+     * @return The size of the chunks, without the tag
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Initializes the cipher for the current chunk. The chunks are started lazily, as
+     * the same nonce cannot be used twice in a row for encryption.
+     * @param last Whether the chunk is the final one
+     * @throws GeneralSecurityException If the cipher could not be initialized
+     */
+    private void startChunk(final boolean last) throws GeneralSecurityException {
+        aad[HEADER_LENGTH] = (byte) (last ? 1 : 0);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, DecryptingChannel.nonce(baseNonce, chunkIndex)));
+        cipher.updateAAD(aad);
+        chunkFill = 0;
+    }
+
+    private void finishChunk(final WritableByteChannel next) throws IOException, GeneralSecurityException {
+        if (output.remaining() < OVERHEAD) {
+            flush(next);
+        }
+        cipher.doFinal(EMPTY, output);
+        chunkIndex++;
+        chunkFill = -1;
+    }
+
+    private void flush(final WritableByteChannel next) throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            next.write(output);
+        }
+        output.clear();
+    }
+
+    /**
+     * Returns the cipher into the pool, if the stage has one. The cipher
+     * does not need to be reset, it is initialized for each chunk.
+     */
+    private void release() {
+        if (cipher != null) {
+            CIPHERS.release(cipher);
+            cipher = null;
+        }
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+
+/**
+ * The channel of a file output, opened by the parser from a {@link Path}. As the
+ * parser owns the channel, aborting it closes the file, so the handle is not leaked
+ * when the parsing fails. The written bytes are kept, like when the part ends. The
+ * writes stay gathering writes, if the channel of the file supports them.
+ */
+final class FileOutputChannel implements GatheringByteChannel, AbortableChannel {
+
+    /**
+     * The channel of the file.
+     */
+    private final WritableByteChannel channel;
+    /**
+     * The same channel, if it supports gathering writes, null otherwise.
+     */
+    private final GatheringByteChannel gatheringChannel;
+
+    /**
+     * Package private constructor.
+     * @param channel The channel of the file
+     */
+    FileOutputChannel(final WritableByteChannel channel) {
+        this.channel = channel;
+        this.gatheringChannel = channel instanceof GatheringByteChannel ? (GatheringByteChannel) channel : null;
+    }
+
+    /**
+     * Opens the given file for appending, creating it if it does not exist.
+     * @param path The file
+     * @return The channel
+     * @throws IOException If an error occurred with the I/O
+     */
+    static FileOutputChannel open(final Path path) throws IOException {
+        return new FileOutputChannel(Files.newByteChannel(path, EnumSet.of(APPEND, CREATE, WRITE)));
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        return channel.write(src);
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        if (gatheringChannel != null) {
+            return gatheringChannel.write(srcs, offset, length);
+        }
+        var written = 0L;
+        for (var i = offset; i < offset + length; i++) {
+            final var remaining = srcs[i].remaining();
+            final var count = channel.write(srcs[i]);
+            written += count;
+            if (count < remaining) {
+                break;
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Closes the file, keeping the bytes written so far.
+     * @throws IOException If an error occurred with the I/O
+     */
+    @Override
+    public void abort() throws IOException {
+        channel.close();
+    }
+}
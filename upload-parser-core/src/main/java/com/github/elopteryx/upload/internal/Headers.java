@@ -16,18 +16,25 @@
 
 package com.github.elopteryx.upload.internal;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 
 /**
  * This class is used to extract, store and retrieve header keys
  * and values. Supports the HTTP request headers and also the headers
  * for the part items received in the multipart request.
+ *
+ * <p>The headers of the parts are stored as the raw bytes of the header block,
+ * the names and values are only decoded when they are first requested.</p>
  */
 public class Headers {
 
@@ -41,21 +48,200 @@ public class Headers {
 
     public static final String CONTENT_TYPE = "Content-Type";
 
-    private final Map<String, List<String>> headerNameToValueListMap = new LinkedHashMap<>();
+    public static final String CONTENT_TRANSFER_ENCODING = "Content-Transfer-Encoding";
+
+    public static final String CONTENT_MD5 = "Content-MD5";
+
+    public static final String CONTENT_DIGEST = "Content-Digest";
+
+    /**
+     * The lower case names of the common part headers. The parser matches
+     * the header names against these, to avoid decoding and lower casing them.
+     */
+    private static final String[] KNOWN_HEADER_NAMES = {
+            CONTENT_DISPOSITION.toLowerCase(Locale.ENGLISH),
+            CONTENT_TYPE.toLowerCase(Locale.ENGLISH),
+            CONTENT_TRANSFER_ENCODING.toLowerCase(Locale.ENGLISH),
+            CONTENT_LENGTH.toLowerCase(Locale.ENGLISH),
+            CONTENT_ENCODING.toLowerCase(Locale.ENGLISH)
+    };
+
+    /**
+     * The initial capacity of the header arrays, most parts have only a few headers.
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * The raw bytes of the header block, without the delimiters. Null if
+     * the headers were added one by one.
+     */
+    private final byte[] raw;
+
+    /**
+     * The charset used to decode the raw bytes.
+     */
+    private final Charset charset;
+
+    /**
+     * The location of the names and values in the raw bytes. Each header has
+     * four entries, the start and end of the name, then the start and end of the value.
+     */
+    private final int[] ranges;
+
+    /**
+     * The lower case header names, in the order they were added. The names
+     * can repeat, each header value is stored with its own name. An entry
+     * is null until the name is decoded from the raw bytes.
+     */
+    private String[] names;
+
+    /**
+     * The header values, stored at the same index as their names. An entry
+     * is null until the value is decoded from the raw bytes.
+     */
+    private String[] values;
+
+    /**
+     * The number of stored headers.
+     */
+    private int size;
+
+    /**
+     * The headers of the nested multipart part containing this part,
+     * null for the top level parts.
+     */
+    private Headers parent;
+
+    /**
+     * The nesting depth of the part, zero for the top level parts.
+     */
+    private int depth;
+
+    /**
+     * Creates a new instance without any headers.
+     */
+    Headers() {
+        this.raw = null;
+        this.charset = null;
+        this.ranges = null;
+        this.names = new String[INITIAL_CAPACITY];
+        this.values = new String[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Creates a new instance backed by the raw bytes of a header block. The common
+     * header names are resolved right away, as that does not require decoding.
+     *
+     * @param raw     The bytes of the header names and values
+     * @param ranges  The start and end of the name and value of each header
+     * @param size    The number of headers
+     * @param charset The charset of the raw bytes
+     */
+    Headers(final byte[] raw, final int[] ranges, final int size, final Charset charset) {
+        this.raw = raw;
+        this.charset = charset;
+        this.ranges = ranges;
+        this.names = new String[Math.max(size, INITIAL_CAPACITY)];
+        this.values = new String[Math.max(size, INITIAL_CAPACITY)];
+        this.size = size;
+        for (var i = 0; i < size; i++) {
+            names[i] = knownHeaderName(raw, ranges[i * 4], ranges[i * 4 + 1]);
+        }
+    }
 
     String getHeader(final String name) {
-        final var nameLower = name.toLowerCase(Locale.ENGLISH);
-        final var headerValueList = headerNameToValueListMap.get(nameLower);
-        return headerValueList == null ? null : headerValueList.get(0);
+        for (var i = 0; i < size; i++) {
+            if (nameAt(i).equalsIgnoreCase(name)) {
+                return valueAt(i);
+            }
+        }
+        return null;
     }
 
     Collection<String> getHeaders(final String name) {
-        final var nameLower = name.toLowerCase(Locale.ENGLISH);
-        return headerNameToValueListMap.getOrDefault(nameLower, Collections.emptyList());
+        List<String> headerValues = null;
+        for (var i = 0; i < size; i++) {
+            if (nameAt(i).equalsIgnoreCase(name)) {
+                if (headerValues == null) {
+                    headerValues = new ArrayList<>();
+                }
+                headerValues.add(valueAt(i));
+            }
+        }
+        return headerValues == null ? Collections.emptyList() : headerValues;
     }
 
     Collection<String> getHeaderNames() {
-        return headerNameToValueListMap.keySet();
+        final var headerNames = new ArrayList<String>(size);
+        for (var i = 0; i < size; i++) {
+            final var name = nameAt(i);
+            if (!headerNames.contains(name)) {
+                headerNames.add(name);
+            }
+        }
+        return headerNames;
+    }
+
+    private String nameAt(final int index) {
+        var name = names[index];
+        if (name == null) {
+            name = decode(ranges[index * 4], ranges[index * 4 + 1]).toLowerCase(Locale.ENGLISH);
+            names[index] = name;
+        }
+        return name;
+    }
+
+    private String valueAt(final int index) {
+        var value = values[index];
+        if (value == null) {
+            value = decode(ranges[index * 4 + 2], ranges[index * 4 + 3]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    Headers getParent() {
+        return parent;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Marks these headers as belonging to a sub-part of a nested multipart part.
+     *
+     * @param parent The headers of the containing part
+     */
+    void setParent(final Headers parent) {
+        this.parent = parent;
+        this.depth = parent.depth + 1;
+    }
+
+    /**
+     * Decodes the given range of the raw bytes. If the charset maps the bytes
+     * one to one, which is always true for ASCII input in the common charsets, then
+     * the string is created directly from the Latin-1 bytes instead of going
+     * through the charset decoder.
+     *
+     * @param from The first index, inclusive
+     * @param to   The last index, exclusive
+     * @return The decoded string
+     */
+    private String decode(final int from, final int to) {
+        if (ISO_8859_1.equals(charset) || (US_ASCII.equals(charset) || UTF_8.equals(charset)) && isAscii(from, to)) {
+            return new String(raw, from, to - from, ISO_8859_1);
+        }
+        return new String(raw, from, to - from, charset);
+    }
+
+    private boolean isAscii(final int from, final int to) {
+        for (var i = from; i < to; i++) {
+            if (raw[i] < 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -65,8 +251,42 @@ public class Headers {
      * @param value value of this header
      */
     void addHeader(final String name, final String value) {
-        final var nameLower = name.toLowerCase(Locale.ENGLISH);
-        headerNameToValueListMap.computeIfAbsent(nameLower, key -> new ArrayList<>()).add(value);
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name.toLowerCase(Locale.ENGLISH);
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Matches the given ASCII bytes against the known header names, ignoring the case.
+     *
+     * @param bytes The array holding the header name
+     * @param from  The first index, inclusive
+     * @param to    The last index, exclusive
+     * @return The lower case header name, or null if it is not a known header
+     */
+    static String knownHeaderName(final byte[] bytes, final int from, final int to) {
+        final var length = to - from;
+        for (final var knownName : KNOWN_HEADER_NAMES) {
+            if (knownName.length() == length && equalsIgnoreCase(bytes, from, knownName)) {
+                return knownName;
+            }
+        }
+        return null;
+    }
+
+    private static boolean equalsIgnoreCase(final byte[] bytes, final int from, final String lowerCase) {
+        for (var i = 0; i < lowerCase.length(); i++) {
+            final var b = bytes[from + i];
+            final var lower = b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+            if (lower != lowerCase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -94,6 +314,61 @@ public class Headers {
         return header.substring(start, end);
     }
 
+    /**
+     * Extracts the name and the filename parameters from a Content-Disposition header
+     * in a single pass. For instance if the header is
+     * form-data; name="my field"; filename="my file.txt"
+     * then the returned array contains my field and my file.txt without the quotes.
+     * The parameter names are matched as whole tokens, so the name parameter is
+     * never confused with the end of the filename parameter.
+     *
+     * @param disposition The header
+     * @return An array holding the field name and the file name, either can be null
+     */
+    static String[] extractDispositionParameters(final String disposition) {
+        String fieldName = null;
+        String fileName = null;
+        final var length = disposition.length();
+        var i = disposition.indexOf(';');
+        while (i != -1) {
+            i++;
+            while (i < length && (disposition.charAt(i) == ' ' || disposition.charAt(i) == '\t')) {
+                i++;
+            }
+            final var keyStart = i;
+            while (i < length && disposition.charAt(i) != '=' && disposition.charAt(i) != ';') {
+                i++;
+            }
+            if (i < length && disposition.charAt(i) == '=') {
+                final var keyLength = i - keyStart;
+                final int start;
+                i++;
+                if (i < length && disposition.charAt(i) == '"') {
+                    start = ++i;
+                    while (i < length && disposition.charAt(i) != '"') {
+                        i++;
+                    }
+                } else {
+                    start = i;
+                    while (i < length && disposition.charAt(i) != ';' && disposition.charAt(i) != ' ' && disposition.charAt(i) != '\t') {
+                        i++;
+                    }
+                }
+                if (fieldName == null && isParameter(disposition, keyStart, keyLength, "name")) {
+                    fieldName = disposition.substring(start, i);
+                } else if (fileName == null && isParameter(disposition, keyStart, keyLength, "filename")) {
+                    fileName = disposition.substring(start, i);
+                }
+            }
+            i = disposition.indexOf(';', i);
+        }
+        return new String[] {fieldName, fileName};
+    }
+
+    private static boolean isParameter(final String header, final int start, final int length, final String key) {
+        return length == key.length() && header.regionMatches(true, start, key, 0, length);
+    }
+
     /**
      * Extracts a quoted value from a header that has a given key. For instance if the header is
      * content-disposition=form-data; name="my field"
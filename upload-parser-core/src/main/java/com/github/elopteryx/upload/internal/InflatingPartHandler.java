@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import com.github.elopteryx.upload.errors.MultipartException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses the data of the parts which have a gzip or deflate content encoding. It sits
+ * between the transfer encoding and the handler of the part, so the handler only sees
+ * the decompressed bytes. The gzip header and trailer are processed here, the compressed
+ * data by an {@link Inflater}, which is taken from a pool for the duration of the part.
+ * The instance itself is reused between the parts by the parser.
+ *
+ * <p>The upload parsers also use it to decompress the whole request body, when the
+ * request has a content encoding, in which case the multipart parser is the handler.</p>
+ */
+final class InflatingPartHandler implements MultipartParser.PartHandler {
+
+    /**
+     * The maximum number of idle inflaters kept in each pool.
+     */
+    private static final int MAX_IDLE_INFLATERS = 16;
+    /**
+     * The inflaters for the raw deflate data in the gzip members.
+     */
+    private static final ResourcePool<Inflater> GZIP_INFLATERS = new ResourcePool<>(() -> new Inflater(true), Inflater::end, MAX_IDLE_INFLATERS);
+    /**
+     * The inflaters for the zlib wrapped data of the deflate encoding.
+     */
+    private static final ResourcePool<Inflater> ZLIB_INFLATERS = new ResourcePool<>(Inflater::new, Inflater::end, MAX_IDLE_INFLATERS);
+
+    private static final int GZIP_MAGIC = 0x8B1F;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    // The states follow the order of the fields in the gzip format
+    private static final int GZIP_FIXED = 0;
+    private static final int GZIP_EXTRA_LENGTH = 1;
+    private static final int GZIP_EXTRA = 2;
+    private static final int GZIP_NAME = 3;
+    private static final int GZIP_COMMENT = 4;
+    private static final int GZIP_HEADER_CRC = 5;
+    private static final int BODY = 6;
+    private static final int TRAILER = 7;
+    private static final int DONE = 8;
+
+    /**
+     * The buffer receiving the decompressed data.
+     */
+    private final ByteBuffer output;
+    /**
+     * The checksum of the decompressed data of the current gzip member.
+     */
+    private final CRC32 crc = new CRC32();
+    /**
+     * Collects the fixed size fields of the gzip header and trailer.
+     */
+    private final byte[] fields = new byte[10];
+    /**
+     * The handler receiving the decompressed data.
+     */
+    private MultipartParser.PartHandler downstream;
+    /**
+     * The inflater of the current part, null between the parts.
+     */
+    private Inflater inflater;
+    private boolean gzip;
+    private boolean started;
+    private int state;
+    /**
+     * The number of bytes collected into the fields, or left to skip.
+     */
+    private int count;
+    private int flags;
+    /**
+     * Whether the handler stopped because its downstream was paused.
+     */
+    private boolean paused;
+    /**
+     * Whether the output holds decompressed data which the downstream has not taken yet.
+     */
+    private boolean outputHeld;
+    /**
+     * Holds the compressed data received while the handler was paused.
+     */
+    private ByteBuffer pending;
+
+    /**
+     * Public constructor.
+     * @param output The buffer receiving the decompressed data
+     */
+    InflatingPartHandler(final ByteBuffer output) {
+        this.output = output;
+    }
+
+    /**
+     * Returns whether the given content encoding can be decompressed.
+     * @param contentEncoding The value of the Content-Encoding header, can be null
+     * @return Whether the encoding is supported
+     */
+    static boolean isSupported(final String contentEncoding) {
+        return isGzip(contentEncoding) || "deflate".equalsIgnoreCase(contentEncoding);
+    }
+
+    private static boolean isGzip(final String contentEncoding) {
+        return "gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding);
+    }
+
+    /**
+     * Prepares the handler for a new part.
+     * @param downstream The handler receiving the decompressed data
+     * @param contentEncoding The content encoding of the part, one of the supported ones
+     */
+    void begin(final MultipartParser.PartHandler downstream, final String contentEncoding) {
+        this.downstream = downstream;
+        this.gzip = isGzip(contentEncoding);
+        this.inflater = gzip ? GZIP_INFLATERS.acquire() : ZLIB_INFLATERS.acquire();
+        this.started = false;
+        this.state = gzip ? GZIP_FIXED : BODY;
+        this.count = 0;
+        this.paused = false;
+        this.outputHeld = false;
+        crc.reset();
+        output.clear();
+        if (pending != null) {
+            pending.clear();
+        }
+    }
+
+    @Override
+    public void beginPart(final Headers headers) throws IOException {
+        downstream.beginPart(headers);
+    }
+
+    @Override
+    public void data(final ByteBuffer buffer) throws IOException {
+        started |= buffer.hasRemaining();
+        if (!paused) {
+            process(buffer);
+        }
+        if (paused) {
+            hold(buffer);
+        }
+    }
+
+    @Override
+    public boolean isPaused() {
+        return paused;
+    }
+
+    @Override
+    public void resume() throws IOException {
+        paused = false;
+        if (downstream.isPaused()) {
+            downstream.resume();
+        }
+        if (outputHeld) {
+            downstream.data(output);
+            if (output.hasRemaining()) {
+                paused = true;
+                return;
+            }
+            output.clear();
+            outputHeld = false;
+        }
+        if (pending == null) {
+            pending = ByteBuffer.allocate(0);
+        }
+        pending.flip();
+        if (state == BODY) {
+            // The inflater can hold decompressed data even if all of its input was consumed
+            inflate(pending);
+        }
+        process(pending);
+        pending.compact();
+    }
+
+    /**
+     * Keeps the compressed data until the handler is resumed. The parser stops
+     * after the call which paused the handler, so this is bounded by the size of its input.
+     * @param buffer The data to keep
+     */
+    private void hold(final ByteBuffer buffer) {
+        if (pending == null || pending.remaining() < buffer.remaining()) {
+            final var previous = pending;
+            pending = ByteBuffer.allocate((previous == null ? 0 : previous.position()) + buffer.remaining());
+            if (previous != null) {
+                pending.put(previous.flip());
+            }
+        }
+        pending.put(buffer);
+    }
+
+    /**
+     * Processes the compressed data until it is consumed or the downstream is paused.
+     * @param buffer The buffer with the compressed data
+     * @throws IOException If the data is invalid or an error occurred in the handler
+     */
+    private void process(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && !paused) {
+            switch (state) {
+                case GZIP_FIXED:
+                    if (collect(buffer, 10)) {
+                        if (((fields[0] & 0xFF) | (fields[1] & 0xFF) << 8) != GZIP_MAGIC || fields[2] != 8) {
+                            throw new MultipartException("Invalid gzip header in the part!");
+                        }
+                        flags = fields[3] & 0xFF;
+                        nextHeaderField();
+                    }
+                    break;
+                case GZIP_EXTRA_LENGTH:
+                    if (collect(buffer, 2)) {
+                        count = (fields[0] & 0xFF) | (fields[1] & 0xFF) << 8;
+                        state = GZIP_EXTRA;
+                        if (count == 0) {
+                            nextHeaderField();
+                        }
+                    }
+                    break;
+                case GZIP_EXTRA:
+                case GZIP_HEADER_CRC:
+                    final var skipped = Math.min(count, buffer.remaining());
+                    buffer.position(buffer.position() + skipped);
+                    count -= skipped;
+                    if (count == 0) {
+                        nextHeaderField();
+                    }
+                    break;
+                case GZIP_NAME:
+                case GZIP_COMMENT:
+                    if (buffer.get() == 0) {
+                        nextHeaderField();
+                    }
+                    break;
+                case BODY:
+                    inflate(buffer);
+                    break;
+                case TRAILER:
+                    if (collect(buffer, 8)) {
+                        verifyTrailer();
+                        state = DONE;
+                    }
+                    break;
+                default:
+                    if (!gzip) {
+                        // Anything after the zlib stream is ignored
+                        buffer.position(buffer.limit());
+                        break;
+                    }
+                    // The gzip format allows several members
+                    inflater.reset();
+                    crc.reset();
+                    count = 0;
+                    state = GZIP_FIXED;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Copies the bytes of a fixed size field.
+     * @param buffer The buffer with the part data
+     * @param length The length of the field
+     * @return Whether the field is complete
+     */
+    private boolean collect(final ByteBuffer buffer, final int length) {
+        final var transferred = Math.min(length - count, buffer.remaining());
+        buffer.get(fields, count, transferred);
+        count += transferred;
+        if (count == length) {
+            count = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next optional field of the gzip header which is present, or to the body.
+     */
+    private void nextHeaderField() {
+        count = 0;
+        if ((flags & FEXTRA) != 0 && state < GZIP_EXTRA_LENGTH) {
+            state = GZIP_EXTRA_LENGTH;
+        } else if ((flags & FNAME) != 0 && state < GZIP_NAME) {
+            state = GZIP_NAME;
+        } else if ((flags & FCOMMENT) != 0 && state < GZIP_COMMENT) {
+            state = GZIP_COMMENT;
+        } else if ((flags & FHCRC) != 0 && state < GZIP_HEADER_CRC) {
+            state = GZIP_HEADER_CRC;
+            count = 2;
+        } else {
+            state = BODY;
+        }
+    }
+
+    /**
+     * Inflates the compressed data and passes the output to the handler, one buffer at a time,
+     * so the size limits of the handler stop a decompression bomb early. The inflation stops
+     * while the handler is paused, the unconsumed input is kept until it is resumed.
+     * @param buffer The buffer with the compressed data
+     * @throws IOException If the data is invalid or an error occurred in the handler
+     */
+    private void inflate(final ByteBuffer buffer) throws IOException {
+        inflater.setInput(buffer);
+        while (true) {
+            if (downstream.isPaused()) {
+                paused = true;
+                return;
+            }
+            final int produced;
+            try {
+                produced = inflater.inflate(output);
+            } catch (final DataFormatException e) {
+                throw new MultipartException("Invalid compressed data in the part: " + e.getMessage());
+            }
+            if (produced > 0) {
+                output.flip();
+                if (gzip) {
+                    final var start = output.position();
+                    crc.update(output);
+                    output.position(start);
+                }
+                downstream.data(output);
+                if (output.hasRemaining()) {
+                    paused = true;
+                    outputHeld = true;
+                    return;
+                }
+                output.clear();
+            }
+            if (inflater.finished()) {
+                state = gzip ? TRAILER : DONE;
+                return;
+            }
+            if (inflater.needsDictionary()) {
+                throw new MultipartException("Compressed parts with a preset dictionary are not supported!");
+            }
+            if (produced == 0 && inflater.needsInput()) {
+                return;
+            }
+        }
+    }
+
+    private void verifyTrailer() throws MultipartException {
+        final var expectedCrc = (fields[0] & 0xFFL) | (fields[1] & 0xFFL) << 8 | (fields[2] & 0xFFL) << 16 | (fields[3] & 0xFFL) << 24;
+        final var expectedSize = (fields[4] & 0xFFL) | (fields[5] & 0xFFL) << 8 | (fields[6] & 0xFFL) << 16 | (fields[7] & 0xFFL) << 24;
+        if (expectedCrc != crc.getValue() || expectedSize != (inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+            throw new MultipartException("Corrupt gzip data in the part!");
+        }
+    }
+
+    @Override
+    public void endPart() throws IOException {
+        try {
+            if (started && state != DONE) {
+                throw new MultipartException("The compressed data of the part ended unexpectedly!");
+            }
+            downstream.endPart();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Returns the inflater into its pool. Called at the end of the
+     * part, or when the parser is reset in the middle of it.
+     */
+    void release() {
+        if (inflater != null) {
+            inflater.reset();
+            (gzip ? GZIP_INFLATERS : ZLIB_INFLATERS).release(inflater);
+            inflater = null;
+            downstream = null;
+        }
+        paused = false;
+        outputHeld = false;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import com.github.elopteryx.upload.StreamingPart;
+import com.github.elopteryx.upload.errors.MultipartException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The pull implementation of the parser. The request stream is only read when the caller
+ * asks for the next part or reads the data of the current one. The parsed data is staged
+ * in a buffer, and the parsing is paused as soon as the buffer holds data, so the memory
+ * usage does not depend on the size of the parts, or on how well compressed parts inflate.
+ * The parsing is resumed when the staged data has been read.
+ */
+public class IteratingUploadParser extends AbstractUploadParser implements Iterator<StreamingPart> {
+
+    /**
+     * The request object.
+     */
+    private final HttpServletRequest request;
+    /**
+     * The stream to read.
+     */
+    private InputStream inputStream;
+    /**
+     * The buffer holding the part data parsed from the last chunk of the request.
+     * The parts know their own range in it.
+     */
+    private ByteBuffer stagingBuffer;
+    /**
+     * The parts which have been parsed, but not yet returned by the iterator.
+     */
+    private final Deque<IteratedPart> pendingParts = new ArrayDeque<>();
+    /**
+     * The part which was returned last by the iterator.
+     */
+    private IteratedPart currentPart;
+    /**
+     * The part which receives the data from the multipart parser.
+     */
+    private IteratedPart parsedPart;
+
+    public IteratingUploadParser(final HttpServletRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * Sets up the necessary objects to start the parsing and returns the iterator
+     * of the parts. Nothing is read from the request stream at this point.
+     * @return The iterator of the parts
+     * @throws IOException If an error occurred with the I/O
+     */
+    public Iterator<StreamingPart> setupIteration() throws IOException {
+        init(request);
+        if (parseState == null) {
+            throw new IllegalArgumentException("Not a multipart/form-data request!");
+        }
+        inputStream = request.getInputStream();
+        // Nothing has been read yet, so there is nothing to resume
+        dataBuffer.limit(0);
+        // The parser pauses after each call which stages data, a call passes at most the data
+        // of a chunk, or of a decompressed buffer, extended by the data held by the decoders
+        stagingBuffer = allocateBuffer(dataBuffer.capacity() * 2);
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (pendingParts.isEmpty() && !parseState.isComplete()) {
+                skipCurrentPart();
+                readChunk();
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return !pendingParts.isEmpty();
+    }
+
+    @Override
+    public StreamingPart next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        skipCurrentPart();
+        currentPart = pendingParts.poll();
+        return currentPart;
+    }
+
+    /**
+     * Closes the channel of the current part if it still has unread data, as
+     * that data is going to be dropped.
+     */
+    private void skipCurrentPart() {
+        if (currentPart != null && (!currentPart.isFinished() || currentPart.stagedStart < currentPart.stagedEnd)) {
+            currentPart.channel.close();
+        }
+    }
+
+    /**
+     * Resumes the paused parsing, or reads the next chunk from the request stream and
+     * parses it. The previously staged data is dropped, so this can only be called if there
+     * are no parts waiting to be returned and the current part has no unread staged data.
+     * @throws IOException If an error occurred with the I/O
+     */
+    private void readChunk() throws IOException {
+        stagingBuffer.clear();
+        if (parsedPart != null) {
+            parsedPart.stagedStart = 0;
+            parsedPart.stagedEnd = 0;
+        }
+        if (isParsingPaused()) {
+            resumeParsing();
+            return;
+        }
+        final var count = readDataBuffer(inputStream);
+        if (count == -1) {
+            finishRequestBody();
+            if (!parseState.isComplete()) {
+                throw new MultipartException("Stream ended unexpectedly!");
+            }
+        } else if (count > 0) {
+            parseDataBuffer(count);
+        }
+    }
+
+    /**
+     * Reads the data of the given part into the buffer, parsing the
+     * next chunks of the request if there is no staged data available.
+     * @param part The part to read
+     * @param dst The buffer to read into
+     * @return The number of bytes read, or -1 if the part has ended
+     * @throws IOException If an error occurred with the I/O
+     */
+    private int read(final IteratedPart part, final ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        while (part.stagedStart == part.stagedEnd) {
+            if (part.isFinished()) {
+                return -1;
+            }
+            readChunk();
+        }
+        final var count = Math.min(dst.remaining(), part.stagedEnd - part.stagedStart);
+        stagingBuffer.limit(part.stagedStart + count).position(part.stagedStart);
+        dst.put(stagingBuffer);
+        part.stagedStart += count;
+        return count;
+    }
+
+    @Override
+    public void beginPart(final Headers headers) {
+        final var names = PartStreamImpl.namesOf(headers);
+        parsedPart = names == null ? new IteratedPart(null, null, headers) : new IteratedPart(names[1], names[0], headers);
+        context.reset(parsedPart);
+        beginDigests(headers);
+        beginSizeHint(parsedPart, headers);
+        pendingParts.add(parsedPart);
+    }
+
+    @Override
+    public void data(final ByteBuffer buffer) {
+        checkPartSize(buffer.remaining());
+        updateDigests(buffer);
+        updateSizeField(buffer);
+        if (stagingBuffer.remaining() < buffer.remaining()) {
+            // Only the bytes held back by the parser and the decoders can exceed the initial capacity
+            final var previous = stagingBuffer.flip();
+            stagingBuffer = allocateBuffer(previous.limit() + buffer.remaining());
+            stagingBuffer.put(previous);
+        }
+        if (parsedPart.stagedEnd != stagingBuffer.position()) {
+            parsedPart.stagedStart = stagingBuffer.position();
+        }
+        stagingBuffer.put(buffer);
+        parsedPart.stagedEnd = stagingBuffer.position();
+        context.updatePartBytesRead();
+    }
+
+    /**
+     * Pauses the parsing while the staging buffer holds data, so the decompressed
+     * parts are staged one buffer at a time.
+     * @return Whether the staging buffer holds data
+     */
+    @Override
+    public boolean isPaused() {
+        return stagingBuffer.position() > 0;
+    }
+
+    @Override
+    public void endPart() throws IOException {
+        parsedPart.markAsFinished();
+        context.updatePartBytesRead();
+        finishDigests();
+        endSizeField();
+    }
+
+    /**
+     * The part implementation, which knows the range of its
+     * data in the staging buffer.
+     */
+    private final class IteratedPart extends PartStreamImpl implements StreamingPart {
+
+        /**
+         * The channel reading the data of the part.
+         */
+        private final PartChannel channel = new PartChannel(this);
+        /**
+         * The stream, created on demand.
+         */
+        private InputStream stream;
+        /**
+         * The start of the unread staged data.
+         */
+        private int stagedStart;
+        /**
+         * The end of the staged data.
+         */
+        private int stagedEnd;
+
+        IteratedPart(final String fileName, final String fieldName, final Headers headers) {
+            super(fileName, fieldName, headers);
+        }
+
+        @Override
+        public ReadableByteChannel getChannel() {
+            return channel;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            if (stream == null) {
+                stream = Channels.newInputStream(channel);
+            }
+            return stream;
+        }
+    }
+
+    /**
+     * The channel of a part. It is closed by the iterator
+     * when the part is skipped.
+     */
+    private final class PartChannel implements ReadableByteChannel {
+
+        /**
+         * The part to read.
+         */
+        private final IteratedPart part;
+        /**
+         * Whether the channel is open.
+         */
+        private boolean open = true;
+
+        PartChannel(final IteratedPart part) {
+            this.part = part;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            return IteratingUploadParser.this.read(part, dst);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+/**
+ * The decoding loops which process the arrays of the heap buffers in bulk.
+ *
+ * <p>This version only uses the scalar implementations. The jar contains another version
+ * of this class for Java 16 and later, which uses the incubating Vector API if the
+ * jdk.incubator.vector module has been added to the runtime, for example with the
+ * {@code --add-modules jdk.incubator.vector} option.</p>
+ */
+final class Kernels {
+
+    private Kernels() {
+        // No need to instantiate
+    }
+
+    /**
+     * Returns whether the loops are vectorized.
+     * @return Whether the Vector API is used
+     */
+    static boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Decodes complete groups of four Base64 characters, three bytes at a time, until the first
+     * group which contains anything else than the alphabet. The bytes after the decoded groups
+     * may be overwritten, up to the room of the maximum number of groups.
+     * @param src The array holding the encoded data
+     * @param srcIndex The index of the first character
+     * @param dst The array to write the decoded bytes into
+     * @param dstIndex The index of the first decoded byte
+     * @param groups The maximum number of groups to decode
+     * @return The number of decoded groups
+     */
+    static int decodeBase64Groups(final byte[] src, final int srcIndex, final byte[] dst, final int dstIndex, final int groups) {
+        return ScalarKernels.decodeBase64Groups(src, srcIndex, dst, dstIndex, groups);
+    }
+
+    /**
+     * Returns the index of the first occurrence of the given value in the range.
+     * @param array The array to search in
+     * @param from The start of the range, inclusive
+     * @param to The end of the range, exclusive
+     * @param value The value to search for
+     * @return The index of the value, or -1 if it is not in the range
+     */
+    static int indexOf(final byte[] array, final int from, final int to, final byte value) {
+        return ScalarKernels.indexOf(array, from, to, value);
+    }
+}
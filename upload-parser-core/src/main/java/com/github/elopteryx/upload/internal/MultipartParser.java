@@ -20,10 +20,10 @@ package com.github.elopteryx.upload.internal;
 
 import com.github.elopteryx.upload.errors.MultipartException;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
  * Copied from Undertow. Made some refactoring to remove the
@@ -54,8 +54,28 @@ public final class MultipartParser {
      */
     private static final byte[] BOUNDARY_PREFIX = {CR, LF, DASH, DASH};
 
-    private static final String CONTENT_TRANSFER_ENCODING = "Content-Transfer-Encoding";
-    
+    /**
+     * The initial size of the buffer holding the current header block.
+     */
+    private static final int INITIAL_HEADER_BUFFER_SIZE = 256;
+
+    /**
+     * The initial size of the header range array, enough for four headers.
+     */
+    private static final int INITIAL_HEADER_RANGES_SIZE = 16;
+
+    /**
+     * The content type of the nested parts, which hold several files for the same form field.
+     */
+    private static final String MULTIPART_MIXED = "multipart/mixed";
+
+    /**
+     * The maximum depth of the nested multipart parts which are parsed. Deeper parts
+     * are passed to the handler as they are, this bounds the number of parsers a
+     * request can create.
+     */
+    private static final int MAX_NESTING_DEPTH = 4;
+
     private static final String ERROR_MESSAGE = "Invalid multipart request!";
 
     private MultipartParser() {
@@ -63,11 +83,29 @@ public final class MultipartParser {
     }
 
     interface PartHandler {
-        void beginPart(final Headers headers);
+        void beginPart(final Headers headers) throws IOException;
 
         void data(final ByteBuffer buffer) throws IOException;
 
         void endPart() throws IOException;
+
+        /**
+         * Returns whether the handler cannot take more data for now. The parser stops
+         * when its handler is paused, the rest of the data is parsed when it is called again.
+         * @return Whether the handler is paused
+         */
+        default boolean isPaused() {
+            return false;
+        }
+
+        /**
+         * Passes on the data which the handler held while it was paused. Called
+         * by the parser before it continues, the handler may pause again.
+         * @throws IOException If an error occurred with the I/O
+         */
+        default void resume() throws IOException {
+            // Nothing is held by default
+        }
     }
 
     /**
@@ -79,31 +117,98 @@ public final class MultipartParser {
      * @return A new state object to allow calling the parser.
      */
     public static ParseState beginParse(final PartHandler handler, final byte[] boundary, final int bufferSize, final Charset requestCharset) {
+        return beginParse(handler, boundary, bufferSize, requestCharset, false);
+    }
 
+    /**
+     * Begins parsing the multipart input, sets up the necessary objects.
+     * @param handler The part handler, which is to be called at certain points.
+     * @param boundary The boundary value for the multipart stream.
+     * @param bufferSize The size of the buffer for the encoding handlers.
+     * @param requestCharset The charset of the input.
+     * @param directBuffers Whether the buffers passed to the handler should be direct.
+     * @return A new state object to allow calling the parser.
+     */
+    public static ParseState beginParse(final PartHandler handler, final byte[] boundary, final int bufferSize,
+                                        final Charset requestCharset, final boolean directBuffers) {
+
+        return new ParseState(handler, bufferSize, requestCharset, boundaryToken(boundary), directBuffers, null);
+    }
+
+    private static byte[] boundaryToken(final byte[] boundary) {
         // We prepend CR/LF to the boundary to chop trailing CR/LF from body-data tokens.
         final var boundaryToken = new byte[boundary.length + BOUNDARY_PREFIX.length];
         System.arraycopy(BOUNDARY_PREFIX, 0, boundaryToken, 0, BOUNDARY_PREFIX.length);
         System.arraycopy(boundary, 0, boundaryToken, BOUNDARY_PREFIX.length, boundary.length);
-        return new ParseState(handler, bufferSize, requestCharset, boundaryToken);
+        return boundaryToken;
     }
 
     static class ParseState {
         private final PartHandler partHandler;
         private final Charset requestCharset;
         private final int bufferSize;
+        /**
+         * Whether the buffers allocated by the parser are direct.
+         */
+        private final boolean directBuffers;
+        /**
+         * The headers of the nested multipart part which is read by this
+         * parser, null for the top level parser.
+         */
+        private final Headers containerHeaders;
 
         /**
          * The boundary, complete with the initial CRLF--.
          */
         private final byte[] boundary;
 
+        /**
+         * The bad character shift table used for the boundary search.
+         */
+        private final int[] skipTable;
+
         // 0=preamble
         private int state;
         private int subState = Integer.MAX_VALUE; // used for preamble parsing
-        private ByteArrayOutputStream currentString;
-        private String currentHeaderName;
-        private Headers headers;
+        /**
+         * Holds the names and values of the current header block, without the delimiters.
+         */
+        private byte[] headerBytes = new byte[INITIAL_HEADER_BUFFER_SIZE];
+        private int headerLength;
+        /**
+         * The start of the header name or value being read.
+         */
+        private int segmentStart;
+        /**
+         * The start and end of the trimmed names and values, four entries for each header.
+         */
+        private int[] headerRanges = new int[INITIAL_HEADER_RANGES_SIZE];
+        private int headerCount;
         private Encoding encodingHandler;
+        /**
+         * The handler receiving the data of the current part. This is the part handler,
+         * unless the current part is a nested multipart part, which is passed to a child parser.
+         */
+        private PartHandler currentHandler;
+        /**
+         * The encoding handlers are reused between the parts, the decoding ones
+         * are only created when a part first needs them.
+         */
+        private final IdentityEncoding identityEncoding = new IdentityEncoding();
+        private Base64Encoding base64Encoding;
+        private QuotedPrintableEncoding quotedPrintableEncoding;
+        /**
+         * Whether the parts with a gzip or deflate content encoding are decompressed.
+         */
+        private boolean partDecompression;
+        /**
+         * Decompresses the current part, created when a part first needs it.
+         */
+        private InflatingPartHandler inflatingHandler;
+        /**
+         * Holds the false boundary fragments merged with the data following them.
+         */
+        private ByteBuffer carryBuffer;
 
         /**
          * Public constructor.
@@ -111,12 +216,22 @@ public final class MultipartParser {
          * @param requestCharset The charset of the input.
          * @param bufferSize The size of the allocated buffer.
          * @param boundary The boundary value for the multipart stream.
+         * @param directBuffers Whether the allocated buffers should be direct.
+         * @param containerHeaders The headers of the nested part to parse, null for the top level.
          */
-        ParseState(final PartHandler partHandler, final int bufferSize, final Charset requestCharset, final byte[] boundary) {
+        ParseState(final PartHandler partHandler, final int bufferSize, final Charset requestCharset, final byte[] boundary,
+                   final boolean directBuffers, final Headers containerHeaders) {
             this.partHandler = partHandler;
             this.requestCharset = requestCharset;
             this.bufferSize = bufferSize;
+            this.directBuffers = directBuffers;
+            this.containerHeaders = containerHeaders;
             this.boundary = boundary;
+            this.skipTable = new int[256];
+            Arrays.fill(skipTable, boundary.length);
+            for (var i = 0; i < boundary.length - 1; i++) {
+                skipTable[boundary[i] & 0xFF] = boundary.length - 1 - i;
+            }
         }
 
         /**
@@ -125,7 +240,8 @@ public final class MultipartParser {
          * @throws IOException If an error occurred with the I/O
          */
         void parse(final ByteBuffer buffer) throws IOException {
-            while (buffer.hasRemaining()) {
+            resume();
+            while (buffer.hasRemaining() && !isPaused()) {
                 switch (state) {
                     case 0:
                         preamble(buffer);
@@ -173,7 +289,6 @@ public final class MultipartParser {
                     if (b == LF) {
                         subState = 0;
                         state = 1;//preamble is done
-                        headers = new Headers();
                         return;
                     } else {
                         subState = -1;
@@ -182,118 +297,189 @@ public final class MultipartParser {
             }
         }
 
-        private void headerName(final ByteBuffer buffer) throws MultipartException {
+        private void headerName(final ByteBuffer buffer) throws IOException {
             while (buffer.hasRemaining()) {
+                if (appendHeaderBytes(buffer, true)) {
+                    return;
+                }
                 final var b = buffer.get();
                 if (b == ':') {
-                    if (currentString == null || subState != 0) {
+                    if (headerLength == segmentStart || subState != 0) {
                         throw new MultipartException(ERROR_MESSAGE);
                     } else {
-                        currentHeaderName = currentString.toString(requestCharset);
-                        currentString.reset();
+                        addHeaderRange();
                         subState = 0;
                         state = 2;
                         return;
                     }
                 } else if (b == CR) {
-                    if (currentString == null) {
+                    if (headerLength == segmentStart) {
                         subState = 1;
                     } else {
                         throw new MultipartException(ERROR_MESSAGE);
                     }
-                } else if (b == LF) {
-                    if (currentString != null || subState != 1) {
+                } else {
+                    if (headerLength != segmentStart || subState != 1) {
                         throw new MultipartException(ERROR_MESSAGE);
                     }
                     state = 3;
                     subState = 0;
-                    partHandler.beginPart(headers);
-                    //select the appropriate encoding
-                    final var encoding = headers.getHeader(CONTENT_TRANSFER_ENCODING);
-                    if (encoding == null) {
-                        encodingHandler = new IdentityEncoding();
-                    } else if ("base64".equalsIgnoreCase(encoding)) {
-                        encodingHandler = new Base64Encoding(bufferSize);
-                    } else if ("quoted-printable".equalsIgnoreCase(encoding)) {
-                        encodingHandler = new QuotedPrintableEncoding(bufferSize);
+                    final var headers = new Headers(Arrays.copyOf(headerBytes, headerLength),
+                            Arrays.copyOf(headerRanges, headerCount * 4), headerCount, requestCharset);
+                    headerLength = 0;
+                    segmentStart = 0;
+                    headerCount = 0;
+                    if (containerHeaders != null) {
+                        headers.setParent(containerHeaders);
+                    }
+                    final var nestedBoundary = nestedBoundary(headers);
+                    if (nestedBoundary == null) {
+                        currentHandler = partHandler;
+                        partHandler.beginPart(headers);
+                        final var contentEncoding = headers.getHeader(Headers.CONTENT_ENCODING);
+                        if (partDecompression && InflatingPartHandler.isSupported(contentEncoding)) {
+                            if (inflatingHandler == null) {
+                                inflatingHandler = new InflatingPartHandler(allocate(bufferSize));
+                            }
+                            inflatingHandler.begin(partHandler, contentEncoding);
+                            currentHandler = inflatingHandler;
+                        }
                     } else {
-                        encodingHandler = new IdentityEncoding();
+                        final var nested = new ParseState(partHandler, bufferSize, requestCharset,
+                                boundaryToken(nestedBoundary.getBytes(requestCharset)), directBuffers, headers);
+                        nested.setPartDecompression(partDecompression);
+                        currentHandler = new NestedPartHandler(nested);
                     }
-                    headers = null;
+                    encodingHandler = selectEncoding(headers.getHeader(Headers.CONTENT_TRANSFER_ENCODING));
+                    encodingHandler.reset();
                     return;
-
-                } else {
-                    if (subState != 0) {
-                        throw new MultipartException(ERROR_MESSAGE);
-                    } else if (currentString == null) {
-                        currentString = new ByteArrayOutputStream();
-                    }
-                    currentString.write(b);
                 }
             }
         }
 
         private void headerValue(final ByteBuffer buffer) throws MultipartException {
             while (buffer.hasRemaining()) {
+                if (appendHeaderBytes(buffer, false)) {
+                    return;
+                }
                 final var b = buffer.get();
                 if (b == CR) {
                     subState = 1;
-                } else if (b == LF) {
+                } else {
                     if (subState != 1) {
                         throw new MultipartException(ERROR_MESSAGE);
                     }
-                    headers.addHeader(currentHeaderName.trim(), currentString.toString(requestCharset).trim());
+                    addHeaderRange();
+                    headerCount++;
                     state = 1;
                     subState = 0;
-                    currentString = null;
                     return;
-                } else {
-                    if (subState != 0) {
-                        throw new MultipartException(ERROR_MESSAGE);
-                    }
-                    currentString.write(b);
                 }
             }
         }
 
+        /**
+         * Copies the bytes of the current header line into the header buffer, up to
+         * the next delimiter. The delimiters are the line endings, and the colon for
+         * the header names. The delimiter itself is not consumed.
+         * @param buffer The buffer containing the header bytes
+         * @param name Whether a header name or a header value is being read
+         * @return True if the buffer was consumed without finding a delimiter
+         * @throws MultipartException If the header line is malformed
+         */
+        private boolean appendHeaderBytes(final ByteBuffer buffer, final boolean name) throws MultipartException {
+            final var start = buffer.position();
+            final var limit = buffer.limit();
+            var pos = start;
+            while (pos < limit) {
+                final var b = buffer.get(pos);
+                if (b == CR || b == LF || name && b == ':') {
+                    break;
+                }
+                pos++;
+            }
+            final var count = pos - start;
+            if (count > 0) {
+                if (subState != 0) {
+                    throw new MultipartException(ERROR_MESSAGE);
+                }
+                if (headerLength + count > headerBytes.length) {
+                    headerBytes = Arrays.copyOf(headerBytes, Math.max(headerBytes.length * 2, headerLength + count));
+                }
+                buffer.get(headerBytes, headerLength, count);
+                headerLength += count;
+            }
+            return pos == limit;
+        }
+
+        /**
+         * Returns the boundary of the nested multipart part, if the part is one
+         * and the nesting is not too deep.
+         * @param headers The headers of the part
+         * @return The boundary, or null if the part should be passed to the part handler
+         */
+        private static String nestedBoundary(final Headers headers) {
+            final var contentType = headers.getHeader(Headers.CONTENT_TYPE);
+            if (headers.getDepth() >= MAX_NESTING_DEPTH || contentType == null
+                    || !contentType.regionMatches(true, 0, MULTIPART_MIXED, 0, MULTIPART_MIXED.length())) {
+                return null;
+            }
+            final var boundary = Headers.extractBoundaryFromHeader(contentType);
+            if (boundary != null && boundary.length() > 1 && boundary.charAt(0) == '"' && boundary.charAt(boundary.length() - 1) == '"') {
+                return boundary.substring(1, boundary.length() - 1);
+            }
+            return boundary == null || boundary.isEmpty() ? null : boundary;
+        }
+
+        /**
+         * Selects the appropriate encoding handler for the given transfer encoding.
+         * @param encoding The value of the Content-Transfer-Encoding header, can be null
+         * @return The encoding handler
+         */
+        private Encoding selectEncoding(final String encoding) {
+            if ("base64".equalsIgnoreCase(encoding)) {
+                if (base64Encoding == null) {
+                    base64Encoding = new Base64Encoding(allocate(bufferSize));
+                }
+                return base64Encoding;
+            } else if ("quoted-printable".equalsIgnoreCase(encoding)) {
+                if (quotedPrintableEncoding == null) {
+                    quotedPrintableEncoding = new QuotedPrintableEncoding(allocate(bufferSize));
+                }
+                return quotedPrintableEncoding;
+            }
+            return identityEncoding;
+        }
+
+        /**
+         * Records the trimmed range of the header name or value which was read last,
+         * then starts the next one.
+         */
+        private void addHeaderRange() {
+            var start = segmentStart;
+            var end = headerLength;
+            while (start < end && (headerBytes[start] & 0xFF) <= ' ') {
+                start++;
+            }
+            while (end > start && (headerBytes[end - 1] & 0xFF) <= ' ') {
+                end--;
+            }
+            final var index = headerCount * 4 + (state == 1 ? 0 : 2);
+            if (index + 2 > headerRanges.length) {
+                headerRanges = Arrays.copyOf(headerRanges, headerRanges.length * 2);
+            }
+            headerRanges[index] = start;
+            headerRanges[index + 1] = end;
+            segmentStart = headerLength;
+        }
+
         private void entity(final ByteBuffer buffer) throws IOException {
-            var startingSubState = subState;
-            final var pos = buffer.position();
+            if (subState >= 0 && !findBoundary(buffer)) {
+                return;
+            }
             while (buffer.hasRemaining()) {
                 final var b = buffer.get();
-                if (subState >= 0) {
-                    if (b == boundary[subState]) {
-                        //if we have a potential boundary match
-                        subState++;
-                        if (subState == boundary.length) {
-                            startingSubState = 0;
-                            //we have our data
-                            final var retBuffer = buffer.duplicate();
-                            retBuffer.position(pos);
-
-                            retBuffer.limit(Math.max(buffer.position() - boundary.length, 0));
-                            encodingHandler.handle(partHandler, retBuffer);
-                            partHandler.endPart();
-                            subState = -1;
-                        }
-                    } else if (b == boundary[0]) {
-                        //we started half way through a boundary, but it turns out we did not actually meet the boundary condition
-                        //so we call the part handler with our copy of the boundary data
-                        if (startingSubState > 0) {
-                            encodingHandler.handle(partHandler, ByteBuffer.wrap(boundary, 0, startingSubState));
-                            startingSubState = 0;
-                        }
-                        subState = 1;
-                    } else {
-                        //we started half way through a boundary, but it turns out we did not actually meet the boundary condition
-                        //so we call the part handler with our copy of the boundary data
-                        if (startingSubState > 0) {
-                            encodingHandler.handle(partHandler, ByteBuffer.wrap(boundary, 0, startingSubState));
-                            startingSubState = 0;
-                        }
-                        subState = 0;
-                    }
-                } else if (subState == -1) {
+                if (subState == -1) {
                     if (b == CR) {
                         subState = -2;
                     } else if (b == DASH) {
@@ -304,7 +490,6 @@ public final class MultipartParser {
                         //ok, we have our data
                         subState = 0;
                         state = 1;
-                        headers = new Headers();
                         return;
                     } else if (b == DASH) {
                         subState = -3;
@@ -320,27 +505,331 @@ public final class MultipartParser {
                     }
                 }
             }
-            //handle the data we read so far
-            final var retBuffer = buffer.duplicate();
-            retBuffer.position(pos);
-            if (subState == 0) {
-                //if we end partially through a boundary we do not handle the data
-                encodingHandler.handle(partHandler, retBuffer);
-            } else if (retBuffer.remaining() > subState && subState > 0) {
-                //we have some data to handle, and the end of the buffer might be a boundary match
-                retBuffer.limit(retBuffer.limit() - subState);
-                encodingHandler.handle(partHandler, retBuffer);
+        }
+
+        /**
+         * Ends the current part, after the encoding passed on the data it still held.
+         * @throws IOException If an error occurred with the I/O
+         */
+        private void endPart() throws IOException {
+            encodingHandler.finish(currentHandler);
+            currentHandler.endPart();
+        }
+
+        /**
+         * Looks for the boundary in the given buffer and passes the preceding bytes
+         * to the encoding handler. If the buffer ends with a partial boundary match then
+         * its length is stored in the sub state and the matched bytes are held back
+         * until the next buffer decides whether they belong to the part or not.
+         * @param buffer The buffer containing the part data
+         * @return True if the boundary was found and the part ended, false if the buffer was consumed
+         * @throws IOException If an error occurred with the I/O
+         */
+        private boolean findBoundary(final ByteBuffer buffer) throws IOException {
+            final var limit = buffer.limit();
+            var held = 0;
+            if (subState > 0) {
+                //we ended half way through a boundary previously, check whether the new data completes it
+                final var carried = subState;
+                var pos = buffer.position();
+                while (pos < limit && subState < boundary.length && buffer.get(pos) == boundary[subState]) {
+                    pos++;
+                    subState++;
+                }
+                if (subState == boundary.length) {
+                    buffer.position(pos);
+                    endPart();
+                    subState = -1;
+                    return true;
+                }
+                if (pos == limit) {
+                    buffer.position(pos);
+                    return false;
+                }
+                //it turns out we did not actually meet the boundary condition
+                //so the held back bytes are passed along with the data following them
+                held = carried;
+                subState = 0;
+            }
+            final var start = buffer.position();
+            final var match = indexOfBoundary(buffer, start, limit);
+            if (match >= 0) {
+                handleData(buffer, start, match, held);
+                if (isPaused()) {
+                    //the part is ended when the parsing continues and finds the boundary again
+                    buffer.position(match);
+                    return false;
+                }
+                buffer.position(match + boundary.length);
+                endPart();
+                subState = -1;
+                return true;
+            }
+            //if we end partially through a boundary we do not handle those bytes yet
+            final var partial = partialBoundaryLength(buffer, start, limit);
+            handleData(buffer, start, limit - partial, held);
+            buffer.position(limit);
+            subState = partial;
+            return false;
+        }
+
+        /**
+         * Finds the first complete occurrence of the boundary with the Boyer-Moore-Horspool
+         * algorithm. Most of the bytes are skipped without being compared, the steps are as
+         * long as the boundary itself when the data does not contain boundary characters.
+         * @param buffer The buffer to search
+         * @param from The first index to check, inclusive
+         * @param to The last index to check, exclusive
+         * @return The index where the boundary begins, or -1 if it was not found
+         */
+        private int indexOfBoundary(final ByteBuffer buffer, final int from, final int to) {
+            final var last = boundary.length - 1;
+            final var lastByte = boundary[last];
+            var index = from + last;
+            while (index < to) {
+                final var b = buffer.get(index);
+                if (b == lastByte) {
+                    var i = last - 1;
+                    while (i >= 0 && buffer.get(index - last + i) == boundary[i]) {
+                        i--;
+                    }
+                    if (i < 0) {
+                        return index - last;
+                    }
+                }
+                index += skipTable[b & 0xFF];
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the length of the longest tail of the given range which is
+         * also the beginning of the boundary. As the boundary itself cannot contain
+         * a carriage return only the positions holding one need to be checked.
+         * @param buffer The buffer to check
+         * @param from The first index to check, inclusive
+         * @param to The last index to check, exclusive
+         * @return The length of the partial match, zero if there is none
+         */
+        private int partialBoundaryLength(final ByteBuffer buffer, final int from, final int to) {
+            for (var index = Math.max(from, to - boundary.length + 1); index < to; index++) {
+                if (buffer.get(index) == CR) {
+                    var i = 1;
+                    while (index + i < to && buffer.get(index + i) == boundary[i]) {
+                        i++;
+                    }
+                    if (index + i == to) {
+                        return i;
+                    }
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Passes the given range of the buffer to the encoding handler. If there are
+         * held back boundary bytes from the previous buffer then they are merged with
+         * the range into the carry buffer, so each input buffer results in a single
+         * call instead of a separate one for the false boundary fragment.
+         * @param buffer The buffer containing the part data
+         * @param from The first index, inclusive
+         * @param to The last index, exclusive
+         * @param held The number of held back boundary bytes preceding the range
+         * @throws IOException If an error occurred with the I/O
+         */
+        private void handleData(final ByteBuffer buffer, final int from, final int to, final int held) throws IOException {
+            var start = from;
+            if (held > 0) {
+                if (carryBuffer == null) {
+                    carryBuffer = allocate(bufferSize + boundary.length);
+                }
+                carryBuffer.clear();
+                carryBuffer.put(boundary, 0, held);
+                final var count = Math.min(to - from, carryBuffer.remaining());
+                final var limit = buffer.limit();
+                buffer.limit(from + count);
+                buffer.position(from);
+                carryBuffer.put(buffer);
+                buffer.limit(limit);
+                carryBuffer.flip();
+                encodingHandler.handle(currentHandler, carryBuffer);
+                start += count;
+            }
+            if (start < to) {
+                //pass the range in place, the handlers may change the position and the limit, so restore them
+                final var limit = buffer.limit();
+                buffer.limit(to);
+                buffer.position(start);
+                encodingHandler.handle(currentHandler, buffer);
+                buffer.limit(limit);
+                buffer.position(to);
             }
         }
 
+        private ByteBuffer allocate(final int size) {
+            return directBuffers ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+
         boolean isComplete() {
             return state == -1;
         }
+
+        /**
+         * Returns whether the parsing is paused, because the part handler or the
+         * handler of the current part cannot take more data for now.
+         * @return Whether the parser is paused
+         */
+        boolean isPaused() {
+            return partHandler.isPaused() || state == 3 && currentHandler.isPaused();
+        }
+
+        /**
+         * Lets the handler of the current part pass on the data it held while it was paused.
+         * @throws IOException If an error occurred with the I/O
+         */
+        void resume() throws IOException {
+            if (state == 3 && currentHandler.isPaused()) {
+                currentHandler.resume();
+            }
+        }
+
+        /**
+         * Sets whether the parts with a gzip or deflate content encoding are decompressed
+         * before they are passed to the part handler. The size of such a part is the size of
+         * the decompressed data, so the part size limit also bounds the decompression.
+         * @param partDecompression Whether to decompress the parts
+         */
+        void setPartDecompression(final boolean partDecompression) {
+            this.partDecompression = partDecompression;
+        }
+
+        /**
+         * Returns the parser to its initial state, so it can be used for a new request
+         * with the same boundary. The allocated buffers and the encoding handlers are
+         * kept, which means that parsing similar requests again does not allocate
+         * anything beyond the headers of the parts.
+         */
+        void reset() {
+            release();
+            state = 0;
+            subState = Integer.MAX_VALUE;
+            headerLength = 0;
+            segmentStart = 0;
+            headerCount = 0;
+            encodingHandler = null;
+            currentHandler = null;
+        }
+
+        /**
+         * Returns the pooled resources held for the current part, like the inflater of
+         * a compressed part, including the ones of the nested parsers. Called when the
+         * parser is reset, or the parsing failed in the middle of a part.
+         */
+        void release() {
+            if (inflatingHandler != null) {
+                inflatingHandler.release();
+            }
+            if (currentHandler instanceof NestedPartHandler) {
+                ((NestedPartHandler) currentHandler).nested.release();
+            }
+        }
     }
 
 
+    /**
+     * Handles the body of a nested multipart part, by passing it to a child parser.
+     * The container part itself is not passed to the part handler, only the
+     * sub-parts are, as the child parser calls the same handler.
+     */
+    static class NestedPartHandler implements PartHandler {
+
+        private final ParseState nested;
+        /**
+         * Holds the data received while the nested parser was paused.
+         */
+        private ByteBuffer pending;
+
+        NestedPartHandler(final ParseState nested) {
+            this.nested = nested;
+        }
+
+        @Override
+        public void beginPart(final Headers headers) {
+            // The container part is not announced
+        }
+
+        @Override
+        public void data(final ByteBuffer buffer) throws IOException {
+            if (!isPaused()) {
+                nested.parse(buffer);
+            }
+            if (isPaused()) {
+                hold(buffer);
+            }
+            // Anything after the closing boundary is the epilogue, which is ignored
+            buffer.position(buffer.limit());
+        }
+
+        @Override
+        public boolean isPaused() {
+            return nested.isPaused() || pending != null && pending.position() > 0;
+        }
+
+        @Override
+        public void resume() throws IOException {
+            nested.resume();
+            if (pending != null) {
+                pending.flip();
+                nested.parse(pending);
+                if (!nested.isPaused()) {
+                    pending.position(pending.limit());
+                }
+                pending.compact();
+            }
+        }
+
+        /**
+         * Keeps the unparsed data until the nested parser is resumed. The parser stops
+         * after the call which paused it, so this is bounded by the size of its input.
+         * @param buffer The data to keep
+         */
+        private void hold(final ByteBuffer buffer) {
+            if (pending == null || pending.remaining() < buffer.remaining()) {
+                final var previous = pending;
+                pending = ByteBuffer.allocate((previous == null ? 0 : previous.position()) + buffer.remaining());
+                if (previous != null) {
+                    pending.put(previous.flip());
+                }
+            }
+            pending.put(buffer);
+        }
+
+        @Override
+        public void endPart() throws IOException {
+            if (!nested.isComplete()) {
+                throw new MultipartException(ERROR_MESSAGE);
+            }
+        }
+    }
+
     interface Encoding {
         void handle(final PartHandler handler, final ByteBuffer rawData) throws IOException;
+
+        /**
+         * Clears the decoding state, called before the handler is used for a new part.
+         */
+        default void reset() {
+            // No state by default
+        }
+
+        /**
+         * Passes the data still held by the encoding to the handler, called when the part has ended.
+         * @param handler The handler receiving the decoded data
+         * @throws IOException If an error occurred in the handler
+         */
+        default void finish(final PartHandler handler) throws IOException {
+            // Nothing is held by default
+        }
     }
 
     static class IdentityEncoding implements Encoding {
@@ -359,7 +848,17 @@ public final class MultipartParser {
         private final ByteBuffer buffer;
 
         Base64Encoding(final int size) {
-            buffer = ByteBuffer.allocate(size);
+            this(ByteBuffer.allocate(size));
+        }
+
+        Base64Encoding(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void reset() {
+            decoder.reset();
+            buffer.clear();
         }
 
         @Override
@@ -377,59 +876,190 @@ public final class MultipartParser {
         }
     }
 
+    /**
+     * Decodes the quoted-printable transfer encoding. The literal runs between the escapes are
+     * copied in bulk, the escapes, including the ones split between the calls, are decoded through
+     * a state machine. The decoded data is only passed to the handler when the buffer is full or
+     * the part has ended. Invalid escapes are passed through without decoding.
+     */
     static class QuotedPrintableEncoding implements Encoding {
 
-        boolean equalsSeen;
-        byte firstCharacter;
+        /**
+         * The state outside of an escape.
+         */
+        private static final int LITERAL = 0;
+        /**
+         * The state after the escape character.
+         */
+        private static final int ESCAPE = 1;
+        /**
+         * The state after the first hexadecimal digit.
+         */
+        private static final int SECOND_DIGIT = 2;
+        /**
+         * The state after the carriage return of a soft line break.
+         */
+        private static final int SOFT_BREAK = 3;
+        /**
+         * The values of the hexadecimal digits, -1 for the other characters.
+         */
+        private static final byte[] HEX_VALUES = new byte[128];
+
+        static {
+            Arrays.fill(HEX_VALUES, (byte) -1);
+            for (var i = 0; i < 10; i++) {
+                HEX_VALUES['0' + i] = (byte) i;
+            }
+            for (var i = 0; i < 6; i++) {
+                HEX_VALUES['A' + i] = (byte) (10 + i);
+                HEX_VALUES['a' + i] = (byte) (10 + i);
+            }
+        }
+
+        private int state;
+
+        private byte firstDigit;
 
         private final ByteBuffer buffer;
 
         QuotedPrintableEncoding(final int size) {
-            buffer = ByteBuffer.allocate(size);
+            this(ByteBuffer.allocate(size));
+        }
+
+        QuotedPrintableEncoding(final ByteBuffer buffer) {
+            this.buffer = buffer;
         }
 
         @Override
-        public void handle(final PartHandler handler, final ByteBuffer rawData) throws IOException {
-            var equalsSeen = this.equalsSeen;
-            var firstCharacter = this.firstCharacter;
+        public void reset() {
+            state = LITERAL;
+            firstDigit = 0;
             buffer.clear();
-            try {
-                while (rawData.hasRemaining()) {
-                    final var readByte = rawData.get();
-                    if (equalsSeen) {
-                        if (firstCharacter == 0) {
-                            if (readByte == '\n' || readByte == '\r') {
-                                //soft line break
-                                //ignore
-                                equalsSeen = false;
-                            } else {
-                                firstCharacter = readByte;
-                            }
-                        } else {
-                            var result = Character.digit((char) firstCharacter, 16);
-                            result <<= 4; //shift it 4 bytes and then add the next value to the end
-                            result += Character.digit((char) readByte, 16);
-                            buffer.put((byte) result);
-                            equalsSeen = false;
-                            firstCharacter = 0;
-                        }
-                    } else if (readByte == '=') {
-                        equalsSeen = true;
+        }
+
+        @Override
+        public void handle(final PartHandler handler, final ByteBuffer rawData) throws IOException {
+            while (rawData.hasRemaining()) {
+                if (state == LITERAL) {
+                    copyLiterals(handler, rawData, indexOfEscape(rawData));
+                    if (rawData.hasRemaining()) {
+                        rawData.get();
+                        state = ESCAPE;
+                    }
+                    continue;
+                }
+                final var readByte = rawData.get();
+                if (state == ESCAPE) {
+                    if (readByte == '\r') {
+                        state = SOFT_BREAK;
+                    } else if (readByte == '\n') {
+                        state = LITERAL;
+                    } else if (hexValue(readByte) >= 0) {
+                        firstDigit = readByte;
+                        state = SECOND_DIGIT;
                     } else {
-                        buffer.put(readByte);
-                        if (!buffer.hasRemaining()) {
-                            buffer.flip();
-                            handler.data(buffer);
-                            buffer.clear();
-                        }
+                        put(handler, (byte) '=');
+                        unread(rawData);
+                        state = LITERAL;
+                    }
+                } else if (state == SECOND_DIGIT) {
+                    final var secondValue = hexValue(readByte);
+                    if (secondValue >= 0) {
+                        put(handler, (byte) (hexValue(firstDigit) << 4 | secondValue));
+                    } else {
+                        put(handler, (byte) '=');
+                        put(handler, firstDigit);
+                        unread(rawData);
+                    }
+                    state = LITERAL;
+                } else {
+                    // The line feed of the soft line break is optional
+                    if (readByte != '\n') {
+                        unread(rawData);
                     }
+                    state = LITERAL;
                 }
+            }
+        }
+
+        /**
+         * Passes the remaining decoded data to the handler. An escape character at the end
+         * is treated as a soft line break, as the line break itself belongs to the boundary.
+         * @param handler The handler receiving the decoded data
+         * @throws IOException If an error occurred in the handler
+         */
+        @Override
+        public void finish(final PartHandler handler) throws IOException {
+            if (state == SECOND_DIGIT) {
+                put(handler, (byte) '=');
+                put(handler, firstDigit);
+            }
+            state = LITERAL;
+            if (buffer.position() > 0) {
+                buffer.flip();
+                handler.data(buffer);
+                buffer.clear();
+            }
+        }
+
+        private static int hexValue(final byte character) {
+            return character < 0 ? -1 : HEX_VALUES[character];
+        }
+
+        private static void unread(final ByteBuffer rawData) {
+            rawData.position(rawData.position() - 1);
+        }
+
+        private void put(final PartHandler handler, final byte value) throws IOException {
+            buffer.put(value);
+            flushIfFull(handler);
+        }
+
+        /**
+         * Returns the index of the next escape character in the raw data, or
+         * its limit if there are no more escapes.
+         * @param rawData The raw data
+         * @return The index of the next escape
+         */
+        private static int indexOfEscape(final ByteBuffer rawData) {
+            final var position = rawData.position();
+            final var limit = rawData.limit();
+            if (rawData.hasArray()) {
+                final var offset = rawData.arrayOffset();
+                final var index = Kernels.indexOf(rawData.array(), offset + position, offset + limit, (byte) '=');
+                return index == -1 ? limit : index - offset;
+            }
+            for (var i = position; i < limit; i++) {
+                if (rawData.get(i) == '=') {
+                    return i;
+                }
+            }
+            return limit;
+        }
+
+        /**
+         * Copies the literal characters from the raw data up to the given
+         * index in bulk, passing the buffer to the handler whenever it is full.
+         * @param handler The handler receiving the decoded data
+         * @param rawData The raw data
+         * @param end The index of the next escape
+         * @throws IOException If an error occurred in the handler
+         */
+        private void copyLiterals(final PartHandler handler, final ByteBuffer rawData, final int end) throws IOException {
+            final var limit = rawData.limit();
+            while (rawData.position() < end) {
+                rawData.limit(Math.min(end, rawData.position() + buffer.remaining()));
+                buffer.put(rawData);
+                rawData.limit(limit);
+                flushIfFull(handler);
+            }
+        }
+
+        private void flushIfFull(final PartHandler handler) throws IOException {
+            if (!buffer.hasRemaining()) {
                 buffer.flip();
                 handler.data(buffer);
-            } finally {
                 buffer.clear();
-                this.equalsSeen = equalsSeen;
-                this.firstCharacter = firstCharacter;
             }
         }
     }
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import com.github.elopteryx.upload.errors.PartDigestException;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes the digests of a part while its bytes stream through the parser, and
+ * verifies them against the Content-MD5 and Content-Digest headers of the part.
+ * The digest instances are pooled per algorithm, they are acquired at the start
+ * of a part and released when the part ends.
+ */
+final class PartDigests {
+
+    /**
+     * The name of the CRC32C checksum, which is computed by {@link CRC32C}.
+     */
+    static final String CRC32C = "CRC32C";
+
+    /**
+     * The maximum number of idle instances per algorithm.
+     */
+    private static final int MAX_IDLE_DIGESTS = 16;
+
+    /**
+     * The pools of the digest instances, keyed by the upper case algorithm name.
+     */
+    private static final Map<String, ResourcePool<MessageDigest>> POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * The digests of the part, keyed by the upper case algorithm name.
+     */
+    private final Map<String, MessageDigest> digests;
+
+    /**
+     * Whether the digest headers of the part should be verified.
+     */
+    private final boolean verify;
+
+    /**
+     * The headers of the part.
+     */
+    private final Headers headers;
+
+    private PartDigests(final Map<String, MessageDigest> digests, final boolean verify, final Headers headers) {
+        this.digests = digests;
+        this.verify = verify;
+        this.headers = headers;
+    }
+
+    /**
+     * Returns whether the given algorithm is supported. Every algorithm
+     * of {@link MessageDigest} is, and the CRC32C checksum.
+     * @param algorithm The name of the algorithm
+     * @return Whether it is supported
+     */
+    static boolean isSupported(final String algorithm) {
+        if (algorithm == null) {
+            return false;
+        }
+        if (CRC32C.equalsIgnoreCase(algorithm)) {
+            return true;
+        }
+        try {
+            MessageDigest.getInstance(algorithm);
+            return true;
+        } catch (final NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts the digests of a part. The given algorithms are always computed, the ones
+     * required by the Content-MD5 and Content-Digest headers of the part are added to them
+     * if the headers should be verified.
+     * @param algorithms The algorithms to compute
+     * @param headers The headers of the part
+     * @param verify Whether the digest headers should be verified
+     * @return The digests, or null if there is nothing to compute
+     */
+    static PartDigests begin(final String[] algorithms, final Headers headers, final boolean verify) {
+        Map<String, MessageDigest> digests = null;
+        for (final var algorithm : algorithms) {
+            digests = add(digests, algorithm);
+        }
+        if (verify) {
+            if (headers.getHeader(Headers.CONTENT_MD5) != null) {
+                digests = add(digests, "MD5");
+            }
+            final var contentDigest = headers.getHeader(Headers.CONTENT_DIGEST);
+            if (contentDigest != null) {
+                for (final var entry : parseContentDigest(contentDigest).keySet()) {
+                    digests = add(digests, entry);
+                }
+            }
+        }
+        return digests == null ? null : new PartDigests(digests, verify, headers);
+    }
+
+    private static Map<String, MessageDigest> add(final Map<String, MessageDigest> digests, final String algorithm) {
+        final var key = algorithm.toUpperCase(Locale.ENGLISH);
+        final var result = digests == null ? new LinkedHashMap<String, MessageDigest>() : digests;
+        if (!result.containsKey(key)) {
+            result.put(key, POOLS.computeIfAbsent(key, PartDigests::newPool).acquire());
+        }
+        return result;
+    }
+
+    private static ResourcePool<MessageDigest> newPool(final String algorithm) {
+        return new ResourcePool<>(() -> newDigest(algorithm), digest -> { }, MAX_IDLE_DIGESTS);
+    }
+
+    private static MessageDigest newDigest(final String algorithm) {
+        if (CRC32C.equals(algorithm)) {
+            return new Crc32cDigest();
+        }
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm, e);
+        }
+    }
+
+    /**
+     * Parses the value of a Content-Digest header, keeping the supported algorithms.
+     * The value is a dictionary, for example {@code sha-256=:base64value:}. The unknown
+     * algorithms and the malformed members are ignored.
+     * @param value The header value
+     * @return The expected digests, keyed by the algorithm name
+     */
+    static Map<String, byte[]> parseContentDigest(final String value) {
+        final var result = new LinkedHashMap<String, byte[]>();
+        for (final var member : value.split(",")) {
+            final var separator = member.indexOf('=');
+            if (separator == -1) {
+                continue;
+            }
+            final var key = member.substring(0, separator).trim().toLowerCase(Locale.ENGLISH);
+            final String algorithm;
+            if ("sha-256".equals(key)) {
+                algorithm = "SHA-256";
+            } else if ("sha-512".equals(key)) {
+                algorithm = "SHA-512";
+            } else {
+                continue;
+            }
+            final var item = member.substring(separator + 1).trim();
+            final var end = item.indexOf(':', 1);
+            if (!item.startsWith(":") || end == -1) {
+                continue;
+            }
+            try {
+                result.put(algorithm, Base64.getDecoder().decode(item.substring(1, end)));
+            } catch (final IllegalArgumentException e) {
+                // Not valid base64, ignored like the other malformed members
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Updates the digests with the remaining bytes of the buffer. The
+     * position of the buffer is not changed.
+     * @param buffer The buffer
+     */
+    void update(final ByteBuffer buffer) {
+        final var position = buffer.position();
+        for (final var digest : digests.values()) {
+            digest.update(buffer);
+            buffer.position(position);
+        }
+    }
+
+    /**
+     * Completes the digests, passes them to the part and releases the digest instances,
+     * then verifies the digest headers of the part, if needed.
+     * @param part The part
+     * @throws PartDigestException If a digest does not match its header
+     */
+    void finish(final PartStreamImpl part) throws PartDigestException {
+        final var results = new LinkedHashMap<String, byte[]>();
+        for (final var entry : digests.entrySet()) {
+            results.put(entry.getKey(), entry.getValue().digest());
+            POOLS.get(entry.getKey()).release(entry.getValue());
+        }
+        digests.clear();
+        part.setDigests(results);
+        if (verify) {
+            final var contentMd5 = headers.getHeader(Headers.CONTENT_MD5);
+            if (contentMd5 != null) {
+                final byte[] expected;
+                try {
+                    expected = Base64.getDecoder().decode(contentMd5.trim());
+                } catch (final IllegalArgumentException e) {
+                    throw new PartDigestException("Invalid Content-MD5 header: " + contentMd5, "MD5");
+                }
+                check("MD5", expected, results.get("MD5"));
+            }
+            final var contentDigest = headers.getHeader(Headers.CONTENT_DIGEST);
+            if (contentDigest != null) {
+                for (final var entry : parseContentDigest(contentDigest).entrySet()) {
+                    check(entry.getKey(), entry.getValue(), results.get(entry.getKey()));
+                }
+            }
+        }
+    }
+
+    private static void check(final String algorithm, final byte[] expected, final byte[] actual) throws PartDigestException {
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new PartDigestException("The " + algorithm + " digest of the part ("
+                    + Base64.getEncoder().encodeToString(actual)
+                    + ") does not match the expected value (" + Base64.getEncoder().encodeToString(expected) + ")!",
+                    algorithm);
+        }
+    }
+
+    /**
+     * Resets the digests and releases them into their pools, without completing them.
+     * Used when the parsing failed. Does nothing after the part has been finished.
+     */
+    void release() {
+        for (final var entry : digests.entrySet()) {
+            entry.getValue().reset();
+            POOLS.get(entry.getKey()).release(entry.getValue());
+        }
+        digests.clear();
+    }
+
+    /**
+     * Adapts the CRC32C checksum to the digest API, the result is
+     * the four bytes of the checksum in big endian order.
+     */
+    private static final class Crc32cDigest extends MessageDigest {
+
+        /**
+         * The checksum.
+         */
+        private final CRC32C checksum = new CRC32C();
+
+        private Crc32cDigest() {
+            super(CRC32C);
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return 4;
+        }
+
+        @Override
+        protected void engineUpdate(final byte input) {
+            checksum.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(final byte[] input, final int offset, final int len) {
+            checksum.update(input, offset, len);
+        }
+
+        @Override
+        protected void engineUpdate(final ByteBuffer input) {
+            checksum.update(input);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            final var value = checksum.getValue();
+            checksum.reset();
+            return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+
+        @Override
+        protected void engineReset() {
+            checksum.reset();
+        }
+    }
+}
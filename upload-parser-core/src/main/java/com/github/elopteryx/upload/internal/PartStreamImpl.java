@@ -19,17 +19,18 @@ package com.github.elopteryx.upload.internal;
 import com.github.elopteryx.upload.PartOutput;
 import com.github.elopteryx.upload.PartStream;
 
+import java.time.Duration;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Default implementation of {@link PartStream}.
  */
 public class PartStreamImpl implements PartStream {
 
-    /**
-     * The content type of the part.
-     */
-    private final String contentType;
     /**
      * The file name of the part.
      */
@@ -55,6 +56,26 @@ public class PartStreamImpl implements PartStream {
      * completely uploaded.
      */
     private boolean finished;
+    /**
+     * The time spent in the stages of the output.
+     */
+    private List<Duration> stageDurations = Collections.emptyList();
+    /**
+     * The number of bytes passed to the output by the stages, -1 if the output had no stages.
+     */
+    private long storedSize = -1;
+    /**
+     * The expected size of the part, -1 if it is not known.
+     */
+    private long sizeHint = -1;
+    /**
+     * The digests of the part, keyed by the upper case algorithm name.
+     */
+    private Map<String, byte[]> digests = Collections.emptyMap();
+    /**
+     * The errors of the outputs dropped by a best-effort tee.
+     */
+    private List<Throwable> outputFailures = Collections.emptyList();
     /**
      * The output object supplied by the caller. Not used here, but for
      * the Jax-Rs module it has to be made available.
@@ -70,14 +91,76 @@ public class PartStreamImpl implements PartStream {
     public PartStreamImpl(final String fileName, final String fieldName, final Headers headers) {
         this.fileName = fileName;
         this.fieldName = fieldName;
-        this.contentType = headers.getHeader(Headers.CONTENT_TYPE);
         this.fileField = fileName != null;
         this.headers = headers;
     }
 
+    /**
+     * Creates a copy of the given part, with its current state.
+     * @param other The part to copy
+     */
+    protected PartStreamImpl(final PartStreamImpl other) {
+        this.fileName = other.fileName;
+        this.fieldName = other.fieldName;
+        this.fileField = other.fileField;
+        this.headers = other.headers;
+        this.size = other.size;
+        this.finished = other.finished;
+        this.stageDurations = other.stageDurations;
+        this.storedSize = other.storedSize;
+        this.sizeHint = other.sizeHint;
+        this.digests = other.digests;
+        this.outputFailures = other.outputFailures;
+        this.output = other.output;
+    }
+
+    /**
+     * Creates a new instance from the headers of a part.
+     * @param headers The headers of the part
+     * @return The new instance, or null if the part is not a form field
+     * @see #namesOf(Headers)
+     */
+    static PartStreamImpl fromHeaders(final Headers headers) {
+        final var names = namesOf(headers);
+        return names == null ? null : new PartStreamImpl(names[1], names[0], headers);
+    }
+
+    /**
+     * Returns the field and the file name of a part. They are taken from the form-data
+     * disposition. The sub-parts of a nested part usually have a file disposition,
+     * they belong to the field of their container.
+     * @param headers The headers of the part
+     * @return The field name and the file name, or null if the part is not a form field
+     */
+    static String[] namesOf(final Headers headers) {
+        final var disposition = headers.getHeader(Headers.CONTENT_DISPOSITION);
+        if (disposition != null && disposition.startsWith("form-data")) {
+            return Headers.extractDispositionParameters(disposition);
+        } else if (headers.getParent() != null) {
+            final var fileName = disposition == null ? null : Headers.extractDispositionParameters(disposition)[1];
+            return new String[] {fieldName(headers.getParent()), fileName};
+        }
+        return null;
+    }
+
+    /**
+     * Returns the form field name of the nested part with the given headers. If the
+     * part is itself in a nested part then the name is looked up on the top level.
+     * @param headers The headers of the nested part
+     * @return The field name, or null if it is missing
+     */
+    private static String fieldName(final Headers headers) {
+        var current = headers;
+        while (current.getParent() != null) {
+            current = current.getParent();
+        }
+        final var disposition = current.getHeader(Headers.CONTENT_DISPOSITION);
+        return disposition == null ? null : Headers.extractDispositionParameters(disposition)[0];
+    }
+
     @Override
     public String getContentType() {
-        return contentType;
+        return headers.getHeader(Headers.CONTENT_TYPE);
     }
 
     @Override
@@ -105,6 +188,37 @@ public class PartStreamImpl implements PartStream {
         return finished;
     }
 
+    @Override
+    public long getStoredSize() {
+        return storedSize == -1 ? getKnownSize() : storedSize;
+    }
+
+    @Override
+    public long getSizeHint() {
+        return sizeHint;
+    }
+
+    @Override
+    public List<Duration> getStageDurations() {
+        return stageDurations;
+    }
+
+    @Override
+    public byte[] getDigest(final String algorithm) {
+        final var digest = digests.get(algorithm.toUpperCase(Locale.ENGLISH));
+        return digest == null ? null : digest.clone();
+    }
+
+    @Override
+    public List<Throwable> getOutputFailures() {
+        return outputFailures;
+    }
+
+    @Override
+    public int getDepth() {
+        return headers.getDepth();
+    }
+
     @Override
     public String getHeader(final String name) {
         return headers.getHeader(name);
@@ -128,6 +242,26 @@ public class PartStreamImpl implements PartStream {
         this.size = size;
     }
 
+    void setStoredSize(final long storedSize) {
+        this.storedSize = storedSize;
+    }
+
+    void setSizeHint(final long sizeHint) {
+        this.sizeHint = sizeHint;
+    }
+
+    void setStageDurations(final List<Duration> stageDurations) {
+        this.stageDurations = Collections.unmodifiableList(stageDurations);
+    }
+
+    void setDigests(final Map<String, byte[]> digests) {
+        this.digests = Collections.unmodifiableMap(digests);
+    }
+
+    void setOutputFailures(final List<Throwable> outputFailures) {
+        this.outputFailures = Collections.unmodifiableList(outputFailures);
+    }
+
     void markAsFinished() {
         this.finished = true;
     }
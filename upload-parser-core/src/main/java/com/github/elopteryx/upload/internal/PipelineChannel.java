@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import com.github.elopteryx.upload.PartStage;
+import com.github.elopteryx.upload.PartStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Passes the bytes of a part through the stages of its output, then writes
+ * them to the output channel. Each stage writes into a link, which calls the
+ * next stage. The links measure the time spent in them, the time of a stage
+ * is the time of its link, minus the time of the following one.
+ */
+final class PipelineChannel implements AbortableChannel {
+
+    /**
+     * The stages, in order.
+     */
+    private final List<PartStage> stages;
+    /**
+     * The output channel of the part.
+     */
+    private final WritableByteChannel output;
+    /**
+     * The links, the one at the index of a stage calls that stage, the last one writes to the output.
+     */
+    private final Link[] links;
+    /**
+     * Flag to determine whether the channel is closed or not.
+     */
+    private boolean open = true;
+
+    /**
+     * Package private constructor.
+     * @param stages The stages, in order
+     * @param output The output channel of the part
+     */
+    PipelineChannel(final List<PartStage> stages, final WritableByteChannel output) {
+        this.stages = stages;
+        this.output = output;
+        this.links = new Link[stages.size() + 1];
+        for (var i = 0; i < links.length; i++) {
+            links[i] = new Link(i);
+        }
+    }
+
+    /**
+     * Notifies the stages about the start of the part.
+     * @param part The part
+     * @throws IOException If an error occurred with the I/O
+     */
+    void begin(final PartStream part) throws IOException {
+        for (final var stage : stages) {
+            stage.begin(part);
+        }
+    }
+
+    /**
+     * Returns the number of bytes the last stage passed to the output.
+     * @return The number of bytes
+     */
+    long getOutputSize() {
+        return links[stages.size()].written;
+    }
+
+    /**
+     * Returns the time spent in each stage, excluding the time of the following
+     * stages and the output.
+     * @return The durations, in the order of the stages
+     */
+    List<Duration> getStageDurations() {
+        final var durations = new ArrayList<Duration>(stages.size());
+        for (var i = 0; i < stages.size(); i++) {
+            durations.add(Duration.ofNanos(links[i].nanos - links[i + 1].nanos));
+        }
+        return durations;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        return links[0].write(src);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Lets the stages finish the part, then closes the output. The channel
+     * stays open if a stage fails, so that the output can be aborted.
+     * @throws IOException If an error occurred with the I/O
+     */
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            for (var i = 0; i < stages.size(); i++) {
+                final var start = System.nanoTime();
+                stages.get(i).finish(links[i + 1]);
+                links[i].nanos += System.nanoTime() - start;
+            }
+            open = false;
+            output.close();
+        }
+    }
+
+    @Override
+    public void abort() throws IOException {
+        if (open) {
+            open = false;
+            for (final var stage : stages) {
+                stage.abort();
+            }
+            if (output instanceof AbortableChannel) {
+                ((AbortableChannel) output).abort();
+            }
+        }
+    }
+
+    /**
+     * The channel passed to a stage as the next one.
+     */
+    private final class Link implements WritableByteChannel {
+
+        /**
+         * The index of the stage called by this link, equal to the number of stages for the output.
+         */
+        private final int index;
+        /**
+         * The time spent in this link, including the following links.
+         */
+        private long nanos;
+        /**
+         * The number of bytes passed through this link.
+         */
+        private long written;
+
+        private Link(final int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final var length = src.remaining();
+            final var start = System.nanoTime();
+            if (index < stages.size()) {
+                stages.get(index).process(src, links[index + 1]);
+            } else {
+                while (src.hasRemaining()) {
+                    output.write(src);
+                }
+            }
+            nanos += System.nanoTime() - start;
+            final var count = length - src.remaining();
+            written += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            // The pipeline closes the output
+        }
+    }
+}
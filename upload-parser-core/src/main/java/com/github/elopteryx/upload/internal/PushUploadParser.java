@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import com.github.elopteryx.upload.MultipartFeed;
+import com.github.elopteryx.upload.PushHandler;
+import com.github.elopteryx.upload.errors.MultipartException;
+import com.github.elopteryx.upload.errors.PartSizeException;
+import com.github.elopteryx.upload.errors.RequestSizeException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The servlet independent implementation of the parser. The caller pushes the
+ * bytes of the multipart stream and the parsed parts are passed to the handler
+ * right away, without any buffering.
+ */
+public class PushUploadParser implements MultipartParser.PartHandler, MultipartFeed {
+
+    /**
+     * The handler receiving the parsed parts.
+     */
+    private final PushHandler handler;
+    /**
+     * The maximum size permitted for the parts, -1 if unlimited.
+     */
+    private final long maxPartSize;
+    /**
+     * The maximum size permitted for the stream, -1 if unlimited.
+     */
+    private final long maxRequestSize;
+    /**
+     * The reference to the multipart parser.
+     */
+    private final MultipartParser.ParseState parseState;
+    /**
+     * The part currently being parsed.
+     */
+    private PartStreamImpl currentPart;
+    /**
+     * The number of bytes read for the current part.
+     */
+    private long partSize;
+    /**
+     * The number of bytes fed so far.
+     */
+    private long requestSize;
+    /**
+     * Whether the complete event was already delivered.
+     */
+    private boolean completed;
+
+    /**
+     * Public constructor.
+     * @param handler The handler receiving the parts
+     * @param boundary The boundary of the stream
+     * @param charset The charset of the part headers
+     * @param bufferSize The size of the decoding buffers
+     * @param maxPartSize The maximum size of the parts, -1 if unlimited
+     * @param maxRequestSize The maximum size of the stream, -1 if unlimited
+     * @param directBuffers Whether the buffers should be direct
+     * @param decompressParts Whether the compressed parts should be decompressed
+     */
+    public PushUploadParser(final PushHandler handler, final byte[] boundary, final Charset charset, final int bufferSize,
+                            final long maxPartSize, final long maxRequestSize, final boolean directBuffers,
+                            final boolean decompressParts) {
+        this.handler = handler;
+        this.maxPartSize = maxPartSize;
+        this.maxRequestSize = maxRequestSize;
+        this.parseState = MultipartParser.beginParse(this, boundary, bufferSize, charset, directBuffers);
+        this.parseState.setPartDecompression(decompressParts);
+    }
+
+    @Override
+    public void feed(final ByteBuffer buffer) throws IOException {
+        requestSize += buffer.remaining();
+        if (maxRequestSize > -1 && requestSize > maxRequestSize) {
+            throw new RequestSizeException("The size of the request ("
+                    + requestSize
+                    + ") is greater than the allowed size ("
+                    + maxRequestSize
+                    + ")!", requestSize, maxRequestSize);
+        }
+        parseState.parse(buffer);
+        // Anything after the closing boundary is the epilogue, which is ignored
+        buffer.position(buffer.limit());
+        if (parseState.isComplete() && !completed) {
+            completed = true;
+            handler.onComplete();
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!parseState.isComplete()) {
+            throw new MultipartException("Stream ended unexpectedly!");
+        }
+    }
+
+    @Override
+    public boolean isComplete() {
+        return parseState.isComplete();
+    }
+
+    @Override
+    public void beginPart(final Headers headers) throws IOException {
+        final var part = PartStreamImpl.fromHeaders(headers);
+        currentPart = part == null ? new PartStreamImpl(null, null, headers) : part;
+        partSize = 0;
+        handler.onPartBegin(currentPart);
+    }
+
+    @Override
+    public void data(final ByteBuffer buffer) throws IOException {
+        partSize += buffer.remaining();
+        if (maxPartSize > -1 && partSize > maxPartSize) {
+            throw new PartSizeException("The size of the part ("
+                    + partSize
+                    + ") is greater than the allowed size ("
+                    + maxPartSize
+                    + ")!", partSize, maxPartSize);
+        }
+        currentPart.setSize(partSize);
+        handler.onData(currentPart, buffer);
+    }
+
+    @Override
+    public void endPart() throws IOException {
+        currentPart.markAsFinished();
+        handler.onPartEnd(currentPart);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, thread safe pool for objects which are expensive to create, for example
+ * the ones holding native memory. The objects must be reset by the caller before they
+ * are released. Objects released into a full pool are disposed of.
+ * @param <T> The type of the pooled objects
+ */
+final class ResourcePool<T> {
+
+    /**
+     * The objects waiting to be acquired.
+     */
+    private final Queue<T> idle = new ConcurrentLinkedQueue<>();
+    /**
+     * The number of the idle objects, tracked separately as the size of the queue is not constant time.
+     */
+    private final AtomicInteger idleCount = new AtomicInteger();
+    /**
+     * Creates a new object if the pool is empty.
+     */
+    private final Supplier<T> factory;
+    /**
+     * Frees the objects which do not fit into the pool.
+     */
+    private final Consumer<T> disposer;
+    /**
+     * The maximum number of idle objects.
+     */
+    private final int maxIdle;
+
+    /**
+     * Public constructor.
+     * @param factory Creates a new object if the pool is empty
+     * @param disposer Frees the objects which do not fit into the pool
+     * @param maxIdle The maximum number of idle objects
+     */
+    ResourcePool(final Supplier<T> factory, final Consumer<T> disposer, final int maxIdle) {
+        this.factory = factory;
+        this.disposer = disposer;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Returns an idle object, or a new one if there are none.
+     * @return The object
+     */
+    T acquire() {
+        final var resource = idle.poll();
+        if (resource == null) {
+            return factory.get();
+        }
+        idleCount.decrementAndGet();
+        return resource;
+    }
+
+    /**
+     * Returns the object into the pool, or disposes of it if the pool is full.
+     * @param resource The object, already reset
+     */
+    void release(final T resource) {
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            disposer.accept(resource);
+        } else {
+            idle.offer(resource);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+/**
+ * The scalar implementations of the decoding loops in {@link Kernels}. They
+ * are always available, the vectorized versions fall back to these for
+ * the parts of the arrays they cannot process.
+ */
+final class ScalarKernels {
+
+    private ScalarKernels() {
+        // No need to instantiate
+    }
+
+    /**
+     * Decodes complete groups of four Base64 characters, three bytes at a time, until the first
+     * group which contains anything else than the alphabet.
+     * @param src The array holding the encoded data
+     * @param srcIndex The index of the first character
+     * @param dst The array to write the decoded bytes into
+     * @param dstIndex The index of the first decoded byte
+     * @param groups The maximum number of groups to decode
+     * @return The number of decoded groups
+     */
+    static int decodeBase64Groups(final byte[] src, final int srcIndex, final byte[] dst, final int dstIndex, final int groups) {
+        final var table = Base64Decoder.QUAD_TABLE;
+        var srcPosition = srcIndex;
+        var dstPosition = dstIndex;
+        var count = 0;
+        while (count < groups) {
+            final var bits = table[src[srcPosition] & 0xFF] << 18
+                    | table[src[srcPosition + 1] & 0xFF] << 12
+                    | table[src[srcPosition + 2] & 0xFF] << 6
+                    | table[src[srcPosition + 3] & 0xFF];
+            if (bits < 0) {
+                break;
+            }
+            dst[dstPosition] = (byte) (bits >> 16);
+            dst[dstPosition + 1] = (byte) (bits >> 8);
+            dst[dstPosition + 2] = (byte) bits;
+            srcPosition += 4;
+            dstPosition += 3;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the index of the first occurrence of the given value in the range.
+     * @param array The array to search in
+     * @param from The start of the range, inclusive
+     * @param to The end of the range, exclusive
+     * @param value The value to search for
+     * @return The index of the value, or -1 if it is not in the range
+     */
+    static int indexOf(final byte[] array, final int from, final int to, final byte value) {
+        for (var i = from; i < to; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the first bytes of a part, until the size threshold is reached. The bytes are
+ * stored in fixed size segments, which are taken from a pool shared by the parsers
+ * as the data arrives, so a large threshold only costs memory for the parts which are
+ * being buffered, and only as much as they have sent. The segments are returned into
+ * the pool as soon as the bytes are written out. If the bytes span several segments,
+ * the view passed for validation is assembled in a buffer taken from a pool as well.
+ */
+final class SegmentedBuffer {
+
+    /**
+     * The size of the segments.
+     */
+    static final int SEGMENT_SIZE = 8192;
+    /**
+     * The maximum number of idle segments kept in each pool.
+     */
+    private static final int MAX_IDLE_SEGMENTS = 512;
+    /**
+     * The pool of the heap segments.
+     */
+    private static final ResourcePool<ByteBuffer> HEAP_SEGMENTS = new ResourcePool<>(
+            () -> ByteBuffer.allocate(SEGMENT_SIZE), segment -> { }, MAX_IDLE_SEGMENTS);
+    /**
+     * The pool of the direct segments.
+     */
+    private static final ResourcePool<ByteBuffer> DIRECT_SEGMENTS = new ResourcePool<>(
+            () -> ByteBuffer.allocateDirect(SEGMENT_SIZE), segment -> { }, MAX_IDLE_SEGMENTS);
+    /**
+     * The maximum number of bytes kept in the idle assembled buffers of each capacity.
+     */
+    private static final int MAX_IDLE_ASSEMBLED_BYTES = 4 * 1024 * 1024;
+    /**
+     * The pools of the buffers the segments are assembled in, by their capacity.
+     */
+    private static final Map<Integer, ResourcePool<ByteBuffer>> ASSEMBLED = new ConcurrentHashMap<>();
+    /**
+     * An empty buffer, passed on if nothing was buffered.
+     */
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    /**
+     * The pool of the segments.
+     */
+    private final ResourcePool<ByteBuffer> pool;
+    /**
+     * The maximum number of bytes to buffer.
+     */
+    private final int capacity;
+    /**
+     * The segments in use, in write mode while buffering.
+     */
+    private ByteBuffer[] segments = new ByteBuffer[1];
+    /**
+     * The number of segments in use.
+     */
+    private int segmentCount;
+    /**
+     * The number of bytes buffered.
+     */
+    private int size;
+    /**
+     * The buffer the segments are assembled in while they are viewed, null if there is none.
+     */
+    private ByteBuffer assembled;
+
+    /**
+     * Public constructor.
+     * @param capacity The maximum number of bytes to buffer
+     * @param direct Whether the segments should be direct
+     */
+    SegmentedBuffer(final int capacity, final boolean direct) {
+        this.capacity = capacity;
+        this.pool = direct ? DIRECT_SEGMENTS : HEAP_SEGMENTS;
+    }
+
+    /**
+     * Copies as many bytes from the source as the capacity allows.
+     * @param src The buffer to copy from
+     */
+    void put(final ByteBuffer src) {
+        while (size < capacity && src.hasRemaining()) {
+            var segment = segmentCount == 0 ? null : segments[segmentCount - 1];
+            if (segment == null || !segment.hasRemaining()) {
+                segment = pool.acquire();
+                segment.limit(Math.min(SEGMENT_SIZE, capacity - size));
+                if (segmentCount == segments.length) {
+                    segments = Arrays.copyOf(segments, segmentCount * 2);
+                }
+                segments[segmentCount++] = segment;
+            }
+            final var count = Math.min(segment.remaining(), src.remaining());
+            final var limit = src.limit();
+            src.limit(src.position() + count);
+            segment.put(src);
+            src.limit(limit);
+            size += count;
+        }
+    }
+
+    /**
+     * Returns a read-only buffer with the buffered bytes. A single segment is
+     * returned as it is, several segments are copied into a pooled buffer,
+     * which must be returned with {@link #releaseView()}.
+     * @return A new read-only buffer
+     */
+    ByteBuffer view() {
+        if (segmentCount == 0) {
+            return EMPTY.duplicate();
+        }
+        if (segmentCount == 1) {
+            return segments[0].duplicate().flip().asReadOnlyBuffer();
+        }
+        if (assembled == null) {
+            assembled = ASSEMBLED.computeIfAbsent(capacity, key -> new ResourcePool<>(
+                    () -> ByteBuffer.allocate(key), buffer -> { }, Math.max(1, MAX_IDLE_ASSEMBLED_BYTES / key))).acquire();
+        }
+        assembled.clear();
+        for (var i = 0; i < segmentCount; i++) {
+            assembled.put(segments[i].duplicate().flip());
+        }
+        return assembled.flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the buffer assembled by {@link #view()} into its pool. The views
+     * returned before must not be used after this.
+     */
+    void releaseView() {
+        if (assembled != null) {
+            ASSEMBLED.get(capacity).release(assembled.clear());
+            assembled = null;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the channel, with a single gathering
+     * write if the channel supports it, then releases the segments.
+     * @param channel The channel to write to
+     * @throws IOException If an error occurred with the I/O
+     */
+    void writeTo(final WritableByteChannel channel) throws IOException {
+        for (var i = 0; i < segmentCount; i++) {
+            segments[i].flip();
+        }
+        if (segmentCount > 1 && channel instanceof GatheringByteChannel) {
+            final var gatheringChannel = (GatheringByteChannel) channel;
+            var first = 0;
+            while (first < segmentCount) {
+                gatheringChannel.write(segments, first, segmentCount - first);
+                while (first < segmentCount && !segments[first].hasRemaining()) {
+                    first++;
+                }
+            }
+        } else {
+            for (var i = 0; i < segmentCount; i++) {
+                while (segments[i].hasRemaining()) {
+                    channel.write(segments[i]);
+                }
+            }
+        }
+        release();
+    }
+
+    /**
+     * Returns the segments into the pool and empties the buffer.
+     */
+    void release() {
+        releaseView();
+        for (var i = 0; i < segmentCount; i++) {
+            pool.release(segments[i].clear());
+            segments[i] = null;
+        }
+        segmentCount = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns the number of bytes buffered.
+     * @return The number of bytes
+     */
+    int size() {
+        return size;
+    }
+}
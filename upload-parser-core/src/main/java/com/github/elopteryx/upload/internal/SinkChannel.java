@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import com.github.elopteryx.upload.PartSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * Adapts a {@link PartSink} to the channel the parser writes to. Closing
+ * the channel commits the sink, aborting the channel aborts the sink.
+ */
+final class SinkChannel implements AbortableChannel {
+
+    /**
+     * The sink of the part, already opened.
+     */
+    private final PartSink sink;
+    /**
+     * Flag to determine whether the channel is closed or not.
+     */
+    private boolean open = true;
+
+    /**
+     * Public constructor.
+     * @param sink The sink, already opened
+     */
+    SinkChannel(final PartSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        final var length = src.remaining();
+        sink.write(src);
+        if (src.hasRemaining()) {
+            throw new IllegalStateException("The sink must consume the whole buffer!");
+        }
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            sink.commit();
+        }
+    }
+
+    @Override
+    public void abort() throws IOException {
+        if (open) {
+            open = false;
+            sink.abort();
+        }
+    }
+}
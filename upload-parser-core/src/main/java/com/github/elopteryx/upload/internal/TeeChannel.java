@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Writes the bytes of a part to several channels. Each channel reads the same
+ * buffer, its position is reset before the next channel. In the fail-all mode
+ * the first error is thrown, and the parser aborts every channel. In the
+ * best-effort mode a failing channel is aborted and dropped, and the error
+ * is only thrown if there are no channels left. Aborting closes the files
+ * opened by the parser, the channels passed by the caller are left open.
+ */
+final class TeeChannel implements AbortableChannel {
+
+    /**
+     * The channels, null after a channel has been dropped.
+     */
+    private final WritableByteChannel[] channels;
+    /**
+     * Whether the failing channels are dropped instead of failing the part.
+     */
+    private final boolean bestEffort;
+    /**
+     * The errors of the dropped channels.
+     */
+    private final List<Throwable> failures;
+    /**
+     * The number of the channels which were not dropped.
+     */
+    private int live;
+    /**
+     * Flag to determine whether the channel is closed or not.
+     */
+    private boolean open = true;
+
+    /**
+     * Package private constructor.
+     * @param channels The channels, in order
+     * @param bestEffort Whether the failing channels are dropped instead of failing the part
+     * @param failures The list collecting the errors of the dropped channels
+     */
+    TeeChannel(final List<WritableByteChannel> channels, final boolean bestEffort, final List<Throwable> failures) {
+        this.channels = channels.toArray(new WritableByteChannel[0]);
+        this.bestEffort = bestEffort;
+        this.failures = failures;
+        this.live = this.channels.length;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        final var position = src.position();
+        final var limit = src.limit();
+        for (var i = 0; i < channels.length; i++) {
+            final var channel = channels[i];
+            if (channel != null) {
+                src.position(position);
+                try {
+                    while (src.hasRemaining()) {
+                        channel.write(src);
+                    }
+                } catch (final IOException | RuntimeException e) {
+                    drop(i, e);
+                }
+            }
+        }
+        src.position(limit);
+        return limit - position;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Closes the channels in order. In the fail-all mode the channels after a
+     * failing one are aborted, as the part has failed. The channels before it are
+     * already closed, so they stay committed, closing is not atomic.
+     * @throws IOException If an error occurred with the I/O
+     */
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            for (var i = 0; i < channels.length; i++) {
+                final var channel = channels[i];
+                if (channel != null) {
+                    channels[i] = null;
+                    try {
+                        channel.close();
+                    } catch (final IOException | RuntimeException e) {
+                        if (!bestEffort) {
+                            abortAll(e);
+                            throw e;
+                        }
+                        failures.add(e);
+                        if (--live == 0) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void abort() throws IOException {
+        if (open) {
+            open = false;
+            final var error = new IOException("Failed to abort the outputs!");
+            abortAll(error);
+            if (error.getSuppressed().length > 0) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Handles the failure of a channel. In the fail-all mode the error is thrown
+     * as it is, in the best-effort mode the channel is aborted and dropped.
+     * @param index The index of the channel
+     * @param error The error of the channel
+     * @throws IOException The error, if the part fails
+     */
+    private void drop(final int index, final Exception error) throws IOException {
+        if (!bestEffort) {
+            throwUnchecked(error);
+        }
+        final var channel = channels[index];
+        channels[index] = null;
+        abort(channel, error);
+        failures.add(error);
+        if (--live == 0) {
+            throwUnchecked(error);
+        }
+    }
+
+    private void abortAll(final Throwable cause) {
+        for (var i = 0; i < channels.length; i++) {
+            final var channel = channels[i];
+            if (channel != null) {
+                channels[i] = null;
+                abort(channel, cause);
+            }
+        }
+    }
+
+    /**
+     * Aborts the channel, if it supports it, like the sinks and the files opened
+     * by the parser. The channels passed by the caller are not aborted.
+     * @param channel The channel
+     * @param cause The error, the errors of the abort are added to it
+     */
+    private static void abort(final WritableByteChannel channel, final Throwable cause) {
+        if (channel instanceof AbortableChannel) {
+            try {
+                ((AbortableChannel) channel).abort();
+            } catch (final IOException | RuntimeException e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
+    private static void throwUnchecked(final Exception error) throws IOException {
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        throw (RuntimeException) error;
+    }
+}
@@ -21,5 +21,14 @@
  * API of the servlet specification. Using that makes the
  * servlet input stream unavailable for this library or any code
  * that is written by the users.</p>
+ *
+ * <p>The blocking parse can also be driven by the caller, the
+ * {@link com.github.elopteryx.upload.UploadParser#iterate(javax.servlet.http.HttpServletRequest)}
+ * method returns the parts one by one, and their data is read from
+ * the request stream only when the caller reads it.</p>
+ *
+ * <p>For other environments the {@link com.github.elopteryx.upload.PushParser}
+ * provides the same parser without the servlet API. The caller reads the
+ * multipart stream from any source and pushes the bytes to the parser.</p>
  */
 package com.github.elopteryx.upload;
\ No newline at end of file
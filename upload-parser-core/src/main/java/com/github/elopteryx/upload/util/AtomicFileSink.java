@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.util;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.github.elopteryx.upload.PartSink;
+import com.github.elopteryx.upload.PartStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A sink implementation which publishes the part to the given file atomically.
+ * The data is written to a staging file next to the target, which is moved
+ * to the place of the target on commit, replacing the existing file, and
+ * deleted on abort. Readers of the target never see a partially written part.
+ *
+ * <p>The staging file is created in the directory of the target, as an atomic
+ * move is only possible inside the same file store. It is created with the default
+ * permissions, like the files written directly. If the sync flag is set, the data
+ * is forced to the storage device before the move, and the directory after it, on
+ * the platforms which can open a directory.</p>
+ */
+public class AtomicFileSink implements PartSink {
+
+    /**
+     * The file the part will be published to.
+     */
+    private final Path target;
+
+    /**
+     * The directory of the target, where the staging file is created.
+     */
+    private final Path directory;
+
+    /**
+     * Flag to determine whether the data is forced to the storage before the move.
+     */
+    private final boolean sync;
+
+    /**
+     * The staging file, created when the sink is opened.
+     */
+    private Path staging;
+
+    /**
+     * The channel writing the staging file.
+     */
+    private FileChannel channel;
+
+    /**
+     * Public constructor.
+     * @param target The file the part will be published to
+     */
+    public AtomicFileSink(final Path target) {
+        this(target, false);
+    }
+
+    /**
+     * Public constructor.
+     * @param target The file the part will be published to
+     * @param sync Whether the data should be forced to the storage before the move
+     */
+    public AtomicFileSink(final Path target, final boolean sync) {
+        this.target = Objects.requireNonNull(target).toAbsolutePath();
+        this.directory = this.target.getParent();
+        if (directory == null) {
+            throw new IllegalArgumentException("Invalid parameter value: " + target);
+        }
+        this.sync = sync;
+    }
+
+    /**
+     * Returns the file the part will be published to.
+     * @return The target file
+     */
+    public Path getTarget() {
+        return target;
+    }
+
+    @Override
+    public void open(final PartStream part) throws IOException {
+        if (channel != null) {
+            throw new IllegalStateException("The sink is already open!");
+        }
+        while (channel == null) {
+            final var suffix = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36);
+            final var path = directory.resolve("." + target.getFileName() + "." + suffix + ".part");
+            try {
+                channel = FileChannel.open(path, CREATE_NEW, WRITE);
+                staging = path;
+            } catch (final FileAlreadyExistsException e) {
+                // Another sink has chosen the same name, try a new one
+            }
+        }
+    }
+
+    @Override
+    public void write(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void commit() throws IOException {
+        try {
+            if (sync) {
+                channel.force(true);
+            }
+            channel.close();
+            Files.move(staging, target, ATOMIC_MOVE, REPLACE_EXISTING);
+            if (sync) {
+                forceDirectory();
+            }
+        } catch (final IOException e) {
+            try {
+                abort();
+            } catch (final IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Forces the directory to the storage device, so the move survives a crash.
+     * @throws IOException If an error occurred with the I/O
+     */
+    private void forceDirectory() throws IOException {
+        final FileChannel directoryChannel;
+        try {
+            directoryChannel = FileChannel.open(directory, READ);
+        } catch (final IOException e) {
+            // Some platforms, like Windows, cannot open a directory
+            return;
+        }
+        try (directoryChannel) {
+            directoryChannel.force(true);
+        }
+    }
+
+    @Override
+    public void abort() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+    }
+}
@@ -23,13 +23,13 @@ import java.util.Objects;
 
 /**
  * An input stream implementation which reads from the given byte buffer.
- * The stream will not copy bytes to a temporary buffer, therefore read-only
- * and direct buffers are not supported.
+ * The stream reads the bytes directly from the buffer, so heap, direct
+ * and read-only buffers are all supported.
  */
 public class ByteBufferBackedInputStream extends InputStream {
 
     /**
-     * The byte buffer. Cannot be read-only or direct.
+     * The byte buffer.
      */
     private final ByteBuffer buffer;
 
@@ -44,9 +44,6 @@ public class ByteBufferBackedInputStream extends InputStream {
      */
     public ByteBufferBackedInputStream(final ByteBuffer buffer) {
         this.buffer = Objects.requireNonNull(buffer);
-        if (buffer.isDirect() || buffer.isReadOnly()) {
-            throw new IllegalArgumentException("The buffer cannot be direct or read-only!");
-        }
     }
 
     @Override
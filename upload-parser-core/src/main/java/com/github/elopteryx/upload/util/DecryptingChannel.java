@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * A read-only channel decrypting the files written by the
+ * {@link com.github.elopteryx.upload.PartStage#encrypt(SecretKey)} stage. The channel
+ * supports random access, only the chunk containing the current position is read
+ * and decrypted, so a range of a large file can be served without decrypting the
+ * whole file.
+ *
+ * <p>The format of the file is the following:</p>
+ * <ul>
+ *     <li>The header: the magic number ({@code UPGC}), the version (1 byte), the size of
+ *     the chunks (4 bytes, big endian) and the base nonce (12 bytes).</li>
+ *     <li>The data chunks: each one is the AES-GCM encryption of the chunk size bytes of
+ *     the part, followed by the tag. Only the last data chunk can be shorter.</li>
+ *     <li>The final chunk: the tag of an empty chunk, which marks the end of the file.</li>
+ * </ul>
+ *
+ * <p>The nonce of a chunk is the base nonce with the index of the chunk added to its
+ * last eight bytes by exclusive or. The additional authenticated data of a chunk is
+ * the header, followed by a byte which is one for the final chunk and zero for the
+ * others. This way the chunks cannot be reordered, moved to another file, or the file
+ * truncated at a chunk boundary without the decryption failing.</p>
+ *
+ * <p>The final chunk is verified when the channel is created, every data chunk when
+ * it is read. The channel closes the given channel when it is closed.</p>
+ */
+public class DecryptingChannel implements SeekableByteChannel {
+
+    /**
+     * The magic number at the start of the files, the {@code UPGC} characters.
+     */
+    public static final int MAGIC = 0x55504743;
+    /**
+     * The version of the format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The length of the nonces.
+     */
+    public static final int NONCE_LENGTH = 12;
+    /**
+     * The length of the header.
+     */
+    public static final int HEADER_LENGTH = 4 + 1 + 4 + NONCE_LENGTH;
+    /**
+     * The length of the tag of each chunk.
+     */
+    public static final int TAG_LENGTH = 16;
+    /**
+     * The transformation used for the chunks.
+     */
+    public static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    /**
+     * The maximum size of the chunks. The header is not authenticated before the
+     * buffers of the chunks are allocated, so larger sizes are rejected.
+     */
+    public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The channel of the encrypted file.
+     */
+    private final SeekableByteChannel channel;
+    /**
+     * The key of the file.
+     */
+    private final SecretKey key;
+    /**
+     * The cipher decrypting the chunks.
+     */
+    private final Cipher cipher;
+    /**
+     * The header, the prefix of the authenticated data.
+     */
+    private final byte[] aad = new byte[HEADER_LENGTH + 1];
+    /**
+     * The base nonce of the file.
+     */
+    private final byte[] baseNonce = new byte[NONCE_LENGTH];
+    /**
+     * The size of the chunks, without the tag.
+     */
+    private final int chunkSize;
+    /**
+     * The size of the encrypted file.
+     */
+    private final long fileSize;
+    /**
+     * The number of the data chunks.
+     */
+    private final long chunkCount;
+    /**
+     * The size of the decrypted file.
+     */
+    private final long size;
+    /**
+     * The encrypted bytes of the current chunk.
+     */
+    private final ByteBuffer encrypted;
+    /**
+     * The decrypted bytes of the current chunk.
+     */
+    private final ByteBuffer decrypted;
+    /**
+     * The index of the chunk in the decrypted buffer, -1 if there is none.
+     */
+    private long currentChunk = -1;
+    /**
+     * The position in the decrypted file.
+     */
+    private long position;
+    /**
+     * Flag to determine whether the channel is closed or not.
+     */
+    private boolean open = true;
+
+    /**
+     * Public constructor. Reads the header and verifies the final chunk of the file.
+     * @param channel The channel of the encrypted file
+     * @param key The key of the file
+     * @throws IOException If the file could not be read, or it is not a valid encrypted file
+     */
+    public DecryptingChannel(final SeekableByteChannel channel, final SecretKey key) throws IOException {
+        this.channel = Objects.requireNonNull(channel);
+        this.key = Objects.requireNonNull(key);
+        final var header = ByteBuffer.wrap(aad, 0, HEADER_LENGTH);
+        readFully(0, header);
+        header.flip();
+        if (header.getInt() != MAGIC || header.get() != VERSION) {
+            throw new IOException("The file is not encrypted with a supported format!");
+        }
+        chunkSize = header.getInt();
+        header.get(baseNonce);
+        fileSize = channel.size();
+        final var body = fileSize - HEADER_LENGTH - TAG_LENGTH;
+        final var chunkLength = (long) chunkSize + TAG_LENGTH;
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE || body < 0 || body % chunkLength > 0 && body % chunkLength <= TAG_LENGTH) {
+            throw new IOException("The file is truncated or corrupted!");
+        }
+        chunkCount = (body + chunkLength - 1) / chunkLength;
+        size = body - chunkCount * TAG_LENGTH;
+        try {
+            cipher = Cipher.getInstance(TRANSFORMATION);
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        // A small file does not need buffers for a whole chunk
+        final var largestChunk = (int) Math.min(chunkSize, size);
+        encrypted = ByteBuffer.allocate(largestChunk + TAG_LENGTH);
+        decrypted = ByteBuffer.allocate(largestChunk);
+        decryptChunk(chunkCount, true);
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (position >= size) {
+            return -1;
+        }
+        var count = 0;
+        while (dst.hasRemaining() && position < size) {
+            final var chunk = position / chunkSize;
+            if (chunk != currentChunk) {
+                decryptChunk(chunk, false);
+                currentChunk = chunk;
+            }
+            decrypted.position((int) (position % chunkSize));
+            final var length = Math.min(dst.remaining(), decrypted.remaining());
+            final var limit = decrypted.limit();
+            decrypted.limit(decrypted.position() + length);
+            dst.put(decrypted);
+            decrypted.limit(limit);
+            position += length;
+            count += length;
+        }
+        return count;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        return position;
+    }
+
+    @Override
+    public DecryptingChannel position(final long newPosition) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Invalid parameter value: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    /**
+     * Returns the size of the decrypted file.
+     * @return The size
+     * @throws IOException If the channel is closed
+     */
+    @Override
+    public long size() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(final long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the size of the chunks of the file.
+     * @return The size of the chunks, without the tag
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Reads and decrypts the given chunk into the decrypted buffer.
+     * @param index The index of the chunk
+     * @param last Whether the chunk is the final one
+     * @throws IOException If the chunk could not be read or decrypted
+     */
+    private void decryptChunk(final long index, final boolean last) throws IOException {
+        currentChunk = -1;
+        encrypted.clear();
+        if (last) {
+            encrypted.limit(TAG_LENGTH);
+            readFully(fileSize - TAG_LENGTH, encrypted);
+        } else {
+            final var offset = HEADER_LENGTH + index * (chunkSize + TAG_LENGTH);
+            encrypted.limit((int) Math.min(encrypted.capacity(), fileSize - TAG_LENGTH - offset));
+            readFully(offset, encrypted);
+        }
+        encrypted.flip();
+        decrypted.clear();
+        aad[HEADER_LENGTH] = (byte) (last ? 1 : 0);
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce(baseNonce, index)));
+            cipher.updateAAD(aad);
+            cipher.doFinal(encrypted, decrypted);
+        } catch (final AEADBadTagException e) {
+            throw new IOException("The file is truncated or corrupted!", e);
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        decrypted.flip();
+    }
+
+    private void readFully(final long offset, final ByteBuffer buffer) throws IOException {
+        channel.position(offset);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("The file is truncated or corrupted!");
+            }
+        }
+    }
+
+    /**
+     * Returns the nonce of a chunk, the base nonce with the index of the chunk
+     * added to its last eight bytes by exclusive or.
+     * @param baseNonce The base nonce of the file
+     * @param index The index of the chunk
+     * @return The nonce of the chunk
+     */
+    public static byte[] nonce(final byte[] baseNonce, final long index) {
+        final var nonce = baseNonce.clone();
+        for (var i = 0; i < Long.BYTES; i++) {
+            nonce[NONCE_LENGTH - 1 - i] ^= (byte) (index >>> (i * 8));
+        }
+        return nonce;
+    }
+}
@@ -13,13 +13,20 @@ import java.util.Objects;
  *
  * <p>This implementation differs from the one returned
  * in {@link java.nio.channels.Channels#newChannel(InputStream)}
- * by one notable thing, it does not use a temporary buffer, because
- * it will not handle read-only or direct ByteBuffers.</p>
+ * by one notable thing, it does not use a temporary buffer for heap
+ * ByteBuffers, the stream reads directly into their backing array. Direct
+ * buffers are filled through a small reused array. Read-only buffers
+ * are not supported.</p>
  *
  * <p>The channel honors the close contract, it cannot be used after closing.</p>
  */
 class InputStreamBackedChannel implements ReadableByteChannel {
 
+    /**
+     * The size of the array used to fill direct buffers.
+     */
+    private static final int TRANSFER_SIZE = 8192;
+
     /**
      * Flag to determine whether the channel is closed or not.
      */
@@ -30,6 +37,11 @@ class InputStreamBackedChannel implements ReadableByteChannel {
      */
     private final InputStream inputStream;
 
+    /**
+     * The array used to fill direct buffers, allocated on first use.
+     */
+    private byte[] transferArray;
+
     /**
      * Public constructor.
      * @param inputStream The input stream
@@ -43,14 +55,24 @@ class InputStreamBackedChannel implements ReadableByteChannel {
         if (!open) {
             throw new ClosedChannelException();
         }
-        if (dst.isDirect() || dst.isReadOnly()) {
-            throw new IllegalArgumentException("The buffer cannot be direct or read-only!");
+        if (dst.isReadOnly()) {
+            throw new IllegalArgumentException("The buffer cannot be read-only!");
+        }
+        if (dst.hasArray()) {
+            final var position = dst.position();
+            final var read = inputStream.read(dst.array(), dst.arrayOffset() + position, dst.remaining());
+            if (read > 0) {
+                dst.position(position + read);
+            }
+            return read;
+        }
+        if (transferArray == null) {
+            transferArray = new byte[TRANSFER_SIZE];
+        }
+        final var read = inputStream.read(transferArray, 0, Math.min(dst.remaining(), transferArray.length));
+        if (read > 0) {
+            dst.put(transferArray, 0, read);
         }
-        final var buf = dst.array();
-        final var offset = dst.position();
-        final var len = dst.remaining();
-        final var read = inputStream.read(buf, offset, len);
-        dst.position(offset + read);
         return read;
     }
 
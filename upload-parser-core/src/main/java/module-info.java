@@ -1,8 +1,9 @@
 /**
- * Async file upload module for servlets.
+ * Async file upload module for servlets. The servlet API is only needed
+ * for the servlet based parsers, the push parser works without it.
  */
 module com.github.elopteryx.upload {
-    requires javax.servlet.api;
+    requires static javax.servlet.api;
     exports com.github.elopteryx.upload;
     exports com.github.elopteryx.upload.errors;
     exports com.github.elopteryx.upload.util;
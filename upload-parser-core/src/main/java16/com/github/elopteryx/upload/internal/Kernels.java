@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+/**
+ * The decoding loops which process the arrays of the heap buffers in bulk.
+ *
+ * <p>This is the version for Java 16 and later. It uses the incubating Vector API if the
+ * jdk.incubator.vector module has been added to the runtime, for example with the
+ * {@code --add-modules jdk.incubator.vector} option. Otherwise it uses the scalar
+ * implementations, like the version for Java 11.</p>
+ */
+final class Kernels {
+
+    /**
+     * The name of the module with the Vector API.
+     */
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    /**
+     * Whether the Vector API can be used.
+     */
+    private static final boolean VECTORIZED = vectorized();
+
+    private Kernels() {
+        // No need to instantiate
+    }
+
+    /**
+     * Checks whether the Vector API is available. The module of the library does not declare
+     * the dependency, so it has to read the module explicitly, if it is a named module.
+     * @return Whether the Vector API can be used
+     */
+    private static boolean vectorized() {
+        final var module = ModuleLayer.boot().findModule(VECTOR_MODULE);
+        if (module.isEmpty()) {
+            return false;
+        }
+        Kernels.class.getModule().addReads(module.get());
+        try {
+            return VectorKernels.isSupported();
+        } catch (final LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether the loops are vectorized.
+     * @return Whether the Vector API is used
+     */
+    static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    /**
+     * Decodes complete groups of four Base64 characters, three bytes at a time, until the first
+     * group which contains anything else than the alphabet. The bytes after the decoded groups
+     * may be overwritten, up to the room of the maximum number of groups.
+     * @param src The array holding the encoded data
+     * @param srcIndex The index of the first character
+     * @param dst The array to write the decoded bytes into
+     * @param dstIndex The index of the first decoded byte
+     * @param groups The maximum number of groups to decode
+     * @return The number of decoded groups
+     */
+    static int decodeBase64Groups(final byte[] src, final int srcIndex, final byte[] dst, final int dstIndex, final int groups) {
+        return VECTORIZED
+                ? VectorKernels.decodeBase64Groups(src, srcIndex, dst, dstIndex, groups)
+                : ScalarKernels.decodeBase64Groups(src, srcIndex, dst, dstIndex, groups);
+    }
+
+    /**
+     * Returns the index of the first occurrence of the given value in the range.
+     * @param array The array to search in
+     * @param from The start of the range, inclusive
+     * @param to The end of the range, exclusive
+     * @param value The value to search for
+     * @return The index of the value, or -1 if it is not in the range
+     */
+    static int indexOf(final byte[] array, final int from, final int to, final byte value) {
+        return VECTORIZED
+                ? VectorKernels.indexOf(array, from, to, value)
+                : ScalarKernels.indexOf(array, from, to, value);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 Adam Forgacs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.elopteryx.upload.internal;
+
+import static jdk.incubator.vector.VectorOperators.EQ;
+import static jdk.incubator.vector.VectorOperators.GE;
+import static jdk.incubator.vector.VectorOperators.LE;
+import static jdk.incubator.vector.VectorOperators.LSHL;
+import static jdk.incubator.vector.VectorOperators.LSHR;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The vectorized implementations of the decoding loops in {@link Kernels}. Only
+ * loaded if the Vector API is available. The loops process whole vectors, the
+ * remaining elements are handed over to the {@link ScalarKernels}.
+ */
+final class VectorKernels {
+
+    /**
+     * The species used for all operations.
+     */
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    /**
+     * The number of bytes in a vector.
+     */
+    private static final int LENGTH = SPECIES.length();
+    /**
+     * Moves the three decoded bytes of each group to the front of the vector,
+     * in big-endian order. The rest of the lanes are ignored.
+     */
+    private static final VectorShuffle<Byte> PACK_GROUPS = packGroups();
+
+    private VectorKernels() {
+        // No need to instantiate
+    }
+
+    private static VectorShuffle<Byte> packGroups() {
+        final var indexes = new int[LENGTH];
+        for (var i = 0; i < LENGTH / 4 * 3; i++) {
+            indexes[i] = i / 3 * 4 + 2 - i % 3;
+        }
+        return VectorShuffle.fromArray(SPECIES, indexes, 0);
+    }
+
+    /**
+     * Returns whether the vectors are large enough to hold complete groups.
+     * @return Whether the loops can be used
+     */
+    static boolean isSupported() {
+        return LENGTH >= 8;
+    }
+
+    /**
+     * Decodes complete groups of four Base64 characters. A vector of characters is translated
+     * to the six bit values with range comparisons, then the groups are combined in the integer
+     * lanes and the decoded bytes are compacted with a shuffle. The stores write a whole vector,
+     * so they are only used while there is room for that in the decoded range.
+     * @param src The array holding the encoded data
+     * @param srcIndex The index of the first character
+     * @param dst The array to write the decoded bytes into
+     * @param dstIndex The index of the first decoded byte
+     * @param groups The maximum number of groups to decode
+     * @return The number of decoded groups
+     */
+    static int decodeBase64Groups(final byte[] src, final int srcIndex, final byte[] dst, final int dstIndex, final int groups) {
+        final var groupsPerVector = LENGTH / 4;
+        var srcPosition = srcIndex;
+        var dstPosition = dstIndex;
+        var count = 0;
+        while ((groups - count) * 3 >= LENGTH) {
+            final var characters = ByteVector.fromArray(SPECIES, src, srcPosition);
+            final var upper = characters.compare(GE, 'A').and(characters.compare(LE, 'Z'));
+            final var lower = characters.compare(GE, 'a').and(characters.compare(LE, 'z'));
+            final var digit = characters.compare(GE, '0').and(characters.compare(LE, '9'));
+            final var plus = characters.compare(EQ, '+');
+            final var slash = characters.compare(EQ, '/');
+            if (!upper.or(lower).or(digit).or(plus).or(slash).allTrue()) {
+                break;
+            }
+            final var values = characters.add(ByteVector.zero(SPECIES)
+                    .blend(-'A', upper)
+                    .blend(26 - 'a', lower)
+                    .blend(52 - '0', digit)
+                    .blend(62 - '+', plus)
+                    .blend(63 - '/', slash));
+            // The lanes hold the four values of a group, the first one in the lowest byte
+            final var lanes = values.reinterpretAsInts();
+            final var bits = lanes.and(0x3F).lanewise(LSHL, 18)
+                    .or(lanes.lanewise(LSHR, 8).and(0x3F).lanewise(LSHL, 12))
+                    .or(lanes.lanewise(LSHR, 16).and(0x3F).lanewise(LSHL, 6))
+                    .or(lanes.lanewise(LSHR, 24));
+            bits.reinterpretAsBytes().rearrange(PACK_GROUPS).intoArray(dst, dstPosition);
+            srcPosition += LENGTH;
+            dstPosition += groupsPerVector * 3;
+            count += groupsPerVector;
+        }
+        return count + ScalarKernels.decodeBase64Groups(src, srcPosition, dst, dstPosition, groups - count);
+    }
+
+    /**
+     * Returns the index of the first occurrence of the given value in the range,
+     * comparing a vector of bytes at once.
+     * @param array The array to search in
+     * @param from The start of the range, inclusive
+     * @param to The end of the range, exclusive
+     * @param value The value to search for
+     * @return The index of the value, or -1 if it is not in the range
+     */
+    static int indexOf(final byte[] array, final int from, final int to, final byte value) {
+        var index = from;
+        while (index + LENGTH <= to) {
+            final var matches = ByteVector.fromArray(SPECIES, array, index).compare(EQ, value);
+            if (matches.anyTrue()) {
+                return index + matches.firstTrue();
+            }
+            index += LENGTH;
+        }
+        return ScalarKernels.indexOf(array, index, to, value);
+    }
+}
@@ -94,7 +94,7 @@ public class UploadReader implements MessageBodyReader<Object>, OnPartBegin, OnP
             throws IOException {
 
         if (multiPart == null) {
-            parse(annotations, httpHeaders, entityStream);
+            parse(annotations, mediaType, httpHeaders, entityStream);
         }
         if (MultiPart.class.equals(type)) {
             return multiPart;
@@ -116,7 +116,7 @@ public class UploadReader implements MessageBodyReader<Object>, OnPartBegin, OnP
         return null;
     }
 
-    private void parse(final Annotation[] annotations, final MultivaluedMap<String, String> httpHeaders,
+    private void parse(final Annotation[] annotations, final MediaType mediaType, final MultivaluedMap<String, String> httpHeaders,
                        final InputStream entityStream) throws IOException {
         for (final var annotation : annotations) {
             if (annotation instanceof UploadConfig) {
@@ -128,10 +128,13 @@ public class UploadReader implements MessageBodyReader<Object>, OnPartBegin, OnP
             }
         }
 
-        final long requestSize = Long.parseLong(httpHeaders.getFirst(Headers.CONTENT_LENGTH));
+        final var lengthHeader = httpHeaders.getFirst(Headers.CONTENT_LENGTH);
+        final long requestSize = lengthHeader == null ? -1 : Long.parseLong(lengthHeader);
         final var mimeType = httpHeaders.getFirst(Headers.CONTENT_TYPE);
-        final var encodingHeader = httpHeaders.getFirst(Headers.CONTENT_ENCODING);
-        final var multiPart = parser.doBlockingParse(requestSize, mimeType, encodingHeader, entityStream);
+        // The charset is a parameter of the content type, the content encoding is the compression of the body
+        final var charset = mediaType == null ? null : mediaType.getParameters().get(MediaType.CHARSET_PARAMETER);
+        final var contentEncoding = httpHeaders.getFirst(Headers.CONTENT_ENCODING);
+        final var multiPart = parser.doBlockingParse(requestSize, mimeType, charset, contentEncoding, entityStream);
         multiPart.setHeaders(httpHeaders);
         this.multiPart = multiPart;
     }
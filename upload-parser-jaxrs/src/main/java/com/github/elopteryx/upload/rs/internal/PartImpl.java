@@ -26,8 +26,7 @@ import com.github.elopteryx.upload.rs.Part;
 class PartImpl extends PartStreamImpl implements Part {
 
     PartImpl(final PartStreamImpl partStream) {
-        super(partStream.getSubmittedFileName(), partStream.getName(), partStream.getHeadersObject());
-        this.output = partStream.getOutput();
+        super(partStream);
     }
 
     @Override
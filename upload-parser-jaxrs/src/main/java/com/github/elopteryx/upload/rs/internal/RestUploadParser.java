@@ -27,7 +27,6 @@ import com.github.elopteryx.upload.internal.UploadContextImpl;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.stream.Collectors;
 
@@ -57,6 +56,24 @@ public class RestUploadParser extends BlockingUploadParser {
      * @throws IOException If an error occurred with the I/O
      */
     public MultiPartImpl doBlockingParse(final long contentLength, final String mimeType, final String encoding, final InputStream stream) throws IOException {
+        return doBlockingParse(contentLength, mimeType, encoding, null, stream);
+    }
+
+    /**
+     * Initializes the parser from the given parameters and performs
+     * a blocking parse. A gzip or deflate compressed request body is
+     * decompressed before the parsing.
+     * @param contentLength The length of the request, -1 if unknown
+     * @param mimeType The content type of the request
+     * @param encoding The character encoding of the request
+     * @param contentEncoding The content encoding of the request body, can be null
+     * @param stream The request stream
+     * @return The multipart object, representing the request
+     * @throws IOException If an error occurred with the I/O
+     * @throws IllegalArgumentException If the content encoding is not supported
+     */
+    public MultiPartImpl doBlockingParse(final long contentLength, final String mimeType, final String encoding,
+                                         final String contentEncoding, final InputStream stream) throws IOException {
         if (maxRequestSize > -1 && contentLength > maxRequestSize) {
             throw new RequestSizeException("The size of the request ("
                     + contentLength
@@ -64,9 +81,9 @@ public class RestUploadParser extends BlockingUploadParser {
                     contentLength, maxRequestSize);
         }
 
-        checkBuffer = ByteBuffer.allocate(sizeThreshold);
+        this.contentLength = contentLength;
         context = new UploadContextImpl(null, null);
-        dataBuffer = ByteBuffer.allocate(maxBytesUsed / 2);
+        dataBuffer = allocateBuffer(maxBytesUsed / 2);
 
         if (mimeType != null && mimeType.startsWith(MULTIPART_FORM_DATA)) {
             final var boundary = Headers.extractBoundaryFromHeader(mimeType);
@@ -77,10 +94,16 @@ public class RestUploadParser extends BlockingUploadParser {
             }
             final var charset = encoding == null ? ISO_8859_1 : Charset.forName(encoding);
             parseState = MultipartParser.beginParse(this, boundary.getBytes(charset), maxBytesUsed, charset);
+            setupRequestDecompression(contentEncoding);
 
             inputStream = stream;
         }
-        blockingRead();
+        try {
+            blockingRead();
+        } catch (final IOException | RuntimeException e) {
+            abortPart(e);
+            throw e;
+        }
         final var parts = context.getPartStreams()
                 .stream()
                 .map(PartStreamImpl.class::cast)
@@ -0,0 +1,183 @@
+package com.github.elopteryx.upload;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.elopteryx.upload.errors.MultipartException;
+import com.github.elopteryx.upload.errors.PartSizeException;
+import com.github.elopteryx.upload.errors.RequestSizeException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+class PushParserTest {
+
+    private static final String BODY = "preamble\r\n"
+            + "--boundary\r\n"
+            + "Content-Disposition: form-data; name=\"field\"\r\n"
+            + "\r\n"
+            + "value\r\n"
+            + "--boundary\r\n"
+            + "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "\r\n"
+            + "file content\r\n"
+            + "--boundary--\r\n"
+            + "epilogue";
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 1024})
+    void parse_in_chunks(final int chunkSize) throws IOException {
+        final var handler = new RecordingHandler();
+        final var feed = PushParser.newParser()
+                .handler(handler)
+                .begin("boundary");
+
+        final var bytes = BODY.getBytes(ISO_8859_1);
+        for (var position = 0; position < bytes.length; position += chunkSize) {
+            final var buffer = ByteBuffer.wrap(bytes, position, Math.min(chunkSize, bytes.length - position));
+            feed.feed(buffer);
+            assertFalse(buffer.hasRemaining());
+        }
+        feed.finish();
+
+        assertTrue(feed.isComplete());
+        assertEquals(List.of("begin field", "data field value", "end field 5",
+                "begin file file.txt text/plain", "data file file content", "end file 12", "complete"), handler.events);
+    }
+
+    @Test
+    void finish_before_the_closing_boundary() throws IOException {
+        final var handler = new RecordingHandler();
+        final var feed = PushParser.newParser()
+                .handler(handler)
+                .begin("boundary");
+        feed.feed(ByteBuffer.wrap(BODY.substring(0, BODY.indexOf("file content")).getBytes(ISO_8859_1)));
+        assertFalse(feed.isComplete());
+        assertThrows(MultipartException.class, feed::finish);
+    }
+
+    @Test
+    void part_size_is_limited() {
+        final var feed = PushParser.newParser()
+                .handler(new RecordingHandler())
+                .maxPartSize(8)
+                .begin("boundary");
+        final var exception = assertThrows(PartSizeException.class, () -> feed.feed(ByteBuffer.wrap(BODY.getBytes(ISO_8859_1))));
+        assertEquals(8, exception.getPermittedSize());
+    }
+
+    @Test
+    void decompressed_part_size_is_limited() throws IOException {
+        final var compressed = new ByteArrayOutputStream();
+        try (var stream = new GZIPOutputStream(compressed)) {
+            stream.write(new byte[10_000_000]);
+        }
+        final var body = new ByteArrayOutputStream();
+        body.write(("--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n"
+                + "Content-Encoding: gzip\r\n"
+                + "\r\n").getBytes(ISO_8859_1));
+        body.write(compressed.toByteArray());
+        body.write("\r\n--boundary--\r\n".getBytes(ISO_8859_1));
+
+        final var feed = PushParser.newParser()
+                .handler(new RecordingHandler())
+                .maxPartSize(1_000_000)
+                .decompressParts(true)
+                .begin("boundary");
+        final var exception = assertThrows(PartSizeException.class, () -> feed.feed(ByteBuffer.wrap(body.toByteArray())));
+        assertTrue(exception.getActualSize() <= 1_000_000 + 4096);
+
+        final var passing = PushParser.newParser()
+                .handler(new RecordingHandler())
+                .maxPartSize(1_000_000)
+                .begin("boundary");
+        passing.feed(ByteBuffer.wrap(body.toByteArray()));
+        passing.finish();
+        assertTrue(passing.isComplete());
+    }
+
+    @Test
+    void request_size_is_limited() {
+        final var feed = PushParser.newParser()
+                .handler(new RecordingHandler())
+                .maxRequestSize(16)
+                .begin("boundary");
+        assertThrows(RequestSizeException.class, () -> feed.feed(ByteBuffer.wrap(BODY.getBytes(ISO_8859_1))));
+    }
+
+    @Test
+    void parse_utf8_headers() throws IOException {
+        final var handler = new RecordingHandler();
+        final var feed = PushParser.newParser()
+                .handler(handler)
+                .charset(UTF_8)
+                .begin("boundary");
+        feed.feed(ByteBuffer.wrap(BODY.replace("file.txt", "fájl.txt").getBytes(UTF_8)));
+        feed.finish();
+        assertEquals("begin file fájl.txt text/plain", handler.events.get(3));
+    }
+
+    @Test
+    void invalid_configuration() {
+        assertThrows(IllegalStateException.class, () -> PushParser.newParser().begin("boundary"));
+        assertThrows(IllegalArgumentException.class, () -> PushParser.newParser().handler(new RecordingHandler()).begin(""));
+        assertThrows(IllegalArgumentException.class, () -> PushParser.newParser().maxPartSize(-1));
+        assertThrows(IllegalArgumentException.class, () -> PushParser.newParser().maxRequestSize(-1));
+        assertThrows(IllegalArgumentException.class, () -> PushParser.newParser().maxBytesUsed(1));
+    }
+
+    @Test
+    void extract_boundary() {
+        assertEquals("--xyz", PushParser.boundaryOf("multipart/form-data; boundary=--xyz"));
+        assertNull(PushParser.boundaryOf("multipart/form-data"));
+        assertNull(PushParser.boundaryOf(null));
+    }
+
+    private static class RecordingHandler implements PushHandler {
+
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onPartBegin(final PartStream part) {
+            final var fileName = part.isFile() ? " " + part.getSubmittedFileName() + " " + part.getContentType() : "";
+            events.add("begin " + part.getName() + fileName);
+        }
+
+        @Override
+        public void onData(final PartStream part, final ByteBuffer data) {
+            final var bytes = new byte[data.remaining()];
+            data.get(bytes);
+            final var last = events.get(events.size() - 1);
+            final var prefix = "data " + part.getName() + " ";
+            if (last.startsWith(prefix)) {
+                events.set(events.size() - 1, last + new String(bytes, UTF_8));
+            } else {
+                events.add(prefix + new String(bytes, UTF_8));
+            }
+        }
+
+        @Override
+        public void onPartEnd(final PartStream part) {
+            events.add("end " + part.getName() + " " + part.getKnownSize());
+        }
+
+        @Override
+        public void onComplete() {
+            events.add("complete");
+        }
+    }
+}
@@ -44,7 +44,9 @@ public class UploadParserTest implements OnPartBegin, OnPartEnd, OnRequestComple
                 () -> assertThrows(IllegalArgumentException.class, () -> UploadParser.newParser().sizeThreshold(-1)),
                 () -> assertThrows(IllegalArgumentException.class, () -> UploadParser.newParser().maxPartSize(-1)),
                 () -> assertThrows(IllegalArgumentException.class, () -> UploadParser.newParser().maxRequestSize(-1)),
-                () -> assertThrows(IllegalArgumentException.class, () -> UploadParser.newParser().maxBytesUsed(-1))
+                () -> assertThrows(IllegalArgumentException.class, () -> UploadParser.newParser().maxBytesUsed(-1)),
+                () -> assertThrows(IllegalArgumentException.class, () -> UploadParser.newParser().writeBufferSize(-1)),
+                () -> assertThrows(IllegalArgumentException.class, () -> UploadParser.newParser().digests("NO-SUCH-DIGEST"))
         );
     }
 
@@ -84,6 +86,7 @@ public class UploadParserTest implements OnPartBegin, OnPartEnd, OnRequestComple
                 .sizeThreshold(1024 * 1024 * 10)
                 .maxPartSize(1024 * 1024 * 50)
                 .maxRequestSize(1024 * 1024 * 50)
+                .directBuffers(true)
                 .setupAsyncParse(request);
     }
 
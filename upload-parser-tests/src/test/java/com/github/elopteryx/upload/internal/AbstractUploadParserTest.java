@@ -10,6 +10,8 @@ import com.github.elopteryx.upload.errors.RequestSizeException;
 import com.github.elopteryx.upload.util.Servlets;
 import org.junit.jupiter.api.Test;
 
+import java.io.InputStream;
+
 class AbstractUploadParserTest {
 
     private static final long SIZE = 1024 * 1024 * 100L;
@@ -65,5 +67,34 @@ class AbstractUploadParserTest {
         assertEquals(exception.getPermittedSize(), SMALL_SIZE);
         assertTrue(exception.getActualSize() > SMALL_SIZE);
     }
-    
+
+    @Test
+    void empty_read_leaves_no_stale_bytes() throws Exception {
+        for (final var direct : new boolean[] {false, true}) {
+            final var parser = runSetupForSize(SIZE, -1, -1);
+            parser.setDirectBuffers(direct);
+            parser.dataBuffer = parser.allocateBuffer(64);
+            final var stream = new InputStream() {
+                private boolean first = true;
+
+                @Override
+                public int read() {
+                    throw new UnsupportedOperationException("Only bulk reads are used");
+                }
+
+                @Override
+                public int read(final byte[] bytes, final int offset, final int length) {
+                    if (first) {
+                        first = false;
+                        return 8;
+                    }
+                    return 0;
+                }
+            };
+            assertEquals(8, parser.readDataBuffer(stream));
+            assertEquals(8, parser.dataBuffer.remaining());
+            assertEquals(0, parser.readDataBuffer(stream));
+            assertEquals(0, parser.dataBuffer.remaining());
+        }
+    }
 }
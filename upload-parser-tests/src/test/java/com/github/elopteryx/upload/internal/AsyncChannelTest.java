@@ -0,0 +1,187 @@
+package com.github.elopteryx.upload.internal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+class AsyncChannelTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void bytes_are_written_in_order() throws IOException {
+        final var output = new ByteArrayOutputStream();
+        final var channel = new AsyncChannel(Channels.newChannel(output), executor, 4, TIMEOUT);
+        final var expected = new byte[100_000];
+        final var buffer = ByteBuffer.allocate(100);
+        for (var i = 0; i < expected.length; i++) {
+            expected[i] = (byte) (i * 31);
+            buffer.put(expected[i]);
+            if (!buffer.hasRemaining()) {
+                channel.write(buffer.flip());
+                assertFalse(buffer.hasRemaining());
+                buffer.clear();
+            }
+        }
+        channel.close();
+
+        assertArrayEquals(expected, output.toByteArray());
+    }
+
+    @Test
+    void writes_wait_for_a_full_queue() throws Exception {
+        final var release = new CountDownLatch(1);
+        final var blocked = new BlockingChannel(release);
+        final var channel = new AsyncChannel(blocked, executor, 2, TIMEOUT);
+        final var writer = new Thread(() -> {
+            try {
+                for (var i = 0; i < 10; i++) {
+                    channel.write(ByteBuffer.allocate(10));
+                }
+                channel.close();
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        writer.join(200);
+        assertTrue(writer.isAlive());
+        release.countDown();
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(writer.isAlive());
+        assertEquals(100, blocked.written);
+        assertTrue(blocked.closed);
+    }
+
+    @Test
+    void failure_is_thrown_on_close() {
+        final var channel = new AsyncChannel(new WritableByteChannel() {
+            @Override
+            public int write(final ByteBuffer src) throws IOException {
+                throw new IOException("Failed");
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+                // Nothing to close
+            }
+        }, executor, 2, TIMEOUT);
+        assertThrows(IOException.class, () -> {
+            channel.write(ByteBuffer.allocate(10));
+            channel.close();
+        });
+    }
+
+    @Test
+    void abort_is_passed_on() throws IOException {
+        final var release = new CountDownLatch(0);
+        final var target = new BlockingChannel(release);
+        final var channel = new AsyncChannel(target, executor, 2, TIMEOUT);
+        channel.write(ByteBuffer.allocate(10));
+        channel.abort();
+        assertTrue(target.aborted);
+        assertFalse(target.closed);
+    }
+
+    @Test
+    void rejected_task_aborts_the_channel() throws IOException {
+        final var target = new BlockingChannel(new CountDownLatch(0));
+        final var channel = new AsyncChannel(target, task -> {
+            throw new RejectedExecutionException("Saturated");
+        }, 2, TIMEOUT);
+        final var exception = assertThrows(IOException.class, () -> channel.write(ByteBuffer.allocate(10)));
+        assertTrue(exception.getCause() instanceof RejectedExecutionException);
+        assertTrue(target.aborted);
+        channel.abort();
+        assertThrows(IOException.class, () -> new AsyncChannel(target, task -> {
+            throw new RejectedExecutionException("Saturated");
+        }, 2, TIMEOUT).close());
+    }
+
+    @Test
+    void wedged_output_times_out() throws IOException {
+        final var release = new CountDownLatch(1);
+        final var target = new BlockingChannel(release);
+        final var channel = new AsyncChannel(target, executor, 1, Duration.ofMillis(100));
+        try {
+            channel.write(ByteBuffer.allocate(10));
+            assertThrows(IOException.class, () -> {
+                for (var i = 0; i < 3; i++) {
+                    channel.write(ByteBuffer.allocate(10));
+                }
+            });
+            assertThrows(IOException.class, channel::abort);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static class BlockingChannel implements AbortableChannel {
+
+        private final CountDownLatch release;
+        private volatile long written;
+        private volatile boolean closed;
+        private volatile boolean aborted;
+
+        BlockingChannel(final CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                throw new IOException(e);
+            }
+            final var length = src.remaining();
+            src.position(src.limit());
+            written += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+    }
+}
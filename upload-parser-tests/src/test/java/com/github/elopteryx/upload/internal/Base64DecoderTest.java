@@ -19,13 +19,19 @@
 package com.github.elopteryx.upload.internal;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Random;
 
 /**
  * Copied from Undertow.
@@ -197,6 +203,44 @@ class Base64DecoderTest {
         assertThrows(IOException.class, () -> new Base64Decoder().decode(ByteBuffer.wrap(INVALID_CHARACTER.getBytes(US_ASCII)), buffer));
     }
 
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void decode_in_random_slices(final boolean direct) throws IOException {
+        final var random = new Random(42);
+        for (var round = 0; round < 200; round++) {
+            final var data = new byte[random.nextInt(2048)];
+            random.nextBytes(data);
+            final var encoded = (random.nextBoolean() ? Base64.getMimeEncoder() : Base64.getEncoder()).encode(data);
+
+            final var decoder = new Base64Decoder();
+            final var output = new ByteArrayOutputStream();
+            var position = 0;
+            while (position < encoded.length) {
+                final var length = Math.min(encoded.length - position, 1 + random.nextInt(300));
+                final var source = slice(encoded, position, length, direct);
+                while (source.hasRemaining()) {
+                    final var target = direct ? ByteBuffer.allocateDirect(1 + random.nextInt(100)) : ByteBuffer.allocate(1 + random.nextInt(100));
+                    decoder.decode(source, target);
+                    target.flip();
+                    final var bytes = new byte[target.remaining()];
+                    target.get(bytes);
+                    output.write(bytes);
+                }
+                position += length;
+            }
+            assertArrayEquals(data, output.toByteArray());
+        }
+    }
+
+    private static ByteBuffer slice(final byte[] bytes, final int offset, final int length, final boolean direct) {
+        if (direct) {
+            final var buffer = ByteBuffer.allocateDirect(length);
+            buffer.put(bytes, offset, length);
+            return buffer.flip();
+        }
+        return ByteBuffer.wrap(bytes, offset, length);
+    }
+
     private static final class FlexBase64 {
 
         private static final byte[] ENCODING_TABLE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(US_ASCII);
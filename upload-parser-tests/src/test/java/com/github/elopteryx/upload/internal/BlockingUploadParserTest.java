@@ -1,5 +1,8 @@
 package com.github.elopteryx.upload.internal;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -8,17 +11,36 @@ import static org.mockito.Mockito.when;
 import com.github.elopteryx.upload.OnError;
 import com.github.elopteryx.upload.OnPartBegin;
 import com.github.elopteryx.upload.OnPartEnd;
+import com.github.elopteryx.upload.PartKeyProvider;
 import com.github.elopteryx.upload.PartOutput;
+import com.github.elopteryx.upload.PartStage;
+import com.github.elopteryx.upload.PartStream;
 import com.github.elopteryx.upload.UploadContext;
 import com.github.elopteryx.upload.UploadParser;
 import com.github.elopteryx.upload.errors.MultipartException;
+import com.github.elopteryx.upload.errors.PartDigestException;
+import com.github.elopteryx.upload.util.AtomicFileSink;
+import com.github.elopteryx.upload.util.DecryptingChannel;
 import com.github.elopteryx.upload.util.Servlets;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
 
 public class BlockingUploadParserTest implements OnPartBegin, OnPartEnd, OnError {
     
@@ -50,6 +72,490 @@ public class BlockingUploadParserTest implements OnPartBegin, OnPartEnd, OnError
         assertThrows(IllegalArgumentException.class, () -> UploadParser.newParser().doBlockingParse(request));
     }
 
+    @Test
+    void writes_are_combined_with_a_write_buffer() throws Exception {
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+
+        final var outputs = new ArrayList<ByteArrayOutputStream>();
+        final var writes = new int[1];
+        final var context = UploadParser.newParser()
+                .maxBytesUsed(8)
+                .writeBufferSize(64)
+                .onPartBegin((ctx, buffer) -> {
+                    final var output = new ByteArrayOutputStream();
+                    outputs.add(output);
+                    final var channel = Channels.newChannel(output);
+                    return PartOutput.from(new WritableByteChannel() {
+                        @Override
+                        public int write(final ByteBuffer src) throws IOException {
+                            writes[0]++;
+                            return channel.write(src);
+                        }
+
+                        @Override
+                        public boolean isOpen() {
+                            return channel.isOpen();
+                        }
+
+                        @Override
+                        public void close() throws IOException {
+                            channel.close();
+                        }
+                    });
+                })
+                .doBlockingParse(request);
+
+        assertEquals(4, context.getPartStreams().size());
+        assertEquals("This is the content of the file\n", outputs.get(0).toString(US_ASCII));
+        assertEquals("fieldValue", outputs.get(1).toString(US_ASCII));
+        // Every part fits into the buffer, so each one is written once, at the end
+        assertEquals(4, writes[0]);
+    }
+
+    @Test
+    void buffered_bytes_are_written_to_the_output() throws Exception {
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+
+        final var outputs = new ArrayList<ByteArrayOutputStream>();
+        final var buffered = new ArrayList<String>();
+        UploadParser.newParser()
+                .maxBytesUsed(8)
+                .sizeThreshold(8)
+                .onPartBegin((ctx, buffer) -> {
+                    assertTrue(buffer.isReadOnly());
+                    final var bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    buffered.add(new String(bytes, US_ASCII));
+                    final var output = new ByteArrayOutputStream();
+                    outputs.add(output);
+                    return PartOutput.from(output);
+                })
+                .doBlockingParse(request);
+
+        assertEquals("This is ", buffered.get(0));
+        assertEquals("value1", buffered.get(2));
+        assertEquals("This is the content of the file\n", outputs.get(0).toString(US_ASCII));
+        assertEquals("fieldValue", outputs.get(1).toString(US_ASCII));
+        assertEquals("value1", outputs.get(2).toString(US_ASCII));
+    }
+
+    @Test
+    void stages_are_run_before_the_output() throws Exception {
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+
+        final var outputs = new ArrayList<ByteArrayOutputStream>();
+        final var counted = new ArrayList<long[]>();
+        final var durations = new ArrayList<Integer>();
+        UploadParser.newParser()
+                .maxBytesUsed(8)
+                .sizeThreshold(4)
+                .onPartBegin((context, buffer) -> {
+                    final var output = new ByteArrayOutputStream();
+                    outputs.add(output);
+                    final var count = new long[1];
+                    counted.add(count);
+                    return PartOutput.from(output)
+                            .through(PartStage.observer(view -> count[0] += view.remaining()));
+                })
+                .onPartEnd(context -> durations.add(context.getCurrentPart().getStageDurations().size()))
+                .doBlockingParse(request);
+
+        assertEquals(4, outputs.size());
+        assertEquals("This is the content of the file\n", outputs.get(0).toString(US_ASCII));
+        assertEquals(32, counted.get(0)[0]);
+        assertEquals(10, counted.get(1)[0]);
+        assertEquals(List.of(1, 1, 1, 1), durations);
+    }
+
+    @Test
+    void sink_is_aborted_when_the_request_is_truncated() throws Exception {
+        final var body = "-----1234\r\n"
+                + "Content-Disposition: form-data; name=\"first\"\r\n"
+                + "\r\n"
+                + "first value\r\n"
+                + "-----1234\r\n"
+                + "Content-Disposition: form-data; name=\"second\"\r\n"
+                + "\r\n"
+                + "second value, which is never fin";
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+        when(request.getInputStream()).thenReturn(streamOf(body));
+
+        final var directory = Files.createTempDirectory("sink");
+        final var errors = new ArrayList<Throwable>();
+        try {
+            UploadParser.newParser()
+                    .maxBytesUsed(16)
+                    .onPartBegin((context, buffer) -> PartOutput.from(
+                            new AtomicFileSink(directory.resolve(context.getCurrentPart().getName()))))
+                    .onError((context, throwable) -> errors.add(throwable))
+                    .doBlockingParse(request);
+
+            assertEquals(1, errors.size());
+            assertTrue(errors.get(0) instanceof MultipartException);
+            assertEquals("first value", Files.readString(directory.resolve("first"), US_ASCII));
+            try (var files = Files.list(directory)) {
+                assertEquals(1, files.count());
+            }
+        } finally {
+            try (var files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    void digests_are_computed_and_verified() throws Exception {
+        final var content = "This is the content of the file\n";
+        final var md5 = Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(content.getBytes(US_ASCII)));
+        final var body = "-----1234\r\n"
+                + "Content-Disposition: form-data; name=\"first\"; filename=\"first.txt\"\r\n"
+                + "Content-MD5: " + md5 + "\r\n"
+                + "\r\n"
+                + content + "\r\n"
+                + "-----1234\r\n"
+                + "Content-Disposition: form-data; name=\"second\"; filename=\"second.txt\"\r\n"
+                + "Content-MD5: " + md5 + "\r\n"
+                + "\r\n"
+                + "This is not the content of the file\n\r\n"
+                + "-----1234--\r\n";
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+        when(request.getInputStream()).thenReturn(streamOf(body));
+
+        final var directory = Files.createTempDirectory("sink");
+        final var digests = new ArrayList<byte[]>();
+        final var errors = new ArrayList<Throwable>();
+        try {
+            UploadParser.newParser()
+                    .maxBytesUsed(16)
+                    .digests("SHA-256")
+                    .onPartBegin((context, buffer) -> PartOutput.from(
+                            new AtomicFileSink(directory.resolve(context.getCurrentPart().getName()))))
+                    .onPartEnd(context -> digests.add(context.getCurrentPart().getDigest("sha-256")))
+                    .onError((context, throwable) -> errors.add(throwable))
+                    .doBlockingParse(request);
+
+            assertEquals(1, digests.size());
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(content.getBytes(US_ASCII)), digests.get(0));
+            assertEquals(1, errors.size());
+            assertTrue(errors.get(0) instanceof PartDigestException);
+            assertEquals(content, Files.readString(directory.resolve("first"), US_ASCII));
+            try (var files = Files.list(directory)) {
+                assertEquals(1, files.count());
+            }
+        } finally {
+            try (var files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    void parts_are_written_to_every_output_of_a_tee() throws Exception {
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+
+        final var executor = Executors.newSingleThreadExecutor();
+        final var primaries = new ArrayList<ByteArrayOutputStream>();
+        final var replicas = new ArrayList<ByteArrayOutputStream>();
+        final var failures = new ArrayList<Integer>();
+        try {
+            UploadParser.newParser()
+                    .maxBytesUsed(8)
+                    .onPartBegin((context, buffer) -> {
+                        final var primary = new ByteArrayOutputStream();
+                        primaries.add(primary);
+                        final var replica = new ByteArrayOutputStream();
+                        replicas.add(replica);
+                        return PartOutput.tee(PartOutput.TeeMode.BEST_EFFORT,
+                                PartOutput.from(primary),
+                                PartOutput.from(replica).async(executor, 2),
+                                PartOutput.from(new WritableByteChannel() {
+                                    @Override
+                                    public int write(final ByteBuffer src) throws IOException {
+                                        throw new IOException("Failed");
+                                    }
+
+                                    @Override
+                                    public boolean isOpen() {
+                                        return true;
+                                    }
+
+                                    @Override
+                                    public void close() {
+                                        // Nothing to close
+                                    }
+                                }));
+                    })
+                    .onPartEnd(context -> failures.add(context.getCurrentPart().getOutputFailures().size()))
+                    .doBlockingParse(request);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(4, primaries.size());
+        assertEquals("This is the content of the file\n", primaries.get(0).toString(US_ASCII));
+        assertEquals("This is the content of the file\n", replicas.get(0).toString(US_ASCII));
+        assertEquals("fieldValue", replicas.get(1).toString(US_ASCII));
+        assertEquals(List.of(1, 1, 1, 1), failures);
+    }
+
+    @Test
+    void parts_are_compressed_by_a_stage() throws Exception {
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+
+        final var outputs = new ArrayList<ByteArrayOutputStream>();
+        final var sizes = new ArrayList<long[]>();
+        UploadParser.newParser()
+                .maxBytesUsed(8)
+                .onPartBegin((context, buffer) -> {
+                    final var output = new ByteArrayOutputStream();
+                    outputs.add(output);
+                    final var part = PartOutput.from(output);
+                    return "text/whatever".equals(context.getCurrentPart().getContentType()) ? part.through(PartStage.gzip()) : part;
+                })
+                .onPartEnd(context -> sizes.add(new long[] {context.getCurrentPart().getKnownSize(), context.getCurrentPart().getStoredSize()}))
+                .doBlockingParse(request);
+
+        try (var stream = new GZIPInputStream(new ByteArrayInputStream(outputs.get(0).toByteArray()))) {
+            assertEquals("This is the content of the file\n", new String(stream.readAllBytes(), US_ASCII));
+        }
+        assertEquals(32, sizes.get(0)[0]);
+        assertEquals(outputs.get(0).size(), sizes.get(0)[1]);
+        assertEquals("fieldValue", outputs.get(1).toString(US_ASCII));
+        assertEquals(10, sizes.get(1)[0]);
+        assertEquals(10, sizes.get(1)[1]);
+    }
+
+    @Test
+    void parts_are_encrypted_with_the_key_of_the_user_object() throws Exception {
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+
+        final var key = new SecretKeySpec(new byte[16], "AES");
+        final var outputs = new ArrayList<ByteArrayOutputStream>();
+        UploadParser.newParser()
+                .userObject((PartKeyProvider) context -> key)
+                .onPartBegin((context, buffer) -> {
+                    final var output = new ByteArrayOutputStream();
+                    outputs.add(output);
+                    return PartOutput.from(output).through(PartStage.encrypt(context));
+                })
+                .doBlockingParse(request);
+
+        final var file = Files.createTempFile("encrypted", ".bin");
+        try {
+            Files.write(file, outputs.get(0).toByteArray());
+            try (var channel = new DecryptingChannel(Files.newByteChannel(file), key)) {
+                final var buffer = ByteBuffer.allocate((int) channel.size());
+                channel.read(buffer);
+                assertEquals("This is the content of the file\n", new String(buffer.array(), US_ASCII));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void encryption_fails_without_a_key_provider() throws Exception {
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+
+        final var errors = new ArrayList<Throwable>();
+        UploadParser.newParser()
+                .userObject(request)
+                .onPartBegin((context, buffer) -> PartOutput.from(new ByteArrayOutputStream()).through(PartStage.encrypt(context)))
+                .onError((context, throwable) -> errors.add(throwable))
+                .doBlockingParse(request);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof IllegalStateException);
+    }
+
+    @Test
+    void size_hints_are_read_from_the_size_field_and_the_part_headers() throws Exception {
+        final var body = "-----1234\r\n"
+                + "Content-Disposition: form-data; name=\"size\"\r\n"
+                + "\r\n"
+                + "40\r\n"
+                + "-----1234\r\n"
+                + "Content-Disposition: form-data; name=\"first\"; filename=\"first.txt\"\r\n"
+                + "\r\n"
+                + "This is the content of the file\n\r\n"
+                + "-----1234\r\n"
+                + "Content-Disposition: form-data; name=\"second\"; filename=\"second.txt\"\r\n"
+                + "Content-Length: 10\r\n"
+                + "\r\n"
+                + "0123456789\r\n"
+                + "-----1234\r\n"
+                + "Content-Disposition: form-data; name=\"third\"; filename=\"third.txt\"\r\n"
+                + "\r\n"
+                + "third\r\n"
+                + "-----1234--\r\n";
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+        when(request.getContentLengthLong()).thenReturn((long) body.length());
+        when(request.getInputStream()).thenReturn(streamOf(body));
+
+        final var directory = Files.createTempDirectory("hints");
+        final var hints = new ArrayList<Long>();
+        try {
+            UploadParser.newParser()
+                    .maxBytesUsed(16)
+                    .sizeHintField("size")
+                    .onPartBegin((context, buffer) -> {
+                        hints.add(context.getCurrentPart().getSizeHint());
+                        return PartOutput.from(directory.resolve(context.getCurrentPart().getName()));
+                    })
+                    .doBlockingParse(request);
+
+            assertEquals(List.of(-1L, 40L, 10L, -1L), hints);
+            assertEquals("This is the content of the file\n", Files.readString(directory.resolve("first"), US_ASCII));
+            assertEquals("0123456789", Files.readString(directory.resolve("second"), US_ASCII));
+            assertEquals("third", Files.readString(directory.resolve("third"), US_ASCII));
+        } finally {
+            try (var files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    void single_file_size_hint_is_derived_from_the_request_length() throws Exception {
+        final var body = "-----1234\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n"
+                + "\r\n"
+                + "This is the content of the file\n\r\n"
+                + "-----1234--\r\n";
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+        when(request.getContentLengthLong()).thenReturn((long) body.length());
+        when(request.getInputStream()).thenReturn(streamOf(body));
+
+        final var file = Files.createTempFile("hint", ".txt");
+        final var hints = new ArrayList<Long>();
+        try {
+            UploadParser.newParser()
+                    .maxPartSize(1000)
+                    .onPartBegin((context, buffer) -> {
+                        hints.add(context.getCurrentPart().getSizeHint());
+                        return PartOutput.from(file);
+                    })
+                    .doBlockingParse(request);
+
+            assertTrue(hints.get(0) >= 32);
+            assertTrue(hints.get(0) < body.length());
+            assertEquals("This is the content of the file\n", Files.readString(file, US_ASCII));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void opened_outputs_are_aborted_if_the_rest_cannot_be_opened() throws Exception {
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+
+        final var directory = Files.createTempDirectory("sink");
+        final var errors = new ArrayList<Throwable>();
+        try {
+            final var failingStage = new PartStage() {
+                @Override
+                public void begin(final PartStream part) throws IOException {
+                    throw new IOException("Stage failed");
+                }
+
+                @Override
+                public void process(final ByteBuffer buffer, final WritableByteChannel next) {
+                    throw new AssertionError();
+                }
+            };
+            UploadParser.newParser()
+                    .onPartBegin((context, buffer) -> PartOutput.tee(
+                            PartOutput.from(new AtomicFileSink(directory.resolve("file"))),
+                            PartOutput.from(directory.resolve("missing").resolve("file"))))
+                    .onError((context, throwable) -> errors.add(throwable))
+                    .doBlockingParse(request);
+
+            final var second = Servlets.newRequest();
+            when(second.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+            UploadParser.newParser()
+                    .onPartBegin((context, buffer) -> PartOutput.from(new AtomicFileSink(directory.resolve("file")))
+                            .through(PartStage.gzip(), failingStage))
+                    .onError((context, throwable) -> errors.add(throwable))
+                    .doBlockingParse(second);
+
+            assertEquals(2, errors.size());
+            assertEquals("Stage failed", errors.get(1).getMessage());
+            try (var files = Files.list(directory)) {
+                assertEquals(0, files.count());
+            }
+        } finally {
+            try (var files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    void part_content_length_is_used_as_size_hint() throws Exception {
+        final var body = "-----1234\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n"
+                + "Content-Length: 1099511627776\r\n"
+                + "\r\n"
+                + "This is the content of the file\n\r\n"
+                + "-----1234--\r\n";
+        final var request = Servlets.newRequest();
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=---1234");
+        when(request.getContentLengthLong()).thenReturn(-1L);
+        when(request.getInputStream()).thenReturn(streamOf(body));
+
+        final var file = Files.createTempFile("hint", ".txt");
+        final var hints = new ArrayList<Long>();
+        try {
+            UploadParser.newParser()
+                    .onPartBegin((context, buffer) -> {
+                        hints.add(context.getCurrentPart().getSizeHint());
+                        return PartOutput.from(file);
+                    })
+                    .doBlockingParse(request);
+
+            assertEquals(List.of(1099511627776L), hints);
+            assertEquals("This is the content of the file\n", Files.readString(file, US_ASCII));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static ServletInputStream streamOf(final String body) {
+        final var stream = new ByteArrayInputStream(body.getBytes(US_ASCII));
+        return new ServletInputStream() {
+            @Override
+            public int read() {
+                return stream.read();
+            }
+
+            @Override
+            public boolean isFinished() {
+                return stream.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(final ReadListener readListener) {
+                // Not used in blocking mode
+            }
+        };
+    }
+
     @Override
     public PartOutput onPartBegin(final UploadContext context, final ByteBuffer buffer) {
         final var baos = new ByteArrayOutputStream();
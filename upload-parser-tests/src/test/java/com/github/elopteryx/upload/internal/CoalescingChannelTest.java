@@ -0,0 +1,140 @@
+package com.github.elopteryx.upload.internal;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+class CoalescingChannelTest {
+
+    @Test
+    void small_writes_are_combined() throws IOException {
+        final var target = new CountingChannel();
+        final var channel = new CoalescingChannel(target, ByteBuffer.allocate(64));
+        final var expected = new ByteArrayOutputStream();
+        for (var i = 0; i < 100; i++) {
+            final var bytes = ("slice" + i).getBytes(ISO_8859_1);
+            expected.write(bytes);
+            assertEquals(bytes.length, channel.write(ByteBuffer.wrap(bytes)));
+        }
+        channel.close();
+
+        assertArrayEquals(expected.toByteArray(), target.output.toByteArray());
+        assertEquals(expected.size() / 64 + 1, target.writes);
+        assertEquals(0, target.gatheringWrites);
+    }
+
+    @Test
+    void large_write_is_gathered_with_the_buffered_bytes() throws IOException {
+        final var target = new CountingGatheringChannel();
+        final var channel = new CoalescingChannel(target, ByteBuffer.allocate(64));
+        channel.write(ByteBuffer.wrap("head".getBytes(ISO_8859_1)));
+        final var large = ByteBuffer.wrap(new byte[1000]);
+        assertEquals(1000, channel.write(large));
+        assertFalse(large.hasRemaining());
+
+        assertEquals(1, target.gatheringWrites);
+        assertEquals(0, target.writes);
+        assertEquals(1004, target.output.size());
+        channel.write(ByteBuffer.wrap("tail".getBytes(ISO_8859_1)));
+        channel.close();
+        assertEquals(1, target.writes);
+        assertEquals(1008, target.output.size());
+    }
+
+    @Test
+    void abort_drops_the_buffered_bytes() throws IOException {
+        final var target = new CountingChannel();
+        final var channel = new CoalescingChannel(target, ByteBuffer.allocate(64));
+        channel.write(ByteBuffer.wrap("head".getBytes(ISO_8859_1)));
+        channel.abort();
+        channel.close();
+
+        assertFalse(channel.isOpen());
+        assertEquals(0, target.writes);
+        assertEquals(0, target.output.size());
+    }
+
+    @Test
+    void large_write_without_gathering_support() throws IOException {
+        final var target = new CountingChannel();
+        final var channel = new CoalescingChannel(target, ByteBuffer.allocateDirect(64));
+        channel.write(ByteBuffer.wrap("head".getBytes(ISO_8859_1)));
+        channel.write(ByteBuffer.wrap(new byte[1000]));
+        channel.close();
+
+        assertEquals(2, target.writes);
+        assertEquals(1004, target.output.size());
+    }
+
+    @Test
+    void write_to_closed_channel() throws IOException {
+        final var target = new CountingChannel();
+        final var channel = new CoalescingChannel(target, ByteBuffer.allocate(64));
+        channel.close();
+        assertFalse(channel.isOpen());
+        assertFalse(target.isOpen());
+        assertThrows(ClosedChannelException.class, () -> channel.write(ByteBuffer.allocate(1)));
+        channel.close();
+    }
+
+    private static class CountingChannel implements WritableByteChannel {
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int writes;
+        int gatheringWrites;
+        private boolean open = true;
+
+        @Override
+        public int write(final ByteBuffer src) {
+            writes++;
+            return transfer(src);
+        }
+
+        int transfer(final ByteBuffer src) {
+            final var length = src.remaining();
+            while (src.hasRemaining()) {
+                output.write(src.get());
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    private static class CountingGatheringChannel extends CountingChannel implements GatheringByteChannel {
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) {
+            gatheringWrites++;
+            var count = 0L;
+            for (var i = offset; i < offset + length; i++) {
+                count += transfer(srcs[i]);
+            }
+            return count;
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.elopteryx.upload.internal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.elopteryx.upload.PartStage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+class DeflatingStageTest {
+
+    private static byte[] content(final int length) {
+        final var content = new byte[length];
+        for (var i = 0; i < length; i++) {
+            content[i] = (byte) ("0123456789,abcdef\n".charAt(i % 18) + (i / 1000) % 3);
+        }
+        return content;
+    }
+
+    private static byte[] compress(final PartStage stage, final byte[] content, final int slice) throws IOException {
+        final var output = new ByteArrayOutputStream();
+        final var channel = new PipelineChannel(List.of(stage), Channels.newChannel(output));
+        channel.begin(null);
+        // The same buffer is reused for every slice, like in the parser
+        final var buffer = ByteBuffer.allocate(slice);
+        for (var i = 0; i < content.length; i += slice) {
+            buffer.clear();
+            buffer.put(content, i, Math.min(slice, content.length - i)).flip();
+            channel.write(buffer);
+            assertEquals(0, buffer.remaining());
+        }
+        buffer.clear();
+        channel.close();
+        assertEquals(output.size(), channel.getOutputSize());
+        return output.toByteArray();
+    }
+
+    private static byte[] readAll(final InputStream stream) throws IOException {
+        try (stream) {
+            return stream.readAllBytes();
+        }
+    }
+
+    @Test
+    void gzip_output_can_be_decompressed() throws IOException {
+        final var content = content(200_000);
+        final var compressed = compress(PartStage.gzip(), content, 1000);
+        assertTrue(compressed.length < content.length / 5);
+        assertArrayEquals(content, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    void deflate_output_can_be_decompressed() throws IOException {
+        final var content = content(50_000);
+        final var compressed = compress(PartStage.deflate(9), content, 333);
+        assertArrayEquals(content, readAll(new InflaterInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    void empty_part() throws IOException {
+        final var compressed = compress(PartStage.gzip(), new byte[0], 1);
+        assertArrayEquals(new byte[0], readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    void stage_can_be_reused() throws IOException {
+        final var stage = PartStage.gzip(1);
+        final var first = content(10_000);
+        final var second = content(5_000);
+        assertArrayEquals(first, readAll(new GZIPInputStream(new ByteArrayInputStream(compress(stage, first, 100)))));
+        assertArrayEquals(second, readAll(new GZIPInputStream(new ByteArrayInputStream(compress(stage, second, 7000)))));
+    }
+
+    @Test
+    void aborted_stage_can_be_reused() throws IOException {
+        final var stage = PartStage.deflate();
+        final var channel = new PipelineChannel(List.of(stage), Channels.newChannel(new ByteArrayOutputStream()));
+        channel.begin(null);
+        channel.write(ByteBuffer.wrap(content(1000)));
+        channel.abort();
+        final var content = content(1000);
+        assertArrayEquals(content, readAll(new InflaterInputStream(new ByteArrayInputStream(compress(stage, content, 10)))));
+    }
+
+    @Test
+    void invalid_level() {
+        assertThrows(IllegalArgumentException.class, () -> PartStage.gzip(10));
+        assertThrows(IllegalArgumentException.class, () -> PartStage.deflate(-2));
+    }
+}
@@ -0,0 +1,171 @@
+package com.github.elopteryx.upload.internal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.elopteryx.upload.PartStage;
+import com.github.elopteryx.upload.util.DecryptingChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+class EncryptingStageTest {
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[32], "AES");
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Files.createTempFile("encrypted", ".bin");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static byte[] content(final int length) {
+        final var content = new byte[length];
+        for (var i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + i / 7);
+        }
+        return content;
+    }
+
+    private static byte[] encrypt(final PartStage stage, final byte[] content, final int slice) throws IOException {
+        final var output = new ByteArrayOutputStream();
+        final var channel = new PipelineChannel(List.of(stage), Channels.newChannel(output));
+        channel.begin(null);
+        // The same buffer is reused for every slice, like in the parser
+        final var buffer = ByteBuffer.allocate(slice);
+        for (var i = 0; i < content.length; i += slice) {
+            buffer.clear();
+            buffer.put(content, i, Math.min(slice, content.length - i)).flip();
+            channel.write(buffer);
+            assertEquals(0, buffer.remaining());
+        }
+        buffer.clear();
+        channel.close();
+        return output.toByteArray();
+    }
+
+    private byte[] decrypt(final byte[] encrypted, final SecretKey key) throws IOException {
+        Files.write(file, encrypted);
+        try (var channel = new DecryptingChannel(Files.newByteChannel(file), key)) {
+            final var buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                channel.read(buffer);
+            }
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+            return buffer.array();
+        }
+    }
+
+    @Test
+    void encrypted_parts_can_be_decrypted() throws IOException {
+        for (final var length : new int[] {0, 1, 99, 100, 101, 1000, 12_345}) {
+            final var content = content(length);
+            final var encrypted = encrypt(PartStage.encrypt(KEY, 100), content, 37);
+            assertEquals(DecryptingChannel.HEADER_LENGTH + length + ((length + 99) / 100 + 1) * DecryptingChannel.TAG_LENGTH, encrypted.length);
+            assertArrayEquals(content, decrypt(encrypted, KEY));
+        }
+    }
+
+    @Test
+    void large_chunks_with_large_slices() throws IOException {
+        final var content = content(300_000);
+        assertArrayEquals(content, decrypt(encrypt(PartStage.encrypt(KEY), content, 50_000), KEY));
+    }
+
+    @Test
+    void parts_can_be_read_with_random_access() throws IOException {
+        final var content = content(5000);
+        Files.write(file, encrypt(PartStage.encrypt(KEY, 256), content, 1000));
+        try (var channel = new DecryptingChannel(Files.newByteChannel(file), KEY)) {
+            assertEquals(5000, channel.size());
+            assertEquals(256, channel.getChunkSize());
+            for (final var position : new int[] {4990, 0, 255, 256, 1234, 4744}) {
+                final var buffer = ByteBuffer.allocate(Math.min(300, 5000 - position));
+                channel.position(position).read(buffer);
+                assertArrayEquals(Arrays.copyOfRange(content, position, position + buffer.capacity()), buffer.array());
+                assertEquals(position + buffer.capacity(), channel.position());
+            }
+        }
+    }
+
+    @Test
+    void every_part_has_its_own_nonce() throws IOException {
+        final var stage = PartStage.encrypt(KEY, 100);
+        final var content = content(500);
+        final var first = encrypt(stage, content, 500);
+        final var second = encrypt(stage, content, 500);
+        assertEquals(first.length, second.length);
+        assertFalse(Arrays.equals(first, second));
+        assertArrayEquals(content, decrypt(second, KEY));
+    }
+
+    @Test
+    void tampered_chunk_is_rejected() throws IOException {
+        final var encrypted = encrypt(PartStage.encrypt(KEY, 100), content(1000), 100);
+        encrypted[DecryptingChannel.HEADER_LENGTH + 300] ^= 1;
+        assertThrows(IOException.class, () -> decrypt(encrypted, KEY));
+    }
+
+    @Test
+    void truncated_part_is_rejected() throws IOException {
+        final var encrypted = encrypt(PartStage.encrypt(KEY, 100), content(1000), 100);
+        // Dropping the final chunk leaves the data chunks intact
+        final var truncated = Arrays.copyOf(encrypted, encrypted.length - DecryptingChannel.TAG_LENGTH);
+        assertThrows(IOException.class, () -> decrypt(truncated, KEY));
+        final var cut = Arrays.copyOf(encrypted, encrypted.length - 2 * DecryptingChannel.TAG_LENGTH - 100);
+        assertThrows(IOException.class, () -> decrypt(cut, KEY));
+    }
+
+    @Test
+    void invalid_chunk_size_in_the_header_is_rejected() throws IOException {
+        final var encrypted = encrypt(PartStage.encrypt(KEY, 100), content(1000), 100);
+        for (final var chunkSize : new int[] {Integer.MAX_VALUE, DecryptingChannel.MAX_CHUNK_SIZE + 1, 0, -1}) {
+            ByteBuffer.wrap(encrypted).putInt(5, chunkSize);
+            assertThrows(IOException.class, () -> decrypt(encrypted, KEY));
+        }
+    }
+
+    @Test
+    void wrong_key_is_rejected() throws IOException {
+        final var encrypted = encrypt(PartStage.encrypt(KEY, 100), content(10), 10);
+        final var bytes = new byte[32];
+        bytes[0] = 1;
+        assertThrows(IOException.class, () -> decrypt(encrypted, new SecretKeySpec(bytes, "AES")));
+    }
+
+    @Test
+    void aborted_stage_can_be_reused() throws IOException {
+        final var stage = PartStage.encrypt(KEY, 100);
+        final var channel = new PipelineChannel(List.of(stage), Channels.newChannel(new ByteArrayOutputStream()));
+        channel.begin(null);
+        channel.write(ByteBuffer.wrap(content(150)));
+        channel.abort();
+        final var content = content(1000);
+        assertArrayEquals(content, decrypt(encrypt(stage, content, 10), KEY));
+    }
+
+    @Test
+    void invalid_chunk_size() {
+        assertThrows(IllegalArgumentException.class, () -> PartStage.encrypt(KEY, 0));
+        assertThrows(IllegalArgumentException.class, () -> PartStage.encrypt(KEY, EncryptingStage.MAX_CHUNK_SIZE + 1));
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.elopteryx.upload.internal;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.elopteryx.upload.PartStage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class FileOutputChannelTest {
+
+    private Path file;
+
+    @BeforeEach
+    void create_file() throws IOException {
+        file = Files.createTempFile("output", ".txt");
+        Files.writeString(file, "head", US_ASCII);
+    }
+
+    @AfterEach
+    void delete_file() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void bytes_are_appended_with_gathering_writes() throws IOException {
+        final var channel = FileOutputChannel.open(file);
+        channel.write(new ByteBuffer[] {ByteBuffer.wrap("-a".getBytes(US_ASCII)), ByteBuffer.wrap("-b".getBytes(US_ASCII))});
+        channel.close();
+        assertFalse(channel.isOpen());
+        assertEquals("head-a-b", Files.readString(file, US_ASCII));
+    }
+
+    @Test
+    void gathering_writes_fall_back_to_single_writes() throws IOException {
+        final var output = new ByteArrayOutputStream();
+        final var channel = new FileOutputChannel(Channels.newChannel(output));
+        assertEquals(4, channel.write(new ByteBuffer[] {ByteBuffer.wrap("-a".getBytes(US_ASCII)), ByteBuffer.wrap("-b".getBytes(US_ASCII))}));
+        assertEquals("-a-b", output.toString(US_ASCII));
+    }
+
+    @Test
+    void abort_closes_the_file_and_keeps_the_bytes() throws IOException {
+        final var channel = FileOutputChannel.open(file);
+        channel.write(ByteBuffer.wrap("-a".getBytes(US_ASCII)));
+        channel.abort();
+        assertFalse(channel.isOpen());
+        assertEquals("head-a", Files.readString(file, US_ASCII));
+    }
+
+    @Test
+    void file_is_closed_through_the_coalescing_and_the_pipeline_channels() throws IOException {
+        final var channel = FileOutputChannel.open(file);
+        final var pipeline = new PipelineChannel(List.of(PartStage.observer(view -> { })),
+                new CoalescingChannel(channel, ByteBuffer.allocate(64)));
+        pipeline.begin(null);
+        pipeline.write(ByteBuffer.wrap("-a".getBytes(US_ASCII)));
+        pipeline.abort();
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    void channels_of_the_caller_are_left_open_on_abort() throws IOException {
+        try (var target = Files.newByteChannel(file)) {
+            final var pipeline = new PipelineChannel(List.of(PartStage.observer(view -> { })),
+                    new CoalescingChannel(target, ByteBuffer.allocate(64)));
+            pipeline.begin(null);
+            pipeline.abort();
+            assertTrue(target.isOpen());
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package com.github.elopteryx.upload.internal;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Locale;
 
@@ -61,6 +66,16 @@ class HeadersTest {
         assertFalse(headerValues.hasNext());
     }
 
+    @Test
+    void match_known_header_names() {
+        final var bytes = "xContent-TYPEcontent-transfer-encodingContent-Typo".getBytes(US_ASCII);
+        assertSame(Headers.knownHeaderName(bytes, 1, 13), Headers.knownHeaderName(bytes, 1, 13));
+        assertEquals("content-type", Headers.knownHeaderName(bytes, 1, 13));
+        assertEquals("content-transfer-encoding", Headers.knownHeaderName(bytes, 13, 38));
+        assertNull(Headers.knownHeaderName(bytes, 38, 50));
+        assertNull(Headers.knownHeaderName(bytes, 0, 13));
+    }
+
     @Test
     void charset_parsing() {
         assertNull(Headers.extractQuotedValueFromHeader("text/html; other-data=\"charset=UTF-8\"", "charset"));
@@ -96,4 +111,32 @@ class HeadersTest {
         assertNull(Headers.extractQuotedValueFromHeader("multipart/form-data; boundary=--xyz; param\t=abc", "param"));
         assertEquals("ab", Headers.extractQuotedValueFromHeader("multipart/form-data; boundary=--xyz; param=ab\tc", "param"));
     }
+
+    @Test
+    void retrieve_headers_from_raw_bytes() {
+        final var raw = "content-typetext/plainX-Custom-Headerv\u00e1lue".getBytes(UTF_8);
+        final var ranges = new int[] {0, 12, 12, 22, 22, 37, 37, raw.length};
+        final var headers = new Headers(raw, ranges, 2, UTF_8);
+
+        assertEquals("text/plain", headers.getHeader(Headers.CONTENT_TYPE));
+        assertEquals("v\u00e1lue", headers.getHeader("x-custom-header"));
+        assertEquals(Arrays.asList("content-type", "x-custom-header"), headers.getHeaderNames());
+        assertNull(headers.getHeader(Headers.CONTENT_DISPOSITION));
+    }
+
+    @Test
+    void extract_disposition_parameters() {
+        assertArrayEquals(new String[] {"field", "file.txt"},
+                Headers.extractDispositionParameters("form-data; name=\"field\"; filename=\"file.txt\""));
+        assertArrayEquals(new String[] {"field", "file.txt"},
+                Headers.extractDispositionParameters("form-data; filename=\"file.txt\"; name=\"field\""));
+        assertArrayEquals(new String[] {"field", null},
+                Headers.extractDispositionParameters("form-data; name=field"));
+        assertArrayEquals(new String[] {"a;b", "c d"},
+                Headers.extractDispositionParameters("form-data;name=\"a;b\";\tfilename=\"c d\""));
+        assertArrayEquals(new String[] {null, null},
+                Headers.extractDispositionParameters("form-data; name\t=field"));
+        assertArrayEquals(new String[] {"", ""},
+                Headers.extractDispositionParameters("form-data; name=; filename=\"\""));
+    }
 }
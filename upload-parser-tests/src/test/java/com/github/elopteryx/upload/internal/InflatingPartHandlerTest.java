@@ -0,0 +1,208 @@
+package com.github.elopteryx.upload.internal;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.elopteryx.upload.errors.MultipartException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+class InflatingPartHandlerTest {
+
+    private static final byte[] CONTENT = content();
+
+    private static byte[] content() {
+        final var random = new Random(42);
+        final var builder = new StringBuilder();
+        while (builder.length() < 100_000) {
+            builder.append("line ").append(random.nextInt(1000)).append(" of the compressed part\r\n");
+        }
+        return builder.toString().getBytes(ISO_8859_1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 1024, 100_000})
+    void decompress_gzip_in_chunks(final int chunkSize) throws IOException {
+        final var handler = parse(multipart("gzip", gzip(CONTENT)), chunkSize, 1024, true);
+        assertEquals(1, handler.parts.size());
+        assertArrayEquals(CONTENT, handler.parts.get(0));
+        assertEquals(1, handler.ended);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 1024, 100_000})
+    void decompress_deflate_in_chunks(final int chunkSize) throws IOException {
+        final var handler = parse(multipart("deflate", zlib(CONTENT)), chunkSize, 1024, true);
+        assertArrayEquals(CONTENT, handler.parts.get(0));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3, 1024})
+    void decompress_gzip_with_optional_header_fields(final int chunkSize) throws IOException {
+        final var header = new ByteArrayOutputStream();
+        // Magic, method, all optional fields, time, flags and OS
+        header.write(new byte[] {0x1F, (byte) 0x8B, 8, 2 | 4 | 8 | 16, 0, 0, 0, 0, 0, 3});
+        header.write(new byte[] {3, 0, 'a', 'b', 'c'});
+        header.write("file.txt\0".getBytes(ISO_8859_1));
+        header.write("comment\0".getBytes(ISO_8859_1));
+        header.write(new byte[] {0x12, 0x34});
+        final var gzip = gzip(CONTENT);
+        header.write(gzip, 10, gzip.length - 10);
+
+        final var handler = parse(multipart("x-gzip", header.toByteArray()), chunkSize, 1024, true);
+        assertArrayEquals(CONTENT, handler.parts.get(0));
+    }
+
+    @Test
+    void decompress_gzip_with_several_members() throws IOException {
+        final var members = new ByteArrayOutputStream();
+        members.write(gzip(Arrays.copyOf(CONTENT, 1000)));
+        members.write(gzip(Arrays.copyOfRange(CONTENT, 1000, CONTENT.length)));
+
+        final var handler = parse(multipart("gzip", members.toByteArray()), 100, 1024, true);
+        assertArrayEquals(CONTENT, handler.parts.get(0));
+    }
+
+    @Test
+    void decompress_several_parts_with_the_same_handler() throws IOException {
+        final var body = new ByteArrayOutputStream();
+        body.write(part("gzip", gzip(CONTENT)));
+        body.write(part(null, "plain".getBytes(ISO_8859_1)));
+        body.write(part("deflate", zlib(CONTENT)));
+        body.write(part("gzip", new byte[0]));
+        body.write("--boundary--\r\n".getBytes(ISO_8859_1));
+
+        final var handler = parse(body.toByteArray(), 512, 1024, true);
+        assertEquals(4, handler.parts.size());
+        assertArrayEquals(CONTENT, handler.parts.get(0));
+        assertEquals("plain", new String(handler.parts.get(1), ISO_8859_1));
+        assertArrayEquals(CONTENT, handler.parts.get(2));
+        assertEquals(0, handler.parts.get(3).length);
+        assertEquals(4, handler.ended);
+    }
+
+    @Test
+    void pass_the_compressed_data_when_disabled() throws IOException {
+        final var gzip = gzip(CONTENT);
+        final var handler = parse(multipart("gzip", gzip), 1024, 1024, false);
+        assertArrayEquals(gzip, handler.parts.get(0));
+    }
+
+    @Test
+    void output_is_passed_in_bounded_chunks() throws IOException {
+        final var handler = parse(multipart("gzip", gzip(new byte[1_000_000])), 100_000, 256, true);
+        assertEquals(1_000_000, handler.parts.get(0).length);
+        assertTrue(handler.largestChunk <= 256);
+    }
+
+    @Test
+    void truncated_data_is_rejected() throws IOException {
+        final var gzip = gzip(CONTENT);
+        final var data = multipart("gzip", Arrays.copyOf(gzip, gzip.length / 2));
+        assertThrows(MultipartException.class, () -> parse(data, 1024, 1024, true));
+    }
+
+    @Test
+    void invalid_checksum_is_rejected() throws IOException {
+        final var gzip = gzip(CONTENT);
+        gzip[gzip.length - 8] ^= 1;
+        final var data = multipart("gzip", gzip);
+        assertThrows(MultipartException.class, () -> parse(data, 1024, 1024, true));
+    }
+
+    @Test
+    void invalid_data_is_rejected() throws IOException {
+        final var data = multipart("deflate", "not compressed at all".getBytes(ISO_8859_1));
+        assertThrows(MultipartException.class, () -> parse(data, 1024, 1024, true));
+        final var gzipData = multipart("gzip", "not compressed at all".getBytes(ISO_8859_1));
+        assertThrows(MultipartException.class, () -> parse(gzipData, 1024, 1024, true));
+    }
+
+    private static TestPartHandler parse(final byte[] data, final int chunkSize, final int bufferSize,
+                                         final boolean decompress) throws IOException {
+        final var handler = new TestPartHandler();
+        final var parser = MultipartParser.beginParse(handler, "boundary".getBytes(ISO_8859_1), bufferSize, ISO_8859_1);
+        parser.setPartDecompression(decompress);
+        for (var position = 0; position < data.length; position += chunkSize) {
+            parser.parse(ByteBuffer.wrap(data, position, Math.min(chunkSize, data.length - position)));
+        }
+        assertTrue(parser.isComplete());
+        return handler;
+    }
+
+    private static byte[] multipart(final String contentEncoding, final byte[] content) throws IOException {
+        final var body = new ByteArrayOutputStream();
+        body.write(part(contentEncoding, content));
+        body.write("--boundary--\r\n".getBytes(ISO_8859_1));
+        return body.toByteArray();
+    }
+
+    private static byte[] part(final String contentEncoding, final byte[] content) throws IOException {
+        final var part = new ByteArrayOutputStream();
+        part.write(("--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n"
+                + (contentEncoding == null ? "" : "Content-Encoding: " + contentEncoding + "\r\n")
+                + "\r\n").getBytes(ISO_8859_1));
+        part.write(content);
+        part.write("\r\n".getBytes(ISO_8859_1));
+        return part.toByteArray();
+    }
+
+    private static byte[] gzip(final byte[] content) throws IOException {
+        final var output = new ByteArrayOutputStream();
+        try (var stream = new GZIPOutputStream(output)) {
+            stream.write(content);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] zlib(final byte[] content) throws IOException {
+        final var output = new ByteArrayOutputStream();
+        try (var stream = new DeflaterOutputStream(output, new Deflater(Deflater.BEST_COMPRESSION))) {
+            stream.write(content);
+        }
+        return output.toByteArray();
+    }
+
+    private static class TestPartHandler implements MultipartParser.PartHandler {
+
+        private final List<byte[]> parts = new ArrayList<>();
+        private ByteArrayOutputStream current;
+        private int largestChunk;
+        private int ended;
+
+        @Override
+        public void beginPart(final Headers headers) {
+            current = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void data(final ByteBuffer buffer) {
+            largestChunk = Math.max(largestChunk, buffer.remaining());
+            while (buffer.hasRemaining()) {
+                current.write(buffer.get());
+            }
+        }
+
+        @Override
+        public void endPart() {
+            parts.add(current.toByteArray());
+            ended++;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.github.elopteryx.upload.internal;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import com.github.elopteryx.upload.StreamingPart;
+import com.github.elopteryx.upload.UploadParser;
+import com.github.elopteryx.upload.errors.MultipartException;
+import com.github.elopteryx.upload.errors.PartSizeException;
+import com.github.elopteryx.upload.errors.RequestSizeException;
+import com.github.elopteryx.upload.util.Servlets;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+class IteratingUploadParserTest {
+
+    private static final byte[] LARGE_CONTENT = new byte[256 * 1024];
+
+    static {
+        for (var i = 0; i < LARGE_CONTENT.length; i++) {
+            LARGE_CONTENT[i] = (byte) ('a' + i % 26);
+        }
+    }
+
+    private static final String BODY = "--boundary\r\n"
+            + "Content-Disposition: form-data; name=\"field\"\r\n"
+            + "\r\n"
+            + "value\r\n"
+            + "--boundary\r\n"
+            + "Content-Disposition: form-data; name=\"file\"; filename=\"large.txt\"\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "\r\n"
+            + new String(LARGE_CONTENT, ISO_8859_1) + "\r\n"
+            + "--boundary\r\n"
+            + "Content-Disposition: form-data; name=\"empty\"\r\n"
+            + "\r\n"
+            + "\r\n"
+            + "--boundary--\r\n";
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 1024, 100_000})
+    void iterate_parts_in_chunks(final int chunkSize) throws Exception {
+        final var parts = UploadParser.newParser()
+                .maxBytesUsed(1024)
+                .iterate(newRequest(BODY, chunkSize));
+
+        assertTrue(parts.hasNext());
+        final var field = parts.next();
+        assertEquals("field", field.getName());
+        assertFalse(field.isFile());
+        assertArrayEquals("value".getBytes(ISO_8859_1), readFully(field, 3));
+        assertTrue(field.isFinished());
+        assertEquals(5, field.getKnownSize());
+
+        assertTrue(parts.hasNext());
+        final var file = parts.next();
+        assertEquals("file", file.getName());
+        assertEquals("large.txt", file.getSubmittedFileName());
+        assertEquals("text/plain", file.getContentType());
+        assertArrayEquals(LARGE_CONTENT, readFully(file, 4096));
+        assertEquals(LARGE_CONTENT.length, file.getKnownSize());
+
+        final var empty = parts.next();
+        assertEquals("empty", empty.getName());
+        assertEquals(-1, empty.getInputStream().read());
+
+        assertFalse(parts.hasNext());
+        assertThrows(NoSuchElementException.class, parts::next);
+    }
+
+    @Test
+    void moving_to_the_next_part_skips_the_unread_data() throws Exception {
+        final var parts = UploadParser.newParser()
+                .maxBytesUsed(1024)
+                .iterate(newRequest(BODY, 512));
+
+        parts.next();
+        final var file = parts.next();
+        final var buffer = ByteBuffer.allocate(16);
+        assertEquals(16, file.getChannel().read(buffer));
+        assertArrayEquals(Arrays.copyOf(LARGE_CONTENT, 16), buffer.array());
+
+        final var empty = parts.next();
+        assertEquals("empty", empty.getName());
+        assertFalse(file.getChannel().isOpen());
+        assertThrows(ClosedChannelException.class, () -> file.getChannel().read(ByteBuffer.allocate(16)));
+        assertFalse(parts.hasNext());
+    }
+
+    @Test
+    void read_through_the_input_stream() throws Exception {
+        final var parts = UploadParser.newParser()
+                .iterate(newRequest(BODY, 100));
+
+        parts.next();
+        final var file = parts.next();
+        try (var stream = file.getInputStream()) {
+            assertArrayEquals(LARGE_CONTENT, stream.readAllBytes());
+        }
+    }
+
+    @Test
+    void part_size_is_checked_during_the_read() throws Exception {
+        final var parts = UploadParser.newParser()
+                .maxPartSize(1024)
+                .iterate(newRequest(BODY, 100));
+
+        assertArrayEquals("value".getBytes(ISO_8859_1), readFully(parts.next(), 8));
+        final var file = parts.next();
+        final var exception = assertThrows(PartSizeException.class, () -> readFully(file, 8));
+        assertEquals(1024, exception.getPermittedSize());
+    }
+
+    @Test
+    void truncated_stream_fails_the_iteration() throws Exception {
+        final var parts = UploadParser.newParser()
+                .iterate(newRequest(BODY.substring(0, 200), 100));
+
+        final var field = parts.next();
+        assertNull(field.getSubmittedFileName());
+        final var exception = assertThrows(UncheckedIOException.class, () -> {
+            parts.next();
+            parts.hasNext();
+        });
+        assertTrue(exception.getCause() instanceof MultipartException);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 1024, 100_000})
+    void iterate_a_compressed_request(final int chunkSize) throws Exception {
+        final var compressed = gzip(BODY.getBytes(ISO_8859_1));
+        final var request = newRequest(compressed, chunkSize);
+        when(request.getHeader(Headers.CONTENT_ENCODING)).thenReturn("gzip");
+        final var parts = UploadParser.newParser()
+                .maxBytesUsed(1024)
+                .iterate(request);
+
+        assertArrayEquals("value".getBytes(ISO_8859_1), readFully(parts.next(), 8));
+        assertArrayEquals(LARGE_CONTENT, readFully(parts.next(), 4096));
+        assertEquals("empty", parts.next().getName());
+        assertFalse(parts.hasNext());
+    }
+
+    @Test
+    void decompressed_request_size_is_limited() throws Exception {
+        final var compressed = gzip(BODY.getBytes(ISO_8859_1));
+        final var request = newRequest(compressed, 1024);
+        when(request.getHeader(Headers.CONTENT_ENCODING)).thenReturn("gzip");
+        when(request.getContentLengthLong()).thenReturn((long) compressed.length);
+        final var parts = UploadParser.newParser()
+                .maxRequestSize(64 * 1024)
+                .iterate(request);
+
+        final var exception = assertThrows(RequestSizeException.class, () -> {
+            while (parts.hasNext()) {
+                readFully(parts.next(), 4096);
+            }
+        });
+        assertEquals(64 * 1024, exception.getPermittedSize());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"part", "request", "nested"})
+    void compressed_part_is_staged_one_buffer_at_a_time(final String layout) throws Exception {
+        final var content = new byte[4 * 1024 * 1024];
+        final var nested = "nested".equals(layout);
+        final var body = new ByteArrayOutputStream();
+        if (nested) {
+            body.write(("--boundary\r\n"
+                    + "Content-Disposition: form-data; name=\"files\"\r\n"
+                    + "Content-Type: multipart/mixed; boundary=inner\r\n"
+                    + "\r\n"
+                    + "--inner\r\n"
+                    + "Content-Disposition: file; filename=\"zeros.bin\"\r\n").getBytes(ISO_8859_1));
+        } else {
+            body.write(("--boundary\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"zeros.bin\"\r\n").getBytes(ISO_8859_1));
+        }
+        body.write("Content-Encoding: gzip\r\n\r\n".getBytes(ISO_8859_1));
+        body.write(gzip(content));
+        body.write(((nested ? "\r\n--inner--" : "") + "\r\n--boundary--\r\n").getBytes(ISO_8859_1));
+        final var compressedRequest = "request".equals(layout);
+        final var request = newRequest(compressedRequest ? gzip(body.toByteArray()) : body.toByteArray(), 100_000);
+        if (compressedRequest) {
+            when(request.getHeader(Headers.CONTENT_ENCODING)).thenReturn("gzip");
+        }
+        final var parts = UploadParser.newParser()
+                .maxBytesUsed(1024)
+                .decompressParts(true)
+                .iterate(request);
+
+        final var file = parts.next();
+        final var buffer = ByteBuffer.allocate(64 * 1024);
+        var total = 0;
+        int count;
+        while ((count = file.getChannel().read(buffer)) != -1) {
+            assertTrue(count <= 2 * 1024, "Staged " + count + " bytes");
+            total += count;
+            buffer.clear();
+        }
+        assertEquals(content.length, total);
+        assertEquals(content.length, file.getKnownSize());
+        assertFalse(parts.hasNext());
+    }
+
+    @Test
+    void unsupported_content_encoding_is_rejected() throws Exception {
+        final var request = newRequest(BODY, 1024);
+        when(request.getHeader(Headers.CONTENT_ENCODING)).thenReturn("br");
+        assertThrows(IllegalArgumentException.class, () -> UploadParser.newParser().iterate(request));
+    }
+
+    private static byte[] gzip(final byte[] data) throws IOException {
+        final var output = new ByteArrayOutputStream();
+        try (var stream = new GZIPOutputStream(output)) {
+            stream.write(data);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] readFully(final StreamingPart part, final int bufferSize) throws IOException {
+        final var output = new ByteArrayOutputStream();
+        final var buffer = ByteBuffer.allocate(bufferSize);
+        while (part.getChannel().read(buffer) != -1) {
+            output.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        return output.toByteArray();
+    }
+
+    private static HttpServletRequest newRequest(final String body, final int chunkSize) throws Exception {
+        return newRequest(body.getBytes(ISO_8859_1), chunkSize);
+    }
+
+    private static HttpServletRequest newRequest(final byte[] body, final int chunkSize) throws Exception {
+        final var request = Servlets.newRequest();
+        when(request.getContentType()).thenReturn("multipart/form-data; boundary=boundary");
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn("multipart/form-data; boundary=boundary");
+        when(request.getInputStream()).thenReturn(new ChunkedInputStream(body, chunkSize));
+        return request;
+    }
+
+    /**
+     * Returns the data in chunks, like a network stream would.
+     */
+    private static class ChunkedInputStream extends ServletInputStream {
+
+        private final ByteArrayInputStream source;
+
+        private final int chunkSize;
+
+        ChunkedInputStream(final byte[] data, final int chunkSize) {
+            this.source = new ByteArrayInputStream(data);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read() {
+            return source.read();
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            return source.read(bytes, offset, Math.min(length, chunkSize));
+        }
+
+        @Override
+        public boolean isFinished() {
+            return source.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(final ReadListener readListener) {
+            // Not used in blocking mode
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.elopteryx.upload.internal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Compares the kernels, vectorized or not, depending on the runtime, with the scalar implementations.
+ */
+class KernelsTest {
+
+    private static final byte[] INVALID_CHARACTERS = {'\r', '\n', '=', '!', (byte) 0xE9};
+
+    @Test
+    void decode_base64_groups() {
+        final var random = new Random(7);
+        for (var round = 0; round < 5000; round++) {
+            final var data = new byte[random.nextInt(400)];
+            random.nextBytes(data);
+            final var encoded = Base64.getEncoder().encode(data);
+            if (encoded.length > 0 && random.nextInt(4) == 0) {
+                encoded[random.nextInt(encoded.length)] = INVALID_CHARACTERS[random.nextInt(INVALID_CHARACTERS.length)];
+            }
+            final var groups = random.nextInt(encoded.length / 4 + 1);
+            final var expected = new byte[groups * 3 + 8];
+            final var actual = new byte[groups * 3 + 8];
+
+            final var expectedCount = ScalarKernels.decodeBase64Groups(encoded, 0, expected, 4, groups);
+            final var actualCount = Kernels.decodeBase64Groups(encoded, 0, actual, 4, groups);
+
+            assertEquals(expectedCount, actualCount);
+            assertArrayEquals(Arrays.copyOf(expected, 4 + expectedCount * 3), Arrays.copyOf(actual, 4 + actualCount * 3));
+            // Nothing may be written after the room of the groups
+            assertArrayEquals(new byte[4], Arrays.copyOfRange(actual, 4 + groups * 3, actual.length));
+        }
+    }
+
+    @Test
+    void index_of() {
+        final var random = new Random(11);
+        for (var round = 0; round < 5000; round++) {
+            final var array = new byte[random.nextInt(300)];
+            for (var i = 0; i < array.length; i++) {
+                array[i] = random.nextInt(50) == 0 ? (byte) '=' : (byte) ('a' + random.nextInt(26));
+            }
+            final var from = random.nextInt(array.length + 1);
+            final var to = from + random.nextInt(array.length - from + 1);
+            assertEquals(ScalarKernels.indexOf(array, from, to, (byte) '='), Kernels.indexOf(array, from, to, (byte) '='));
+        }
+    }
+}
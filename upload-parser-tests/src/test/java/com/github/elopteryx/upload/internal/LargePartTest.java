@@ -0,0 +1,105 @@
+package com.github.elopteryx.upload.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import com.github.elopteryx.upload.PartOutput;
+import com.github.elopteryx.upload.UploadParser;
+import com.github.elopteryx.upload.errors.PartSizeException;
+import com.github.elopteryx.upload.util.Servlets;
+import com.github.elopteryx.upload.util.SyntheticMultipartStream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Streams parts larger than the range of an int through the parser. The
+ * data is generated on the fly and only counted, so nothing is materialized.
+ * Pushing gigabytes takes a while, so these are only run by the largeTest task.
+ */
+@Tag("large")
+class LargePartTest {
+
+    private static final long FIVE_GIGABYTES = 5L * 1024 * 1024 * 1024 + 13;
+
+    @Test
+    void parse_a_part_over_four_gigabytes() throws Exception {
+        final var output = new VerifyingChannel();
+        final var errors = new Throwable[1];
+        final var context = UploadParser.newParser()
+                .maxBytesUsed(256 * 1024)
+                .sizeThreshold(1024)
+                .maxPartSize(FIVE_GIGABYTES)
+                .onPartBegin((ctx, buffer) -> PartOutput.from(output))
+                .onError((ctx, throwable) -> errors[0] = throwable)
+                .doBlockingParse(newRequest(FIVE_GIGABYTES));
+
+        assertNull(errors[0]);
+        assertEquals(FIVE_GIGABYTES, output.count);
+        final var part = context.getPartStreams().get(0);
+        assertTrue(part.isFinished());
+        assertEquals(FIVE_GIGABYTES, part.getKnownSize());
+    }
+
+    @Test
+    void part_size_is_limited_above_two_gigabytes() throws Exception {
+        final var limit = Integer.MAX_VALUE + 100L;
+        final var errors = new Throwable[1];
+        UploadParser.newParser()
+                .maxBytesUsed(256 * 1024)
+                .maxPartSize(limit)
+                .onPartBegin((ctx, buffer) -> PartOutput.from(new VerifyingChannel()))
+                .onError((ctx, throwable) -> errors[0] = throwable)
+                .doBlockingParse(newRequest(3L * 1024 * 1024 * 1024));
+
+        assertTrue(errors[0] instanceof PartSizeException);
+        final var exception = (PartSizeException) errors[0];
+        assertEquals(limit, exception.getPermittedSize());
+        assertTrue(exception.getActualSize() > limit);
+    }
+
+    private static HttpServletRequest newRequest(final long partSize) throws Exception {
+        final var stream = new SyntheticMultipartStream(partSize);
+        final var request = Servlets.newRequest();
+        final var contentType = "multipart/form-data; boundary=" + SyntheticMultipartStream.BOUNDARY;
+        when(request.getContentType()).thenReturn(contentType);
+        when(request.getHeader(Headers.CONTENT_TYPE)).thenReturn(contentType);
+        when(request.getContentLengthLong()).thenReturn(stream.getLength());
+        when(request.getInputStream()).thenReturn(stream);
+        return request;
+    }
+
+    /**
+     * Counts the written bytes and checks the first byte of every write.
+     */
+    private static class VerifyingChannel implements WritableByteChannel {
+
+        private long count;
+
+        @Override
+        public int write(final ByteBuffer src) {
+            final var length = src.remaining();
+            if (length > 0) {
+                assertEquals(SyntheticMultipartStream.expectedByte(count), src.get(src.position()));
+            }
+            src.position(src.limit());
+            count += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close
+        }
+    }
+}
@@ -4,17 +4,24 @@ import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import com.github.elopteryx.upload.errors.MultipartException;
 import io.undertow.util.FileUtils;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Random;
 
 class MultipartParserTest {
 
@@ -106,6 +113,67 @@ class MultipartParserTest {
         assertEquals("text/plain", handler.parts.get(0).map.getHeader(Headers.CONTENT_TYPE));
     }
 
+    @ParameterizedTest
+    @MethodSource("bufferSizeProvider")
+    void mime_decoding_with_direct_buffers(final int bufferSize) throws IOException {
+        final var data = fixLineEndings(FileUtils.readFile(MultipartParserTest.class, "mime4.txt")).getBytes();
+        final var handler = new TestPartHandler();
+        final var parser = MultipartParser.beginParse(handler, "someboundarytext".getBytes(), bufferSize, ISO_8859_1, true);
+
+        final var buf = ByteBuffer.allocateDirect(bufferSize);
+        for (var position = 0; position < data.length; position += bufferSize) {
+            buf.clear();
+            buf.put(data, position, Math.min(bufferSize, data.length - position));
+            buf.flip();
+            parser.parse(buf);
+        }
+        assertTrue(parser.isComplete());
+        assertEquals(1, handler.parts.size());
+        assertEquals("time=money.", handler.parts.get(0).data.toString());
+    }
+
+    @ParameterizedTest
+    @MethodSource("bufferSizeProvider")
+    void nested_multipart_mixed(final int bufferSize) throws IOException {
+        final var data = fixLineEndings(FileUtils.readFile(MultipartParserTest.class, "mime8_nested.txt"));
+        final var handler = new TestPartHandler();
+        final var parser = MultipartParser.beginParse(handler, "AaB03x".getBytes(), bufferSize, ISO_8859_1);
+
+        final var buf = ByteBuffer.wrap(data.getBytes());
+        parser.parse(buf);
+        assertTrue(parser.isComplete());
+        assertEquals(3, handler.parts.size());
+        assertEquals("Larry", handler.parts.get(0).data.toString());
+        assertEquals("... contents of file1.txt ...", handler.parts.get(1).data.toString());
+        assertEquals("... contents of file2.txt ...", handler.parts.get(2).data.toString());
+
+        final var field = handler.parts.get(0).map;
+        assertEquals(0, field.getDepth());
+        assertNull(field.getParent());
+        final var file = handler.parts.get(1).map;
+        assertEquals(1, file.getDepth());
+        assertEquals("file; filename=\"file1.txt\"", file.getHeader(Headers.CONTENT_DISPOSITION));
+        assertEquals("form-data; name=\"files\"", file.getParent().getHeader(Headers.CONTENT_DISPOSITION));
+        assertEquals(1, handler.parts.get(2).map.getDepth());
+    }
+
+    @Test
+    void nested_multipart_mixed_without_closing_boundary() {
+        final var data = "--outer\r\n"
+                + "Content-Disposition: form-data; name=\"files\"\r\n"
+                + "Content-Type: multipart/mixed; boundary=\"inner\"\r\n\r\n"
+                + "--inner\r\n"
+                + "Content-Disposition: file; filename=\"file1.txt\"\r\n\r\n"
+                + "truncated\r\n"
+                + "--outer--\r\n";
+        final var handler = new TestPartHandler();
+        final var parser = MultipartParser.beginParse(handler, "outer".getBytes(), 1024, ISO_8859_1);
+
+        assertThrows(MultipartException.class, () -> parser.parse(ByteBuffer.wrap(data.getBytes())));
+        assertEquals(1, handler.parts.size());
+        assertEquals("truncated", handler.parts.get(0).data.toString());
+    }
+
     @ParameterizedTest
     @MethodSource("bufferSizeProvider")
     void mime_decoding_malformed(final int bufferSize) throws IOException {
@@ -140,15 +208,162 @@ class MultipartParserTest {
         parser.parse(buf);
         assertTrue(parser.isComplete());
         assertEquals(1, handler.parts.size());
-        assertEquals("time\nmoney.", handler.parts.get(0).data.toString());
+        assertEquals("timemoney.", handler.parts.get(0).data.toString());
 
         assertEquals("text/plain", handler.parts.get(0).map.getHeader(Headers.CONTENT_TYPE));
     }
 
+    @ParameterizedTest
+    @MethodSource("bufferSizeProvider")
+    void boundary_like_data_split_across_buffers(final int bufferSize) throws IOException {
+        final var content = "a\r\n--unique\r\r\n--unique-boundary\n\r\n-\r\n--unique-boundary-\r\n--unique-boundary-2 end";
+        final var data = "--unique-boundary-1\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "\r\n"
+                + content
+                + "\r\n--unique-boundary-1\r\n"
+                + "\r\n"
+                + "\r\n--unique-boundary-1--\r\n";
+        final var handler = new TestPartHandler();
+        final var parser = MultipartParser.beginParse(handler, "unique-boundary-1".getBytes(), bufferSize, ISO_8859_1);
+
+        final var bytes = data.getBytes(ISO_8859_1);
+        for (var i = 0; i < bytes.length; i += bufferSize) {
+            parser.parse(ByteBuffer.wrap(bytes, i, Math.min(bufferSize, bytes.length - i)));
+        }
+        assertTrue(parser.isComplete());
+        assertEquals(2, handler.parts.size());
+        assertEquals(content, handler.parts.get(0).data.toString());
+        assertEquals("", handler.parts.get(1).data.toString());
+    }
+
+    @ParameterizedTest
+    @MethodSource("bufferSizeProvider")
+    void headers_split_across_buffers(final int bufferSize) throws IOException {
+        final var data = "--unique-boundary-1\r\n"
+                + "content-DISPOSITION: form-data; name=\"field\"\r\n"
+                + "CONTENT-TYPE :  text/plain \r\n"
+                + "X-Custom-Header: \u00e1rv\u00edzt\u0171r\u0151\r\n"
+                + "\r\n"
+                + "value"
+                + "\r\n--unique-boundary-1--\r\n";
+        final var handler = new TestPartHandler();
+        final var parser = MultipartParser.beginParse(handler, "unique-boundary-1".getBytes(), bufferSize, UTF_8);
+
+        final var bytes = data.getBytes(UTF_8);
+        for (var i = 0; i < bytes.length; i += bufferSize) {
+            parser.parse(ByteBuffer.wrap(bytes, i, Math.min(bufferSize, bytes.length - i)));
+        }
+        assertTrue(parser.isComplete());
+        assertEquals(1, handler.parts.size());
+        final var headers = handler.parts.get(0).map;
+        assertEquals("form-data; name=\"field\"", headers.getHeader(Headers.CONTENT_DISPOSITION));
+        assertEquals("text/plain", headers.getHeader(Headers.CONTENT_TYPE));
+        assertEquals("\u00e1rv\u00edzt\u0171r\u0151", headers.getHeader("x-custom-header"));
+        assertEquals(List.of("content-disposition", "content-type", "x-custom-header"), List.copyOf(headers.getHeaderNames()));
+        assertEquals("value", handler.parts.get(0).data.toString());
+    }
+
+    @Test
+    void false_boundary_fragments_do_not_multiply_callbacks() throws IOException {
+        // Every chunk ends with the beginning of the boundary, which the next chunk does not continue
+        final var chunk = "0123456789\r\n--un";
+        final var chunkCount = 1024;
+        final var handler = new TestPartHandler();
+        final var parser = MultipartParser.beginParse(handler, "unique-boundary-1".getBytes(), chunk.length(), ISO_8859_1);
+
+        parser.parse(ByteBuffer.wrap("--unique-boundary-1\r\nContent-Type: text/plain\r\n\r\n".getBytes(ISO_8859_1)));
+        for (var i = 0; i < chunkCount; i++) {
+            parser.parse(ByteBuffer.wrap(chunk.getBytes(ISO_8859_1)));
+        }
+        parser.parse(ByteBuffer.wrap("\r\n--unique-boundary-1--\r\n".getBytes(ISO_8859_1)));
+
+        assertTrue(parser.isComplete());
+        assertEquals(1, handler.parts.size());
+        assertEquals(chunk.repeat(chunkCount), handler.parts.get(0).data.toString());
+        assertTrue(handler.dataCalls <= chunkCount + 1);
+    }
+
+    @Test
+    void steady_state_parsing_does_not_allocate_per_chunk() throws IOException {
+        final var threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        final var allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        assumeTrue(allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled());
+
+        final var random = new Random(42);
+        final var content = new byte[1024 * 1024];
+        random.nextBytes(content);
+        final var body = new StringBuilder()
+                .append("--boundary\r\n")
+                .append("Content-Disposition: form-data; name=\"raw\"; filename=\"raw.bin\"\r\n")
+                .append("Content-Type: application/octet-stream\r\n\r\n")
+                .append(new String(content, ISO_8859_1))
+                .append("\r\n--boundary\r\n")
+                .append("Content-Disposition: form-data; name=\"encoded\"; filename=\"encoded.bin\"\r\n")
+                .append("Content-Transfer-Encoding: base64\r\n\r\n")
+                .append(Base64.getMimeEncoder().encodeToString(content))
+                .append("\r\n--boundary--\r\n")
+                .toString()
+                .getBytes(ISO_8859_1);
+
+        final var chunkSize = 1024;
+        final var handler = new CountingPartHandler();
+        final var parser = MultipartParser.beginParse(handler, "boundary".getBytes(ISO_8859_1), chunkSize, ISO_8859_1);
+        final var buffer = ByteBuffer.wrap(body);
+        final var threadId = Thread.currentThread().getId();
+
+        final var iterations = 8;
+        var allocated = 0L;
+        for (var i = -iterations; i < iterations; i++) {
+            // The first half only warms up the parser
+            final var before = allocationBean.getThreadAllocatedBytes(threadId);
+            parser.reset();
+            handler.bytes = 0;
+            for (var position = 0; position < body.length; position += chunkSize) {
+                buffer.limit(Math.min(body.length, position + chunkSize));
+                buffer.position(position);
+                parser.parse(buffer);
+            }
+            final var after = allocationBean.getThreadAllocatedBytes(threadId);
+            assertTrue(parser.isComplete());
+            assertEquals(2L * content.length, handler.bytes);
+            if (i >= 0) {
+                allocated += after - before;
+            }
+        }
+
+        final var megabytes = (double) iterations * body.length / (1024 * 1024);
+        final var allocatedPerMegabyte = allocated / megabytes;
+        assertTrue(allocatedPerMegabyte < 2048, "Allocated " + allocatedPerMegabyte + " bytes per parsed MB");
+    }
+
+    private static class CountingPartHandler implements MultipartParser.PartHandler {
+
+        private long bytes;
+
+        @Override
+        public void beginPart(final Headers headers) {
+            // No-op
+        }
+
+        @Override
+        public void data(final ByteBuffer buffer) {
+            bytes += buffer.remaining();
+            buffer.position(buffer.limit());
+        }
+
+        @Override
+        public void endPart() {
+            // No-op
+        }
+    }
+
     private static class TestPartHandler implements MultipartParser.PartHandler {
 
         private final List<Part> parts = new ArrayList<>();
         private Part current;
+        private int dataCalls;
 
         @Override
         public void beginPart(final Headers headers) {
@@ -158,6 +373,7 @@ class MultipartParserTest {
 
         @Override
         public void data(final ByteBuffer buffer) {
+            dataCalls++;
             while (buffer.hasRemaining()) {
                 current.data.append((char) buffer.get());
             }
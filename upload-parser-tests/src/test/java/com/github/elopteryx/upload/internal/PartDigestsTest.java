@@ -0,0 +1,117 @@
+package com.github.elopteryx.upload.internal;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.elopteryx.upload.errors.PartDigestException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+class PartDigestsTest {
+
+    private static final byte[] CONTENT = "123456789".getBytes(US_ASCII);
+
+    @Test
+    void supported_algorithms() {
+        assertTrue(PartDigests.isSupported("SHA-256"));
+        assertTrue(PartDigests.isSupported("md5"));
+        assertTrue(PartDigests.isSupported("crc32c"));
+        assertFalse(PartDigests.isSupported("NO-SUCH-DIGEST"));
+        assertFalse(PartDigests.isSupported(null));
+    }
+
+    @Test
+    void nothing_to_compute() {
+        assertNull(PartDigests.begin(new String[0], new Headers(), true));
+    }
+
+    @Test
+    void digests_are_computed() throws Exception {
+        final var part = new PartStreamImpl(null, "field", new Headers());
+        final var digests = PartDigests.begin(new String[] {"SHA-256", "CRC32C"}, part.getHeadersObject(), true);
+        final var buffer = ByteBuffer.wrap(CONTENT);
+        buffer.position(2);
+        digests.update(buffer);
+        assertEquals(2, buffer.position());
+        digests.update(ByteBuffer.wrap(CONTENT, 0, 2).slice());
+        digests.finish(part);
+
+        final var sha = MessageDigest.getInstance("SHA-256");
+        sha.update(CONTENT, 2, 7);
+        sha.update(CONTENT, 0, 2);
+        assertArrayEquals(sha.digest(), part.getDigest("sha-256"));
+        assertNull(part.getDigest("MD5"));
+
+        final var single = PartDigests.begin(new String[] {"CRC32C"}, part.getHeadersObject(), true);
+        single.update(ByteBuffer.wrap(CONTENT));
+        single.finish(part);
+        // The check value of CRC-32C
+        assertArrayEquals(new byte[] {(byte) 0xE3, 0x06, (byte) 0x92, (byte) 0x83}, part.getDigest("CRC32C"));
+    }
+
+    @Test
+    void content_md5_is_verified() throws Exception {
+        final var headers = new Headers();
+        headers.addHeader(Headers.CONTENT_MD5, Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(CONTENT)));
+        final var part = new PartStreamImpl(null, "field", headers);
+        final var digests = PartDigests.begin(new String[0], headers, true);
+        digests.update(ByteBuffer.wrap(CONTENT));
+        digests.finish(part);
+        assertNotNull(part.getDigest("MD5"));
+
+        final var other = PartDigests.begin(new String[0], headers, true);
+        other.update(ByteBuffer.wrap(CONTENT, 0, 8));
+        final var exception = assertThrows(PartDigestException.class, () -> other.finish(part));
+        assertEquals("MD5", exception.getAlgorithm());
+    }
+
+    @Test
+    void content_digest_is_verified() throws Exception {
+        final var sha256 = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(CONTENT));
+        final var sha512 = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-512").digest(CONTENT));
+        final var headers = new Headers();
+        headers.addHeader(Headers.CONTENT_DIGEST, "unixsum=:AAAA:, sha-256=:" + sha256 + ":, sha-512=:" + sha512 + ":");
+        final var part = new PartStreamImpl(null, "field", headers);
+        final var digests = PartDigests.begin(new String[0], headers, true);
+        digests.update(ByteBuffer.wrap(CONTENT));
+        digests.finish(part);
+        assertNotNull(part.getDigest("SHA-256"));
+        assertNotNull(part.getDigest("SHA-512"));
+
+        final var wrong = new Headers();
+        wrong.addHeader(Headers.CONTENT_DIGEST, "sha-256=:" + sha512 + ":");
+        final var other = PartDigests.begin(new String[0], wrong, true);
+        other.update(ByteBuffer.wrap(CONTENT));
+        final var exception = assertThrows(PartDigestException.class, () -> other.finish(part));
+        assertEquals("SHA-256", exception.getAlgorithm());
+    }
+
+    @Test
+    void headers_are_ignored_without_verification() throws Exception {
+        final var headers = new Headers();
+        headers.addHeader(Headers.CONTENT_MD5, "AAAAAAAAAAAAAAAAAAAAAA==");
+        assertNull(PartDigests.begin(new String[0], headers, false));
+        final var part = new PartStreamImpl(null, "field", headers);
+        final var digests = PartDigests.begin(new String[] {"MD5"}, headers, false);
+        digests.update(ByteBuffer.wrap(CONTENT));
+        digests.finish(part);
+        assertNotNull(part.getDigest("MD5"));
+    }
+
+    @Test
+    void parse_content_digest() {
+        final var parsed = PartDigests.parseContentDigest("sha-512=:AAAA:;p=1, SHA-256=:AQID:, md5=:AAAA:, sha-256");
+        assertEquals(2, parsed.size());
+        assertArrayEquals(new byte[] {1, 2, 3}, parsed.get("SHA-256"));
+        assertArrayEquals(new byte[] {0, 0, 0}, parsed.get("SHA-512"));
+    }
+}
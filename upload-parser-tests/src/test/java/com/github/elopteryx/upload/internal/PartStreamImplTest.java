@@ -1,12 +1,19 @@
 package com.github.elopteryx.upload.internal;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.github.elopteryx.upload.PartStream;
 import org.junit.jupiter.api.Test;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 class PartStreamImplTest {
 
     @Test
@@ -22,6 +29,17 @@ class PartStreamImplTest {
         assertEquals(contentType, partStream.getContentType());
         assertEquals(partStream.isFile(), partStream.getSubmittedFileName() != null);
         assertFalse(partStream.isFinished());
+        assertEquals(0, partStream.getDepth());
+    }
+
+    @Test
+    void nested_parts_have_a_depth() {
+        final var container = new Headers();
+        container.addHeader(Headers.CONTENT_DISPOSITION, "form-data; name=\"files\"");
+        final var headers = new Headers();
+        headers.setParent(container);
+        final PartStream partStream = new PartStreamImpl("file1.txt", "files", headers);
+        assertEquals(1, partStream.getDepth());
     }
 
     @Test
@@ -30,4 +48,80 @@ class PartStreamImplTest {
         final PartStream partStream = new PartStreamImpl(fileName, null, new Headers());
         assertThrows(IllegalArgumentException.class, partStream::getSubmittedFileName);
     }
+
+    @Test
+    void copy_has_the_state_of_the_part() {
+        final var headers = new Headers();
+        headers.addHeader(Headers.CONTENT_TYPE, "text/plain");
+        final var part = new PartStreamImpl("file.txt", "file", headers);
+        part.setSize(10);
+        part.setStoredSize(4);
+        part.setSizeHint(12);
+        part.setDigests(Map.of("SHA-256", new byte[] {1, 2}));
+        part.markAsFinished();
+        final PartStream copy = new PartStreamImpl(part) { };
+        assertEquals("file.txt", copy.getSubmittedFileName());
+        assertEquals("text/plain", copy.getContentType());
+        assertEquals(10, copy.getKnownSize());
+        assertEquals(4, copy.getStoredSize());
+        assertEquals(12, copy.getSizeHint());
+        assertArrayEquals(new byte[] {1, 2}, copy.getDigest("sha-256"));
+        assertTrue(copy.isFinished());
+    }
+
+    @Test
+    void interface_has_neutral_defaults() {
+        final PartStream partStream = new PartStream() {
+            @Override
+            public String getContentType() {
+                return null;
+            }
+
+            @Override
+            public String getName() {
+                return "name";
+            }
+
+            @Override
+            public long getKnownSize() {
+                return 5;
+            }
+
+            @Override
+            public String getSubmittedFileName() {
+                return null;
+            }
+
+            @Override
+            public boolean isFile() {
+                return false;
+            }
+
+            @Override
+            public boolean isFinished() {
+                return true;
+            }
+
+            @Override
+            public String getHeader(final String name) {
+                return null;
+            }
+
+            @Override
+            public Collection<String> getHeaders(final String name) {
+                return List.of();
+            }
+
+            @Override
+            public Collection<String> getHeaderNames() {
+                return List.of();
+            }
+        };
+        assertEquals(5, partStream.getStoredSize());
+        assertEquals(-1, partStream.getSizeHint());
+        assertEquals(0, partStream.getDepth());
+        assertTrue(partStream.getStageDurations().isEmpty());
+        assertTrue(partStream.getOutputFailures().isEmpty());
+        assertNull(partStream.getDigest("SHA-256"));
+    }
 }
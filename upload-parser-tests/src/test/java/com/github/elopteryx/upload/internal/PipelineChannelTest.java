@@ -0,0 +1,163 @@
+package com.github.elopteryx.upload.internal;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.elopteryx.upload.PartStage;
+import com.github.elopteryx.upload.PartStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+class PipelineChannelTest {
+
+    @Test
+    void observers_see_the_same_buffer() throws IOException {
+        final var seen = new ArrayList<ByteBuffer>();
+        final var output = new ByteArrayOutputStream();
+        final var target = Channels.newChannel(output);
+        final var last = new ByteBuffer[1];
+        final var channel = new PipelineChannel(List.of(
+                (buffer, next) -> {
+                    seen.add(buffer);
+                    next.write(buffer);
+                },
+                (buffer, next) -> {
+                    seen.add(buffer);
+                    next.write(buffer);
+                }), new WritableByteChannel() {
+                    @Override
+                    public int write(final ByteBuffer src) throws IOException {
+                        last[0] = src;
+                        return target.write(src);
+                    }
+
+                    @Override
+                    public boolean isOpen() {
+                        return target.isOpen();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        target.close();
+                    }
+                });
+        final var buffer = ByteBuffer.wrap("content".getBytes(US_ASCII));
+        assertEquals(7, channel.write(buffer));
+        channel.close();
+
+        assertSame(buffer, seen.get(0));
+        assertSame(buffer, seen.get(1));
+        assertSame(buffer, last[0]);
+        assertEquals("content", output.toString(US_ASCII));
+    }
+
+    @Test
+    void stages_are_called_in_order() throws IOException {
+        final var output = new ByteArrayOutputStream();
+        final var calls = new ArrayList<String>();
+        final var channel = new PipelineChannel(List.of(new Wrapping("a", calls), new Wrapping("b", calls)),
+                Channels.newChannel(output));
+        channel.begin(null);
+        channel.write(ByteBuffer.wrap("x".getBytes(US_ASCII)));
+        channel.close();
+
+        assertEquals(List.of("begin a", "begin b", "finish a", "finish b"), calls);
+        assertEquals("[b][a]xa]b]", output.toString(US_ASCII));
+        assertFalse(channel.isOpen());
+        assertThrows(ClosedChannelException.class, () -> channel.write(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    void stage_durations_exclude_the_following_stages() throws IOException {
+        final var channel = new PipelineChannel(List.of(
+                (buffer, next) -> {
+                    sleep(40);
+                    next.write(buffer);
+                },
+                (buffer, next) -> {
+                    sleep(10);
+                    next.write(buffer);
+                }), Channels.newChannel(new ByteArrayOutputStream()));
+        channel.write(ByteBuffer.allocate(8));
+        channel.close();
+
+        final var durations = channel.getStageDurations();
+        assertEquals(2, durations.size());
+        assertTrue(durations.get(0).toMillis() >= 40);
+        assertTrue(durations.get(0).toMillis() < 50 + durations.get(1).toMillis());
+        assertTrue(durations.get(1).toMillis() >= 10);
+    }
+
+    @Test
+    void observer_receives_a_read_only_view() throws IOException {
+        final var output = new ByteArrayOutputStream();
+        final var observed = new StringBuilder();
+        final var channel = new PipelineChannel(List.of(PartStage.observer(view -> {
+            assertTrue(view.isReadOnly());
+            while (view.hasRemaining()) {
+                observed.append((char) view.get());
+            }
+        })), Channels.newChannel(output));
+        channel.write(ByteBuffer.wrap("content".getBytes(US_ASCII)));
+        channel.close();
+
+        assertEquals("content", observed.toString());
+        assertEquals("content", output.toString(US_ASCII));
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a start mark before the first bytes, and an end mark when finishing.
+     */
+    private static class Wrapping implements PartStage {
+
+        private final String name;
+        private final List<String> calls;
+        private boolean started;
+
+        Wrapping(final String name, final List<String> calls) {
+            this.name = name;
+            this.calls = calls;
+        }
+
+        @Override
+        public void begin(final PartStream part) {
+            calls.add("begin " + name);
+            started = false;
+        }
+
+        @Override
+        public void process(final ByteBuffer buffer, final WritableByteChannel next) throws IOException {
+            if (!started) {
+                started = true;
+                next.write(ByteBuffer.wrap(("[" + name + "]").getBytes(US_ASCII)));
+            }
+            next.write(buffer);
+        }
+
+        @Override
+        public void finish(final WritableByteChannel next) throws IOException {
+            calls.add("finish " + name);
+            next.write(ByteBuffer.wrap((name + "]").getBytes(US_ASCII)));
+        }
+    }
+}
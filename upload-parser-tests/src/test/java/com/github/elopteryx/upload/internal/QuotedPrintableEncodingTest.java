@@ -1,12 +1,16 @@
 package com.github.elopteryx.upload.internal;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 class QuotedPrintableEncodingTest {
 
@@ -35,27 +39,76 @@ class QuotedPrintableEncodingTest {
         checkEncoding("=\r\n", "=3d=0d=0a");
     }
 
+    @Test
+    void soft_line_breaks() throws IOException {
+        checkEncoding("A long line, broken twice.\r\n", "A long line,=\r\n broken=\n twice.\r\n");
+    }
+
+    @Test
+    void escape_at_the_end_is_a_soft_line_break() throws IOException {
+        checkEncoding("The end", "The end=");
+    }
+
+    @Test
+    void invalid_escapes_are_passed_through() throws IOException {
+        checkEncoding("=G1 =4 ==", "=G1 =4 ==3D");
+        checkEncoding("Truncated =A", "Truncated =A");
+    }
+
+    @Test
+    void escapes_split_between_the_calls() throws IOException {
+        final var original = "Caf\u00e9 =\r\nna\u00efve\r\n";
+        final var encoded = "Caf=E9 =3D=\r\n=0D=0A=\r\nna=EFve\r\n";
+        for (var split = 0; split <= encoded.length(); split++) {
+            final var handler = new CollectingHandler();
+            final var encoding = new MultipartParser.QuotedPrintableEncoding(1024);
+            encoding.handle(handler, ByteBuffer.wrap(encoded.substring(0, split).getBytes(US_ASCII)));
+            encoding.handle(handler, ByteBuffer.wrap(encoded.substring(split).getBytes(US_ASCII)));
+            encoding.finish(handler);
+            assertEquals(original, handler.output.toString(ISO_8859_1), "Split at " + split);
+        }
+    }
+
+    @Test
+    void data_is_passed_when_the_buffer_is_full_or_the_part_ends() throws IOException {
+        final var handler = new CollectingHandler();
+        final var encoding = new MultipartParser.QuotedPrintableEncoding(8);
+        encoding.handle(handler, ByteBuffer.wrap("abc".getBytes(US_ASCII)));
+        encoding.handle(handler, ByteBuffer.wrap("=3D=3Ddefghij".getBytes(US_ASCII)));
+        assertEquals(List.of(8), handler.sizes);
+        encoding.finish(handler);
+        assertEquals(List.of(8, 4), handler.sizes);
+        assertEquals("abc==defghij", handler.output.toString(US_ASCII));
+    }
+
     private static void checkEncoding(final String original, final String encoded) throws IOException {
+        final var handler = new CollectingHandler();
         final var encoding = new MultipartParser.QuotedPrintableEncoding(1024);
-        encoding.handle(new MultipartParser.PartHandler() {
+        encoding.handle(handler, ByteBuffer.wrap(encoded.getBytes(US_ASCII)));
+        encoding.finish(handler);
+        assertEquals(original, handler.output.toString(ISO_8859_1));
+    }
 
-            @Override
-            public void beginPart(final Headers headers) {
-                // No-op
-            }
+    private static class CollectingHandler implements MultipartParser.PartHandler {
 
-            @Override
-            public void data(final ByteBuffer buffer) {
-                final var parserResult = new String(buffer.array(), US_ASCII).trim();
-                assertEquals(parserResult, original.trim());
-            }
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
 
-            @Override
-            public void endPart() {
-                // No-op
-            }
+        private final List<Integer> sizes = new ArrayList<>();
 
-        }, ByteBuffer.wrap(encoded.getBytes(US_ASCII)));
-    }
+        @Override
+        public void beginPart(final Headers headers) {
+            // No-op
+        }
 
+        @Override
+        public void data(final ByteBuffer buffer) {
+            sizes.add(buffer.remaining());
+            output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        @Override
+        public void endPart() {
+            // No-op
+        }
+    }
 }
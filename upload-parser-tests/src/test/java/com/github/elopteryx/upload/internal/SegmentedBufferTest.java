@@ -0,0 +1,148 @@
+package com.github.elopteryx.upload.internal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+class SegmentedBufferTest {
+
+    private static final byte[] DATA = new byte[3 * SegmentedBuffer.SEGMENT_SIZE + 100];
+
+    static {
+        for (var i = 0; i < DATA.length; i++) {
+            DATA[i] = (byte) i;
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void buffer_up_to_the_capacity(final boolean direct) throws IOException {
+        final var capacity = 2 * SegmentedBuffer.SEGMENT_SIZE + 10;
+        final var buffer = new SegmentedBuffer(capacity, direct);
+        final var source = ByteBuffer.wrap(DATA);
+        for (var position = 0; position < DATA.length; position += 1000) {
+            source.limit(Math.min(position + 1000, DATA.length));
+            buffer.put(source);
+        }
+        assertEquals(capacity, buffer.size());
+        assertEquals(capacity, source.position());
+
+        final var view = buffer.view();
+        assertTrue(view.isReadOnly());
+        assertEquals(capacity, view.remaining());
+        final var viewed = new byte[capacity];
+        view.get(viewed);
+        assertArrayEquals(Arrays.copyOf(DATA, capacity), viewed);
+
+        final var output = new ByteArrayOutputStream();
+        buffer.writeTo(Channels.newChannel(output));
+        assertArrayEquals(Arrays.copyOf(DATA, capacity), output.toByteArray());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void single_segment_is_viewed_without_copying() {
+        final var buffer = new SegmentedBuffer(100, false);
+        buffer.put(ByteBuffer.wrap(DATA, 0, 50));
+        final var view = buffer.view();
+        assertEquals(50, view.remaining());
+        assertEquals(SegmentedBuffer.SEGMENT_SIZE, view.capacity());
+        assertThrows(ReadOnlyBufferException.class, () -> view.put((byte) 0));
+    }
+
+    @Test
+    void several_segments_are_assembled_in_a_pooled_buffer() {
+        final var capacity = 2 * SegmentedBuffer.SEGMENT_SIZE + 20;
+        final var buffer = new SegmentedBuffer(capacity, false);
+        buffer.put(ByteBuffer.wrap(DATA));
+        final var first = buffer.view();
+        final var viewed = new byte[capacity];
+        first.get(viewed);
+        assertArrayEquals(Arrays.copyOf(DATA, capacity), viewed);
+        buffer.releaseView();
+
+        final var other = new SegmentedBuffer(capacity, false);
+        other.put(ByteBuffer.wrap(DATA, 1, capacity));
+        other.view();
+        other.releaseView();
+        // The view shares the memory of the assembled buffer, which came from the pool
+        assertEquals(DATA[1], first.get(0));
+        buffer.release();
+        other.release();
+    }
+
+    @Test
+    void empty_buffer() throws IOException {
+        final var buffer = new SegmentedBuffer(100, false);
+        assertEquals(0, buffer.view().remaining());
+        final var output = new ByteArrayOutputStream();
+        buffer.writeTo(Channels.newChannel(output));
+        assertEquals(0, output.size());
+    }
+
+    @Test
+    void segments_are_written_with_a_gathering_write() throws IOException {
+        final var buffer = new SegmentedBuffer(DATA.length, false);
+        buffer.put(ByteBuffer.wrap(DATA));
+        final var output = new ByteArrayOutputStream();
+        final var writes = new int[2];
+        final var channel = new GatheringByteChannel() {
+            @Override
+            public long write(final ByteBuffer[] srcs, final int offset, final int length) {
+                writes[1]++;
+                // Write at most the size of a segment, like a partial write
+                var count = 0;
+                for (var i = offset; i < offset + length && count < SegmentedBuffer.SEGMENT_SIZE; i++) {
+                    count += write(srcs[i], Math.min(srcs[i].remaining(), SegmentedBuffer.SEGMENT_SIZE - count));
+                }
+                return count;
+            }
+
+            @Override
+            public long write(final ByteBuffer[] srcs) {
+                return write(srcs, 0, srcs.length);
+            }
+
+            @Override
+            public int write(final ByteBuffer src) {
+                writes[0]++;
+                return write(src, src.remaining());
+            }
+
+            private int write(final ByteBuffer src, final int count) {
+                for (var i = 0; i < count; i++) {
+                    output.write(src.get());
+                }
+                return count;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+                // Nothing to close
+            }
+        };
+        buffer.writeTo(channel);
+
+        assertArrayEquals(DATA, output.toByteArray());
+        assertEquals(0, writes[0]);
+        assertEquals(4, writes[1]);
+    }
+}
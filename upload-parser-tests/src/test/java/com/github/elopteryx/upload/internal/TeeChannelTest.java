@@ -0,0 +1,157 @@
+package com.github.elopteryx.upload.internal;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+class TeeChannelTest {
+
+    @Test
+    void every_channel_gets_the_bytes() throws IOException {
+        final var first = new ByteArrayOutputStream();
+        final var second = new ByteArrayOutputStream();
+        final var failures = new ArrayList<Throwable>();
+        final var channel = new TeeChannel(List.of(Channels.newChannel(first), Channels.newChannel(second)), false, failures);
+        final var buffer = ByteBuffer.wrap("content".getBytes(US_ASCII));
+        assertEquals(7, channel.write(buffer));
+        assertFalse(buffer.hasRemaining());
+        channel.close();
+
+        assertEquals("content", first.toString(US_ASCII));
+        assertEquals("content", second.toString(US_ASCII));
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    void failure_is_thrown_in_fail_all_mode() throws IOException {
+        final var first = new RecordingChannel(false);
+        final var second = new RecordingChannel(true);
+        final var third = new RecordingChannel(false);
+        final var channel = new TeeChannel(List.of(first, second, third), false, new ArrayList<>());
+        assertThrows(IOException.class, () -> channel.write(ByteBuffer.allocate(4)));
+        channel.abort();
+
+        assertTrue(first.aborted);
+        assertTrue(second.aborted);
+        assertTrue(third.aborted);
+        assertFalse(first.closed);
+    }
+
+    @Test
+    void failing_channel_is_dropped_in_best_effort_mode() throws IOException {
+        final var first = new RecordingChannel(false);
+        final var second = new RecordingChannel(true);
+        final var failures = new ArrayList<Throwable>();
+        final var channel = new TeeChannel(List.of(first, second), true, failures);
+        channel.write(ByteBuffer.allocate(4));
+        channel.write(ByteBuffer.allocate(4));
+        channel.close();
+
+        assertEquals(8, first.written);
+        assertTrue(first.closed);
+        assertTrue(second.aborted);
+        assertFalse(second.closed);
+        assertEquals(1, failures.size());
+        assertSame(second.error, failures.get(0));
+    }
+
+    @Test
+    void failure_is_thrown_when_every_channel_failed() {
+        final var failures = new ArrayList<Throwable>();
+        final var channel = new TeeChannel(List.of(new RecordingChannel(true), new RecordingChannel(true)), true, failures);
+        assertThrows(IOException.class, () -> channel.write(ByteBuffer.allocate(4)));
+        assertEquals(2, failures.size());
+    }
+
+    @Test
+    void file_branches_are_closed_on_abort() throws IOException {
+        final var file = Files.createTempFile("tee", ".txt");
+        try {
+            final var output = new ByteArrayOutputStream();
+            final var user = Channels.newChannel(output);
+            final var fileBranch = FileOutputChannel.open(file);
+            final var channel = new TeeChannel(List.of(user, fileBranch), false, new ArrayList<>());
+            channel.write(ByteBuffer.wrap("content".getBytes(US_ASCII)));
+            channel.abort();
+
+            assertFalse(fileBranch.isOpen());
+            assertTrue(user.isOpen());
+            assertEquals("content", Files.readString(file, US_ASCII));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void dropped_file_branch_is_closed_in_best_effort_mode() throws IOException {
+        final var file = Files.createTempFile("tee", ".txt");
+        try {
+            // The file is opened for reading, so the writes fail
+            final var fileBranch = new FileOutputChannel(Files.newByteChannel(file));
+            final var first = new RecordingChannel(false);
+            final var failures = new ArrayList<Throwable>();
+            final var channel = new TeeChannel(List.of(first, fileBranch), true, failures);
+            channel.write(ByteBuffer.allocate(4));
+
+            assertFalse(fileBranch.isOpen());
+            assertEquals(1, failures.size());
+            channel.close();
+            assertTrue(first.closed);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static class RecordingChannel implements AbortableChannel {
+
+        private final boolean failing;
+        private final IOException error = new IOException("Failed");
+        private long written;
+        private boolean closed;
+        private boolean aborted;
+
+        RecordingChannel(final boolean failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            if (failing) {
+                throw error;
+            }
+            final var length = src.remaining();
+            src.position(src.limit());
+            written += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed && !aborted;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+    }
+}
@@ -1,15 +1,32 @@
 package com.github.elopteryx.upload.rs.internal;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.when;
 
 import com.github.elopteryx.upload.errors.MultipartException;
+import com.github.elopteryx.upload.errors.RequestSizeException;
 import com.github.elopteryx.upload.internal.Headers;
 import com.github.elopteryx.upload.util.Servlets;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
 class RestUploadParserTest {
 
+    private static final String BODY = "--boundary\r\n"
+            + "Content-Disposition: form-data; name=\"field\"\r\n"
+            + "\r\n"
+            + "value\r\n"
+            + "--boundary\r\n"
+            + "Content-Disposition: form-data; name=\"file\"; filename=\"file.txt\"\r\n"
+            + "\r\n"
+            + "file content ".repeat(1000) + "\r\n"
+            + "--boundary--\r\n";
 
     @Test
     void this_should_end_with_multipart_exception() throws Exception {
@@ -36,4 +53,35 @@ class RestUploadParserTest {
         final var encodingHeader = "UTF-8";
         assertThrows(IllegalArgumentException.class, () -> parser.doBlockingParse(requestSize, mimeType, encodingHeader, request.getInputStream()));
     }
+
+    @Test
+    void parse_a_compressed_request() throws Exception {
+        final var compressed = gzip(BODY.getBytes(ISO_8859_1));
+        final var parser = new RestUploadParser();
+
+        final var multiPart = parser.doBlockingParse(compressed.length, "multipart/form-data; boundary=boundary", null,
+                "gzip", new ByteArrayInputStream(compressed));
+        assertEquals(2, multiPart.getParts().size());
+        assertEquals("file", multiPart.getParts().get(1).getName());
+        assertEquals(13_000, multiPart.getParts().get(1).getSize());
+        assertEquals(compressed.length, multiPart.getSize());
+    }
+
+    @Test
+    void decompressed_size_is_limited() throws Exception {
+        final var compressed = gzip(BODY.getBytes(ISO_8859_1));
+        final var parser = new RestUploadParser();
+        parser.setMaxRequestSize(1024);
+
+        assertThrows(RequestSizeException.class, () -> parser.doBlockingParse(compressed.length,
+                "multipart/form-data; boundary=boundary", null, "gzip", new ByteArrayInputStream(compressed)));
+    }
+
+    private static byte[] gzip(final byte[] data) throws IOException {
+        final var output = new ByteArrayOutputStream();
+        try (var stream = new GZIPOutputStream(output)) {
+            stream.write(data);
+        }
+        return output.toByteArray();
+    }
 }
@@ -0,0 +1,115 @@
+package com.github.elopteryx.upload.util;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+
+class AtomicFileSinkTest {
+
+    private static final String TEST_TEXT = "Test text.";
+
+    private Path directory;
+
+    @BeforeEach
+    void create_directory() throws IOException {
+        directory = Files.createTempDirectory("sink");
+    }
+
+    @AfterEach
+    void delete_directory() throws IOException {
+        try (var files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void target_is_created_on_commit() throws IOException {
+        final var target = directory.resolve("test.txt");
+        final var sink = new AtomicFileSink(target);
+        sink.open(null);
+        sink.write(ByteBuffer.wrap(TEST_TEXT.getBytes(US_ASCII)));
+        assertFalse(Files.exists(target));
+        assertEquals(1, count());
+        sink.commit();
+        assertEquals(TEST_TEXT, Files.readString(target, US_ASCII));
+        assertEquals(1, count());
+    }
+
+    @Test
+    void existing_target_is_replaced_on_commit() throws IOException {
+        final var target = directory.resolve("test.txt");
+        Files.writeString(target, "Old text which is longer.", US_ASCII);
+        final var sink = new AtomicFileSink(target, true);
+        sink.open(null);
+        sink.write(ByteBuffer.wrap(TEST_TEXT.getBytes(US_ASCII)));
+        assertEquals("Old text which is longer.", Files.readString(target, US_ASCII));
+        sink.commit();
+        assertEquals(TEST_TEXT, Files.readString(target, US_ASCII));
+    }
+
+    @Test
+    void nothing_is_left_on_abort() throws IOException {
+        final var target = directory.resolve("test.txt");
+        final var sink = new AtomicFileSink(target);
+        sink.open(null);
+        sink.write(ByteBuffer.wrap(TEST_TEXT.getBytes(US_ASCII)));
+        sink.abort();
+        assertFalse(Files.exists(target));
+        assertEquals(0, count());
+    }
+
+    @Test
+    void existing_target_is_kept_on_abort() throws IOException {
+        final var target = directory.resolve("test.txt");
+        Files.writeString(target, "Old text.", US_ASCII);
+        final var sink = new AtomicFileSink(target);
+        sink.open(null);
+        sink.write(ByteBuffer.wrap(TEST_TEXT.getBytes(US_ASCII)));
+        sink.abort();
+        assertTrue(Files.exists(target));
+        assertEquals("Old text.", Files.readString(target, US_ASCII));
+        assertEquals(1, count());
+    }
+
+    @Test
+    void staging_file_has_the_default_permissions() throws IOException {
+        final var target = directory.resolve("test.txt");
+        final var plain = directory.resolve("plain.txt");
+        Files.createFile(plain);
+        final var sink = new AtomicFileSink(target, true);
+        sink.open(null);
+        sink.write(ByteBuffer.wrap(TEST_TEXT.getBytes(US_ASCII)));
+        sink.commit();
+        if (Files.getFileStore(directory).supportsFileAttributeView("posix")) {
+            assertEquals(PosixFilePermissions.toString(Files.getPosixFilePermissions(plain)),
+                    PosixFilePermissions.toString(Files.getPosixFilePermissions(target)));
+        }
+        assertEquals(TEST_TEXT, Files.readString(target, US_ASCII));
+    }
+
+    @Test
+    void relative_target_is_resolved() {
+        final var sink = new AtomicFileSink(Path.of("test.txt"));
+        assertEquals(Path.of("test.txt").toAbsolutePath(), sink.getTarget());
+        assertThrows(IllegalArgumentException.class, () -> new AtomicFileSink(directory.getRoot()));
+    }
+
+    private long count() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
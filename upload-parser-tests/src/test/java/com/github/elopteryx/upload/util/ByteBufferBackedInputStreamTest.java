@@ -13,13 +13,21 @@ class ByteBufferBackedInputStreamTest {
     private static final String TEST_TEXT = "Test text.";
 
     @Test
-    void create_with_direct() throws Exception {
-        assertThrows(IllegalArgumentException.class, () -> new ByteBufferBackedInputStream(ByteBuffer.allocate(0).asReadOnlyBuffer()));
+    void read_from_direct() throws Exception {
+        final var buffer = ByteBuffer.allocateDirect(1024);
+        buffer.put(TEST_TEXT.getBytes()).flip();
+        final var stream = new ByteBufferBackedInputStream(buffer);
+        final var buf = new byte[1024];
+        final var read = stream.read(buf);
+        assertEquals(TEST_TEXT, new String(buf, 0, read));
     }
 
     @Test
-    void create_with_read_only() throws Exception {
-        assertThrows(IllegalArgumentException.class, () -> new ByteBufferBackedInputStream(ByteBuffer.allocateDirect(0)));
+    void read_from_read_only() throws Exception {
+        final var stream = new ByteBufferBackedInputStream(ByteBuffer.wrap(TEST_TEXT.getBytes()).asReadOnlyBuffer());
+        final var buf = new byte[1024];
+        final var read = stream.read(buf);
+        assertEquals(TEST_TEXT, new String(buf, 0, read));
     }
 
     @Test
@@ -14,13 +14,20 @@ class ByteBufferBackedOutputStreamTest {
     private static final String TEST_TEXT = "Test text.";
 
     @Test
-    void create_with_direct() {
-        assertThrows(IllegalArgumentException.class, () -> new ByteBufferBackedOutputStream(ByteBuffer.allocate(0).asReadOnlyBuffer()));
+    void write_into_direct() throws IOException {
+        final var bytes = TEST_TEXT.getBytes();
+        final var buffer = ByteBuffer.allocateDirect(1024);
+        final var stream = new ByteBufferBackedOutputStream(buffer);
+        stream.write(bytes);
+        buffer.flip();
+        final var written = new byte[buffer.remaining()];
+        buffer.get(written);
+        assertEquals(TEST_TEXT, new String(written));
     }
 
     @Test
     void create_with_read_only() {
-        assertThrows(IllegalArgumentException.class, () -> new ByteBufferBackedOutputStream(ByteBuffer.allocateDirect(0)));
+        assertThrows(IllegalArgumentException.class, () -> new ByteBufferBackedOutputStream(ByteBuffer.allocate(0).asReadOnlyBuffer()));
     }
 
     @Test
@@ -25,11 +25,16 @@ class InputStreamBackedChannelTest {
     }
 
     @Test
-    void try_to_read_to_direct_buffer() {
+    void read_to_direct_buffer() throws IOException {
         final var stream = new ByteArrayInputStream(TEST_TEXT.getBytes());
         final var channel = new InputStreamBackedChannel(stream);
         final var buffer = ByteBuffer.allocateDirect(1024);
-        assertThrows(IllegalArgumentException.class, () -> channel.read(buffer));
+        assertEquals(TEST_TEXT.length(), channel.read(buffer));
+        assertEquals(-1, channel.read(buffer));
+        buffer.flip();
+        final var read = new byte[buffer.remaining()];
+        buffer.get(read);
+        assertEquals(TEST_TEXT, new String(read));
     }
 
     @Test
@@ -0,0 +1,115 @@
+package com.github.elopteryx.upload.util;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+/**
+ * Generates a multipart request with a single file part of the given size,
+ * without holding the data in the memory. The content of the part repeats
+ * the lowercase letters of the alphabet, so the byte at a given offset of
+ * the part can be checked with {@link #expectedByte(long)}.
+ */
+public class SyntheticMultipartStream extends ServletInputStream {
+
+    /**
+     * The boundary of the generated request.
+     */
+    public static final String BOUNDARY = "synthetic-boundary";
+
+    private static final byte[] HEAD = ("--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"file\"; filename=\"large.bin\"\r\n"
+            + "Content-Type: application/octet-stream\r\n"
+            + "\r\n").getBytes(US_ASCII);
+
+    private static final byte[] TAIL = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(US_ASCII);
+
+    private static final int MAX_READ = 64 * 1024;
+
+    /**
+     * The content, long enough to copy a full read from any offset.
+     */
+    private static final byte[] PATTERN = new byte[MAX_READ + 26];
+
+    static {
+        for (var i = 0; i < PATTERN.length; i++) {
+            PATTERN[i] = expectedByte(i);
+        }
+    }
+
+    private final long partSize;
+
+    private final long length;
+
+    private long position;
+
+    /**
+     * Public constructor.
+     * @param partSize The size of the file part
+     */
+    public SyntheticMultipartStream(final long partSize) {
+        this.partSize = partSize;
+        this.length = HEAD.length + partSize + TAIL.length;
+    }
+
+    /**
+     * Returns the byte of the part content at the given offset.
+     * @param offset The offset in the part
+     * @return The expected byte
+     */
+    public static byte expectedByte(final long offset) {
+        return (byte) ('a' + offset % 26);
+    }
+
+    /**
+     * Returns the full length of the request.
+     * @return The number of bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public int read() {
+        final var bytes = new byte[1];
+        return read(bytes, 0, 1) == -1 ? -1 : bytes[0] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int len) {
+        if (position == length) {
+            return -1;
+        }
+        final int count;
+        if (position < HEAD.length) {
+            count = (int) Math.min(len, HEAD.length - position);
+            System.arraycopy(HEAD, (int) position, bytes, offset, count);
+        } else if (position < HEAD.length + partSize) {
+            final var partOffset = position - HEAD.length;
+            count = (int) Math.min(Math.min(len, MAX_READ), partSize - partOffset);
+            System.arraycopy(PATTERN, (int) (partOffset % 26), bytes, offset, count);
+        } else {
+            final var tailOffset = (int) (position - HEAD.length - partSize);
+            count = Math.min(len, TAIL.length - tailOffset);
+            System.arraycopy(TAIL, tailOffset, bytes, offset, count);
+        }
+        position += count;
+        return count;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return position == length;
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void setReadListener(final ReadListener readListener) {
+        throw new UnsupportedOperationException("The synthetic stream only supports blocking reads");
+    }
+}